@@ -10,7 +10,7 @@ import java.util.Arrays;
 import neo.csharp.common.ByteEnum;
 import neo.csharp.io.BinaryWriter;
 import neo.csharp.io.ISerializable;
-import neo.log.notr.TR;
+import neo.log.tr.TR;
 
 /**
  * 从C#移植过来的工具，统一使用 little endian
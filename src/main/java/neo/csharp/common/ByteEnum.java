@@ -1,6 +1,6 @@
 package neo.csharp.common;
 
-import neo.log.notr.TR;
+import neo.log.tr.TR;
 
 /**
  * Byte枚举类型定义
@@ -11,7 +11,7 @@ import neo.csharp.BitConverter;
 import neo.csharp.Uint;
 import neo.csharp.Ulong;
 import neo.csharp.Ushort;
-import neo.log.notr.TR;
+import neo.log.tr.TR;
 
 import static neo.csharp.io.BinaryWriter.GROUP_SIZE;
 import static neo.csharp.io.CharsetLoader.UTF_8;
@@ -2,7 +2,7 @@ package neo.csharp.io;
 
 import java.nio.charset.Charset;
 
-import neo.log.notr.TR;
+import neo.log.tr.TR;
 
 public class CharsetLoader {
 
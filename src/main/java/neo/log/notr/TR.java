@@ -4,7 +4,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
+import java.util.function.Supplier;
 
+/**
+ * The production variant of {@link neo.log.tr.TR}, kept for code that still imports it: enter,
+ * exit and debug do nothing. {@code neo.log.tr.TR} with {@code -Dtr4j.backend=notr} does the
+ * same and can be switched back to tracing at runtime.
+ */
 public class TR {
 
     private static final Logger logger =
@@ -59,10 +65,82 @@ public class TR {
     public static void debug(Object obj) {
     }
 
+    public static void debug(String format, Object arg) {
+    }
+
+    public static void debug(String format, Object arg1, Object arg2) {
+    }
+
+    public static void debug(String format, Object arg1, Object arg2, Object arg3) {
+    }
+
+    public static void debug(String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+    }
+
+    public static void debug(String format, int arg) {
+    }
+
+    public static void debug(String format, long arg) {
+    }
+
+    public static void debugLazy(String format, Supplier<?> arg) {
+    }
+
+    public static void debug(Supplier<?> message) {
+    }
+
     public static void info(String format, Object... args) {
         logger.info(format, args);
     }
 
+    public static void info(String format, Object arg) {
+        if (logger.isInfoEnabled()) {
+            info(format, new Object[]{arg});
+        }
+    }
+
+    public static void info(String format, Object arg1, Object arg2) {
+        if (logger.isInfoEnabled()) {
+            info(format, new Object[]{arg1, arg2});
+        }
+    }
+
+    public static void info(String format, Object arg1, Object arg2, Object arg3) {
+        if (logger.isInfoEnabled()) {
+            info(format, new Object[]{arg1, arg2, arg3});
+        }
+    }
+
+    public static void info(String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+        if (logger.isInfoEnabled()) {
+            info(format, new Object[]{arg1, arg2, arg3, arg4});
+        }
+    }
+
+    public static void info(String format, int arg) {
+        if (logger.isInfoEnabled()) {
+            info(format, new Object[]{arg});
+        }
+    }
+
+    public static void info(String format, long arg) {
+        if (logger.isInfoEnabled()) {
+            info(format, new Object[]{arg});
+        }
+    }
+
+    public static void infoLazy(String format, Supplier<?> arg) {
+        if (logger.isInfoEnabled()) {
+            info(format, new Object[]{arg.get()});
+        }
+    }
+
+    public static void info(Supplier<?> message) {
+        if (logger.isInfoEnabled()) {
+            logger.info(message == null ? "null" : String.valueOf(message.get()));
+        }
+    }
+
     public static void warn(String format, Object... args) {
         if (logger.isWarnEnabled()) {
             StackTraceElement ste = getStackTraceElement();
@@ -0,0 +1,262 @@
+package neo.log.tr;
+
+import org.slf4j.Logger;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands events to a background thread that renders and logs them, through a bounded
+ * lock-free queue in the style of Dmitry Vyukov's: each slot's sequence number tells
+ * producers and the consumer whose turn it is. An idle consumer parks, with a timeout as
+ * the wake-up is not fenced.
+ * <p>
+ * Enabled with {@code -Dtr4j.async=true}; {@code -Dtr4j.async.capacity} sets the slots
+ * (default 8192) and {@code -Dtr4j.async.overflow} the {@link Overflow}.
+ */
+final class AsyncSink implements TraceSink {
+
+    enum Overflow {
+        /**
+         * Wait for a free slot.
+         */
+        BLOCK,
+        /**
+         * Drop TRACE and DEBUG, wait for INFO and above. The default.
+         */
+        DROP_TRACE_DEBUG,
+        /**
+         * Drop the oldest queued event; never waits.
+         */
+        DROP_OLDEST;
+
+        static Overflow parse(String value) {
+            return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final TraceSink delegate;
+    private final Overflow overflow;
+    private final int mask;
+
+    private final AtomicLongArray sequences;
+    private final EventSlots slots;
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Events that left the queue: rendered, or dropped to make room.
+     */
+    private final AtomicLong completed = new AtomicLong();
+
+    private final Thread consumer;
+    private volatile boolean running = true;
+
+    /**
+     * Set while the consumer is about to park or parked.
+     */
+    private volatile boolean sleeping;
+
+    AsyncSink(TraceSink delegate, int capacity, Overflow overflow) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity) == capacity
+                ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.delegate = delegate;
+        this.overflow = overflow;
+        this.mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        slots = new EventSlots(size);
+        consumer = new Thread(this::consume, "tr4j-async");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    static AsyncSink fromSystemProperties(Logger logger, TraceSink delegate) {
+        int capacity = Integer.getInteger("tr4j.async.capacity", 8192);
+        String policy = System.getProperty("tr4j.async.overflow");
+        Overflow overflow = Overflow.DROP_TRACE_DEBUG;
+        if (policy != null) {
+            try {
+                overflow = Overflow.parse(policy);
+            } catch (IllegalArgumentException e) {
+                logger.warn("TR ignores unknown -Dtr4j.async.overflow=" + policy);
+            }
+        }
+        AsyncSink sink = new AsyncSink(delegate, capacity, overflow);
+        Runtime.getRuntime().addShutdownHook(new Thread(sink::close, "tr4j-async-close"));
+        return sink;
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return delegate.isEnabled(level);
+    }
+
+    @Override
+    public boolean defersRendering() {
+        return true;
+    }
+
+    @Override
+    public void write(Level level, int type, CallSite site, int depth, long threadId,
+                      String format, Object[] arguments) {
+        if (!running) {
+            // closed at exit: nothing would render the event any more
+            delegate.write(level, type, site, depth, threadId, format, arguments);
+            return;
+        }
+        long pos = claim(level);
+        if (pos < 0) {
+            TRStats.dropped();
+            return;
+        }
+        int slot = (int) pos & mask;
+        slots.set(slot, level, type, site, depth, threadId, 0, format, arguments);
+        sequences.lazySet(slot, pos + 1);
+        if (sleeping) {
+            LockSupport.unpark(consumer);
+        }
+        if (!running) {
+            // close() may have drained the queue before the event was published
+            drain();
+        }
+    }
+
+    /**
+     * @return the claimed position, or -1 if the event is dropped
+     */
+    private long claim(Level level) {
+        while (true) {
+            long pos = tail.get();
+            long sequence = sequences.get((int) pos & mask);
+            if (sequence == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    return pos;
+                }
+            } else if (sequence < pos) {
+                // full
+                switch (overflow) {
+                    case DROP_OLDEST:
+                        if (poll(false)) {
+                            TRStats.dropped();
+                        }
+                        break;
+                    case DROP_TRACE_DEBUG:
+                        if (level == Level.TRACE || level == Level.DEBUG) {
+                            return -1;
+                        }
+                        LockSupport.parkNanos(1000);
+                        break;
+                    case BLOCK:
+                    default:
+                        LockSupport.parkNanos(1000);
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest event off the queue and renders it, or only discards it.
+     *
+     * @return false if the queue was empty
+     */
+    private boolean poll(boolean render) {
+        long pos;
+        int slot;
+        while (true) {
+            pos = head.get();
+            slot = (int) pos & mask;
+            long sequence = sequences.get(slot);
+            if (sequence == pos + 1) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (sequence < pos + 1) {
+                return false;
+            }
+        }
+        Level level = slots.levels[slot];
+        int type = slots.types[slot];
+        CallSite site = slots.sites[slot];
+        int depth = slots.depths[slot];
+        long threadId = slots.threadIds[slot];
+        String format = slots.formats[slot];
+        Object[] arguments = slots.args[slot];
+        slots.clear(slot);
+        sequences.lazySet(slot, pos + mask + 1);
+        if (render) {
+            try {
+                delegate.write(level, type, site, depth, threadId, format, arguments);
+            } catch (RuntimeException e) {
+                // one bad event must not stop the consumer
+                TRStats.renderFailed();
+            }
+        }
+        completed.incrementAndGet();
+        return true;
+    }
+
+    private void consume() {
+        long park = IDLE_PARK_NANOS;
+        while (running) {
+            if (poll(true)) {
+                park = IDLE_PARK_NANOS;
+                continue;
+            }
+            sleeping = true;
+            // look again: an event published before the flag was seen wakes nobody
+            if (!poll(true)) {
+                LockSupport.parkNanos(this, park);
+                park = Math.min(park * 2, MAX_IDLE_PARK_NANOS);
+            }
+            sleeping = false;
+        }
+        drain();
+    }
+
+    private void drain() {
+        while (poll(true)) {
+            // render what is left
+        }
+    }
+
+    /**
+     * Waits until every event written before the call has been rendered or dropped.
+     *
+     * @return false if that did not happen within the timeout
+     */
+    boolean flush(long timeout, TimeUnit unit) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (completed.get() < target) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        return true;
+    }
+
+    void close() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package neo.log.tr;
+
+import java.util.Locale;
+
+/**
+ * What {@link TR} does with its calls, chosen with {@code -Dtr4j.backend} at startup or
+ * {@link TR#setBackend(Backend)} at runtime.
+ */
+public enum Backend {
+    /**
+     * Full tracing to the configured output; the default.
+     */
+    TRACE(true, true),
+    /**
+     * Production: enter, exit and debug do nothing, info and above are logged, like
+     * {@code neo.log.notr.TR}.
+     */
+    NOTR(false, true),
+    /**
+     * Every event goes to an in-memory per-thread flight recorder, which is logged on
+     * errors, see {@code -Dtr4j.output=flight}.
+     */
+    FLIGHT(true, true),
+    /**
+     * Every call does nothing.
+     */
+    OFF(false, false);
+
+    final boolean traces;
+    final boolean logs;
+
+    Backend(boolean traces, boolean logs) {
+        this.traces = traces;
+        this.logs = logs;
+    }
+
+    static Backend parse(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
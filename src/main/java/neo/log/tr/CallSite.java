@@ -0,0 +1,39 @@
+package neo.log.tr;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Immutable location of a trace statement, resolved once and reused by every event
+ * logged from it. The {@code File(line)method} prefix is rendered up front.
+ */
+final class CallSite {
+    final int id;
+    final String className;
+    final String fileName;
+    final int lineNumber;
+    final String methodName;
+    final String prefix;
+    final TraceSwitch traceSwitch;
+
+    /**
+     * Events logged from this site, see {@link TRStats}.
+     */
+    final LongAdder events = new LongAdder();
+
+    final RateLimiter limiter = new RateLimiter();
+
+    CallSite(int id, String className, String fileName, int lineNumber, String methodName) {
+        this.id = id;
+        this.className = className;
+        this.fileName = fileName;
+        this.lineNumber = lineNumber;
+        this.methodName = methodName;
+        this.prefix = fileName + "(" + lineNumber + ")" + methodName;
+        this.traceSwitch = TraceSwitch.forClass(className);
+    }
+
+    @Override
+    public String toString() {
+        return prefix;
+    }
+}
@@ -0,0 +1,274 @@
+package neo.log.tr;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites {@code TR.xxx(...)} calls in a class file into calls to the hidden
+ * {@code TR.xxx$(..., int site)} overloads, so the location of each call is known
+ * without walking the stack. A {@link SiteBinder} decides how the site id is pushed.
+ */
+final class CallSiteWeaver {
+
+    static final String TR_OWNER = Type.getInternalName(TR.class);
+
+    private static final byte[] TR_OWNER_BYTES = TR_OWNER.getBytes(StandardCharsets.UTF_8);
+
+    private static final String CLINIT = "<clinit>";
+
+    /**
+     * name + descriptor of a public TR method -> descriptor of its hidden overload
+     */
+    private static final Map<String, String> WOVEN_METHODS = wovenMethods();
+
+    static final class Site {
+        final String className;
+        final String fileName;
+        final int lineNumber;
+        final String methodName;
+
+        Site(String className, String fileName, int lineNumber, String methodName) {
+            this.className = className;
+            this.fileName = fileName;
+            this.lineNumber = lineNumber;
+            this.methodName = methodName;
+        }
+    }
+
+    interface SiteBinder {
+        /**
+         * Called once per woven class with all of its call sites, in the order in which
+         * {@link ClassBinding#pushSite} will be asked for them.
+         */
+        ClassBinding bind(String owner, boolean isInterface, List<Site> sites);
+    }
+
+    interface ClassBinding {
+        /**
+         * Emits the instructions that push the int id of the index-th call site.
+         */
+        void pushSite(MethodVisitor mv, int index);
+
+        /**
+         * @return true if the class needs {@link #initialize} to run in its initializer
+         */
+        default boolean needsInitializer() {
+            return false;
+        }
+
+        /**
+         * Adds members to the woven class.
+         */
+        default void addMembers(ClassVisitor cv) {
+        }
+
+        /**
+         * Emits code at the start of the class initializer.
+         */
+        default void initialize(MethodVisitor mv) {
+        }
+    }
+
+    private final SiteBinder binder;
+
+    CallSiteWeaver(SiteBinder binder) {
+        this.binder = binder;
+    }
+
+    /**
+     * @return the woven class file, or null if it has no TR calls to weave
+     */
+    byte[] weave(byte[] classFile) {
+        if (!references(classFile)) {
+            return null;
+        }
+        ClassReader reader = new ClassReader(classFile);
+        SiteCollector collector = new SiteCollector();
+        reader.accept(collector, 0);
+        if (collector.sites.isEmpty()) {
+            return null;
+        }
+        boolean isInterface = (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0;
+        ClassBinding binding = binder.bind(reader.getClassName(), isInterface, collector.sites);
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        reader.accept(new WeavingClassVisitor(writer, binding), 0);
+        return writer.toByteArray();
+    }
+
+    static boolean references(byte[] classFile) {
+        int last = classFile.length - TR_OWNER_BYTES.length;
+        outer:
+        for (int i = 0; i <= last; i++) {
+            for (int j = 0; j < TR_OWNER_BYTES.length; j++) {
+                if (classFile[i + j] != TR_OWNER_BYTES[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    static String wovenDescriptor(String name, String descriptor) {
+        return WOVEN_METHODS.get(name + descriptor);
+    }
+
+    private static boolean isWoven(int opcode, String owner, String name, String descriptor) {
+        return opcode == Opcodes.INVOKESTATIC && TR_OWNER.equals(owner)
+                && wovenDescriptor(name, descriptor) != null;
+    }
+
+    private static Map<String, String> wovenMethods() {
+        Map<String, String> methods = new HashMap<>();
+        for (Method m : TR.class.getMethods()) {
+            Class<?>[] params = m.getParameterTypes();
+            if (!Modifier.isStatic(m.getModifiers()) || !m.getName().endsWith("$")
+                    || params.length == 0 || params[params.length - 1] != int.class) {
+                continue;
+            }
+            Type[] args = Type.getArgumentTypes(m);
+            Type[] original = new Type[args.length - 1];
+            System.arraycopy(args, 0, original, 0, original.length);
+            String name = m.getName().substring(0, m.getName().length() - 1);
+            methods.put(name + Type.getMethodDescriptor(Type.getReturnType(m), original),
+                    Type.getMethodDescriptor(m));
+        }
+        return methods;
+    }
+
+    /**
+     * Tracks the class, source file, method and line of the instructions being visited.
+     */
+    private abstract static class LocationVisitor extends ClassVisitor {
+        String className;
+        String fileName;
+
+        LocationVisitor(ClassVisitor cv) {
+            super(Opcodes.ASM9, cv);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature,
+                          String superName, String[] interfaces) {
+            className = name.replace('/', '.');
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public void visitSource(String source, String debug) {
+            fileName = source;
+            super.visitSource(source, debug);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                         String signature, String[] exceptions) {
+            MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+            return new MethodVisitor(Opcodes.ASM9, mv) {
+                private int lineNumber = -1;
+
+                @Override
+                public void visitCode() {
+                    super.visitCode();
+                    if (CLINIT.equals(name)) {
+                        visitInitializer(this);
+                    }
+                }
+
+                @Override
+                public void visitLineNumber(int line, Label start) {
+                    lineNumber = line;
+                    super.visitLineNumber(line, start);
+                }
+
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String insnName,
+                                            String insnDescriptor, boolean isInterface) {
+                    if (isWoven(opcode, owner, insnName, insnDescriptor)) {
+                        visitTRCall(this, opcode, owner, insnName, insnDescriptor, isInterface,
+                                new Site(className, fileName, lineNumber, name));
+                    } else {
+                        super.visitMethodInsn(opcode, owner, insnName, insnDescriptor,
+                                isInterface);
+                    }
+                }
+            };
+        }
+
+        void visitInitializer(MethodVisitor mv) {
+        }
+
+        abstract void visitTRCall(MethodVisitor mv, int opcode, String owner, String name,
+                                  String descriptor, boolean isInterface, Site site);
+    }
+
+    private static final class SiteCollector extends LocationVisitor {
+        final List<Site> sites = new ArrayList<>();
+
+        SiteCollector() {
+            super(null);
+        }
+
+        @Override
+        void visitTRCall(MethodVisitor mv, int opcode, String owner, String name,
+                         String descriptor, boolean isInterface, Site site) {
+            sites.add(site);
+        }
+    }
+
+    private static final class WeavingClassVisitor extends LocationVisitor {
+        private final ClassBinding binding;
+        private boolean hasInitializer;
+        private int next;
+
+        WeavingClassVisitor(ClassVisitor cv, ClassBinding binding) {
+            super(cv);
+            this.binding = binding;
+        }
+
+        @Override
+        void visitInitializer(MethodVisitor mv) {
+            hasInitializer = true;
+            binding.initialize(mv);
+        }
+
+        /**
+         * The rewritten call goes back through mv, which passes it on because the hidden
+         * overloads are not weaving targets themselves.
+         */
+        @Override
+        void visitTRCall(MethodVisitor mv, int opcode, String owner, String name,
+                         String descriptor, boolean isInterface, Site site) {
+            binding.pushSite(mv, next++);
+            mv.visitMethodInsn(opcode, owner, name + "$", wovenDescriptor(name, descriptor),
+                    isInterface);
+        }
+
+        @Override
+        public void visitEnd() {
+            binding.addMembers(cv);
+            if (binding.needsInitializer() && !hasInitializer) {
+                MethodVisitor mv = cv.visitMethod(Opcodes.ACC_STATIC, CLINIT, "()V", null, null);
+                mv.visitCode();
+                binding.initialize(mv);
+                mv.visitInsn(Opcodes.RETURN);
+                mv.visitMaxs(0, 0);
+                mv.visitEnd();
+            }
+            super.visitEnd();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package neo.log.tr;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of call sites. Each site gets a dense id, so it can also be looked up by id.
+ * <p>
+ * Sites are keyed by the caller's class and bytecode index when the stack walk provides
+ * them, otherwise by the {@link StackTraceElement}. Lookups never lock or allocate;
+ * only the first event from a site takes the registration lock.
+ */
+final class CallSites {
+
+    private static final Object lock = new Object();
+
+    private static volatile CallSite[] sites = new CallSite[256];
+    private static int count;
+
+    private static final ClassValue<SiteTable> byClass = new ClassValue<SiteTable>() {
+        @Override
+        protected SiteTable computeValue(Class<?> type) {
+            return new SiteTable();
+        }
+    };
+
+    private static final ConcurrentHashMap<StackTraceElement, CallSite> byElement =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Used when no frame outside of TR can be found.
+     */
+    static final CallSite UNKNOWN = register("?", "?", 0, "?");
+
+    private CallSites() {
+    }
+
+    static CallSite get(int id) {
+        CallSite[] snapshot = sites;
+        return id >= 0 && id < snapshot.length ? snapshot[id] : null;
+    }
+
+    static int size() {
+        synchronized (lock) {
+            return count;
+        }
+    }
+
+    static CallSite register(String className, String fileName, int lineNumber,
+                             String methodName) {
+        synchronized (lock) {
+            CallSite[] current = sites;
+            if (count == current.length) {
+                current = Arrays.copyOf(current, count * 2);
+            }
+            CallSite site = new CallSite(count, className, fileName, lineNumber, methodName);
+            current[count++] = site;
+            sites = current;
+            return site;
+        }
+    }
+
+    static CallSite lookup(Class<?> type, String methodName, String descriptor,
+                           int byteCodeIndex) {
+        return byClass.get(type).get(methodName, descriptor, byteCodeIndex);
+    }
+
+    static CallSite put(Class<?> type, String methodName, String descriptor, int byteCodeIndex,
+                        String fileName, int lineNumber) {
+        return byClass.get(type).put(methodName, descriptor, byteCodeIndex, type.getName(),
+                fileName, lineNumber);
+    }
+
+    static CallSite forElement(StackTraceElement ste) {
+        CallSite site = byElement.get(ste);
+        if (site == null) {
+            site = byElement.computeIfAbsent(ste, e -> register(e.getClassName(),
+                    e.getFileName(), e.getLineNumber(), e.getMethodName()));
+        }
+        return site;
+    }
+
+    /**
+     * Call sites of one class, sorted by bytecode index and replaced as a whole on insert.
+     * A bytecode index is only unique within a method, so entries with the same index are
+     * told apart by method name and, where the runtime provides it, method descriptor.
+     */
+    static final class SiteTable {
+
+        private static final Entries EMPTY =
+                new Entries(new int[0], new String[0], new CallSite[0]);
+
+        private volatile Entries entries = EMPTY;
+
+        CallSite get(String methodName, String descriptor, int byteCodeIndex) {
+            Entries e = entries;
+            int i = e.find(methodName, descriptor, byteCodeIndex);
+            return i >= 0 ? e.sites[i] : null;
+        }
+
+        synchronized CallSite put(String methodName, String descriptor, int byteCodeIndex,
+                                  String className, String fileName, int lineNumber) {
+            Entries e = entries;
+            int i = e.find(methodName, descriptor, byteCodeIndex);
+            if (i >= 0) {
+                return e.sites[i];
+            }
+            CallSite site = register(className, fileName, lineNumber, methodName);
+            int at = -i - 1;
+            int n = e.byteCodeIndexes.length;
+            int[] indexes = new int[n + 1];
+            String[] descriptors = new String[n + 1];
+            CallSite[] values = new CallSite[n + 1];
+            System.arraycopy(e.byteCodeIndexes, 0, indexes, 0, at);
+            System.arraycopy(e.descriptors, 0, descriptors, 0, at);
+            System.arraycopy(e.sites, 0, values, 0, at);
+            indexes[at] = byteCodeIndex;
+            descriptors[at] = descriptor;
+            values[at] = site;
+            System.arraycopy(e.byteCodeIndexes, at, indexes, at + 1, n - at);
+            System.arraycopy(e.descriptors, at, descriptors, at + 1, n - at);
+            System.arraycopy(e.sites, at, values, at + 1, n - at);
+            entries = new Entries(indexes, descriptors, values);
+            return site;
+        }
+    }
+
+    private static final class Entries {
+        final int[] byteCodeIndexes;
+        final String[] descriptors;
+        final CallSite[] sites;
+
+        Entries(int[] byteCodeIndexes, String[] descriptors, CallSite[] sites) {
+            this.byteCodeIndexes = byteCodeIndexes;
+            this.descriptors = descriptors;
+            this.sites = sites;
+        }
+
+        /**
+         * @return the index of the entry, or (-(insertion point) - 1) if there is none
+         */
+        int find(String methodName, String descriptor, int byteCodeIndex) {
+            int low = 0;
+            int high = byteCodeIndexes.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (byteCodeIndexes[mid] < byteCodeIndex) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < byteCodeIndexes.length && byteCodeIndexes[i] == byteCodeIndex;
+                 i++) {
+                if (sites[i].methodName.equals(methodName)
+                        && (descriptor == null || descriptor.equals(descriptors[i]))) {
+                    return i;
+                }
+            }
+            return -low - 1;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package neo.log.tr;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The calls of one thread by call path, with their count and inclusive and exclusive
+ * nanoseconds. Only the owning thread updates it; other threads may read counters that lag
+ * by a few calls.
+ */
+final class CallTree {
+
+    static final class Node {
+
+        final CallSite site;
+
+        /**
+         * Keyed by call site identity, so a lookup neither allocates nor formats.
+         */
+        private final Map<CallSite, Node> children = new ConcurrentHashMap<>(4);
+
+        long count;
+        long inclusive;
+        long childTime;
+
+        Node(CallSite site) {
+            this.site = site;
+        }
+
+        Node child(CallSite site) {
+            Node child = children.get(site);
+            if (child == null) {
+                child = new Node(site);
+                children.put(site, child);
+            }
+            return child;
+        }
+
+        Collection<Node> children() {
+            return children.values();
+        }
+
+        void exit(Node parent, long nanos) {
+            count++;
+            inclusive += nanos;
+            parent.childTime += nanos;
+        }
+
+        long exclusive() {
+            return Math.max(0, inclusive - childTime);
+        }
+
+        /**
+         * Adds the subtree of a node no thread updates any more.
+         */
+        void merge(Node other) {
+            count += other.count;
+            inclusive += other.inclusive;
+            childTime += other.childTime;
+            for (Node child : other.children()) {
+                child(child.site).merge(child);
+            }
+        }
+    }
+
+    private final WeakReference<Thread> owner;
+    final Node root = new Node(null);
+
+    /**
+     * @param owner the thread that updates the tree, or null for a merged tree
+     */
+    CallTree(Thread owner) {
+        this.owner = new WeakReference<>(owner);
+    }
+
+    boolean isOwnerAlive() {
+        Thread thread = owner.get();
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Writes {@code frame;frame;frame nanos} lines of exclusive time, outermost frame first,
+     * as flame graph tools read them.
+     */
+    static void writeCollapsed(Iterable<CallTree> trees, Appendable out) throws IOException {
+        writeCollapsed(collapse(trees), out);
+    }
+
+    /**
+     * @return the exclusive time of every path of the trees, by collapsed stack
+     */
+    static Map<String, Long> collapse(Iterable<CallTree> trees) {
+        Map<String, Long> stacks = new TreeMap<>();
+        StringBuilder path = new StringBuilder();
+        for (CallTree tree : trees) {
+            for (Node child : tree.root.children()) {
+                collect(child, path, stacks);
+            }
+        }
+        return stacks;
+    }
+
+    static void writeCollapsed(Map<String, Long> stacks, Appendable out) throws IOException {
+        for (Map.Entry<String, Long> stack : stacks.entrySet()) {
+            out.append(stack.getKey()).append(' ').append(String.valueOf(stack.getValue()))
+                    .append('\n');
+        }
+    }
+
+    private static void collect(Node node, StringBuilder path, Map<String, Long> stacks) {
+        int length = path.length();
+        if (length > 0) {
+            path.append(';');
+        }
+        path.append(node.site.className).append('.').append(node.site.methodName);
+        long exclusive = node.exclusive();
+        if (exclusive > 0) {
+            stacks.merge(path.toString(), exclusive, Long::sum);
+        }
+        for (Node child : node.children()) {
+            collect(child, path, stacks);
+        }
+        path.setLength(length);
+    }
+}
@@ -0,0 +1,289 @@
+package neo.log.tr;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Finds the first stack frame outside of TR without materializing the whole stack: with
+ * {@code StackWalker} on Java 9+, bound through method handles to compile on 1.8, else with
+ * {@code sun.misc.JavaLangAccess} or {@link Throwable#getStackTrace()}.
+ */
+abstract class CallerLocator {
+
+    static final CallerLocator INSTANCE = create();
+
+    private static final String PACKAGE = "neo.log.tr.";
+
+    private static final String[] INTERNAL_CLASSES = {
+            "TR",
+            "CallerLocator",
+            "CallSite",
+            "CallSites",
+    };
+
+    /**
+     * @return the frame of the first method outside of TR, or null if there is none
+     */
+    abstract Object caller();
+
+    /**
+     * @return the cached call site of the first method outside of TR
+     */
+    abstract CallSite callSite();
+
+    abstract String className(Object frame);
+
+    abstract String fileName(Object frame);
+
+    abstract int lineNumber(Object frame);
+
+    abstract String methodName(Object frame);
+
+    static boolean isInternal(String className) {
+        if (!className.startsWith(PACKAGE)) {
+            return false;
+        }
+        int end = className.indexOf('$', PACKAGE.length());
+        int length = (end < 0 ? className.length() : end) - PACKAGE.length();
+        for (String internal : INTERNAL_CLASSES) {
+            if (internal.length() == length
+                    && className.startsWith(internal, PACKAGE.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static CallerLocator create() {
+        try {
+            return new StackWalkerLocator();
+        } catch (Throwable t) {
+            // not on Java 9+
+        }
+        try {
+            return new JavaLangAccessLocator();
+        } catch (Throwable t) {
+            // not on a Java 8 runtime that exposes SharedSecrets
+        }
+        return new ThrowableLocator();
+    }
+
+    static final class StackWalkerLocator extends CallerLocator {
+
+        private static final Object WALKER;
+        private static final MethodHandle WALK;
+        private static final MethodHandle GET_CLASS_NAME;
+        private static final MethodHandle GET_FILE_NAME;
+        private static final MethodHandle GET_LINE_NUMBER;
+        private static final MethodHandle GET_METHOD_NAME;
+        private static final MethodHandle GET_DECLARING_CLASS;
+        private static final MethodHandle GET_BYTE_CODE_INDEX;
+        private static final MethodHandle GET_DESCRIPTOR;
+
+        static {
+            try {
+                Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+                Class<?> optionClass = Class.forName("java.lang.StackWalker$Option");
+                Class<?> frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+                Object retainClassReference = optionClass.getMethod("valueOf", String.class)
+                        .invoke(null, "RETAIN_CLASS_REFERENCE");
+                WALKER = walkerClass.getMethod("getInstance", optionClass)
+                        .invoke(null, retainClassReference);
+                // walk() is caller-sensitive, so it needs a full-privilege lookup
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                WALK = lookup.findVirtual(walkerClass, "walk",
+                        methodType(Object.class, Function.class))
+                        .asType(methodType(Object.class, Object.class, Function.class));
+                GET_CLASS_NAME = accessor(lookup, frameClass, "getClassName", String.class);
+                GET_FILE_NAME = accessor(lookup, frameClass, "getFileName", String.class);
+                GET_LINE_NUMBER = accessor(lookup, frameClass, "getLineNumber", int.class);
+                GET_METHOD_NAME = accessor(lookup, frameClass, "getMethodName", String.class);
+                GET_DECLARING_CLASS = accessor(lookup, frameClass, "getDeclaringClass", Class.class);
+                GET_BYTE_CODE_INDEX = accessor(lookup, frameClass, "getByteCodeIndex", int.class);
+                GET_DESCRIPTOR = descriptorAccessor(lookup, frameClass);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private static MethodHandle accessor(MethodHandles.Lookup lookup, Class<?> frameClass,
+                                             String name, Class<?> type)
+                throws ReflectiveOperationException {
+            return lookup.findVirtual(frameClass, name, methodType(type))
+                    .asType(methodType(type, Object.class));
+        }
+
+        /**
+         * StackFrame.getDescriptor() only exists since Java 10; on 9 overloads that call TR
+         * at the same bytecode index share a call site.
+         */
+        private static MethodHandle descriptorAccessor(MethodHandles.Lookup lookup,
+                                                       Class<?> frameClass)
+                throws ReflectiveOperationException {
+            try {
+                return accessor(lookup, frameClass, "getDescriptor", String.class);
+            } catch (NoSuchMethodException e) {
+                return MethodHandles.dropArguments(
+                        MethodHandles.constant(String.class, null), 0, Object.class);
+            }
+        }
+
+        private final Function<Stream<Object>, Object> firstExternal =
+                frames -> frames.filter(f -> !isInternal(className(f))).findFirst().orElse(null);
+
+        @Override
+        Object caller() {
+            try {
+                return (Object) WALK.invokeExact(WALKER, (Function) firstExternal);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        CallSite callSite() {
+            Object frame = caller();
+            if (frame == null) {
+                return null;
+            }
+            try {
+                Class<?> type = (Class<?>) GET_DECLARING_CLASS.invokeExact(frame);
+                String methodName = (String) GET_METHOD_NAME.invokeExact(frame);
+                String descriptor = (String) GET_DESCRIPTOR.invokeExact(frame);
+                int byteCodeIndex = (int) GET_BYTE_CODE_INDEX.invokeExact(frame);
+                CallSite site = CallSites.lookup(type, methodName, descriptor, byteCodeIndex);
+                if (site == null) {
+                    site = CallSites.put(type, methodName, descriptor, byteCodeIndex,
+                            fileName(frame), lineNumber(frame));
+                }
+                return site;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        String className(Object frame) {
+            try {
+                return (String) GET_CLASS_NAME.invokeExact(frame);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        String fileName(Object frame) {
+            try {
+                return (String) GET_FILE_NAME.invokeExact(frame);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        int lineNumber(Object frame) {
+            try {
+                return (int) GET_LINE_NUMBER.invokeExact(frame);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        String methodName(Object frame) {
+            try {
+                return (String) GET_METHOD_NAME.invokeExact(frame);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    abstract static class StackTraceElementLocator extends CallerLocator {
+
+        @Override
+        CallSite callSite() {
+            Object frame = caller();
+            return frame == null ? null : CallSites.forElement((StackTraceElement) frame);
+        }
+
+        @Override
+        String className(Object frame) {
+            return ((StackTraceElement) frame).getClassName();
+        }
+
+        @Override
+        String fileName(Object frame) {
+            return ((StackTraceElement) frame).getFileName();
+        }
+
+        @Override
+        int lineNumber(Object frame) {
+            return ((StackTraceElement) frame).getLineNumber();
+        }
+
+        @Override
+        String methodName(Object frame) {
+            return ((StackTraceElement) frame).getMethodName();
+        }
+    }
+
+    static final class JavaLangAccessLocator extends StackTraceElementLocator {
+
+        private static final Object ACCESS;
+        private static final MethodHandle GET_DEPTH;
+        private static final MethodHandle GET_ELEMENT;
+
+        static {
+            try {
+                Class<?> secretsClass = Class.forName("sun.misc.SharedSecrets");
+                Class<?> accessClass = Class.forName("sun.misc.JavaLangAccess");
+                ACCESS = secretsClass.getMethod("getJavaLangAccess").invoke(null);
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                GET_DEPTH = lookup.findVirtual(accessClass, "getStackTraceDepth",
+                        methodType(int.class, Throwable.class))
+                        .asType(methodType(int.class, Object.class, Throwable.class));
+                GET_ELEMENT = lookup.findVirtual(accessClass, "getStackTraceElement",
+                        methodType(StackTraceElement.class, Throwable.class, int.class))
+                        .asType(methodType(StackTraceElement.class,
+                                Object.class, Throwable.class, int.class));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        @Override
+        Object caller() {
+            try {
+                Throwable t = new Throwable();
+                int depth = (int) GET_DEPTH.invokeExact(ACCESS, t);
+                for (int i = 0; i < depth; i++) {
+                    StackTraceElement ste = (StackTraceElement) GET_ELEMENT.invokeExact(ACCESS, t, i);
+                    if (!isInternal(ste.getClassName())) {
+                        return ste;
+                    }
+                }
+                return null;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    static final class ThrowableLocator extends StackTraceElementLocator {
+
+        @Override
+        Object caller() {
+            for (StackTraceElement ste : new Throwable().getStackTrace()) {
+                if (!isInternal(ste.getClassName())) {
+                    return ste;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package neo.log.tr;
+
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes every {@code TR.enter()}/{@code TR.exit()} pair as a complete event of the Chrome
+ * trace-event format when it exits, for Perfetto or chrome://tracing:
+ * <pre>
+ * {"ph":"X","pid":4711,"tid":1,"ts":1234.567,"dur":5.445,"name":"Cart.add","cat":"Cart.java"},
+ * </pre>
+ * Timestamps are microseconds since the sink was opened. The JSON array is never closed,
+ * which the viewers accept.
+ * <p>
+ * Enabled with {@code -Dtr4j.chrome=FILE}; {@code -Dtr4j.chrome.maxBytes} and
+ * {@code -Dtr4j.chrome.maxFiles} rotate the file.
+ */
+final class ChromeTraceSink implements TraceSink, Closeable {
+
+    private static final long FLUSH_MILLIS = 1000;
+
+    /**
+     * A thread's buffer is copied to the file once it holds this many chars.
+     */
+    private static final int BUFFER_CHARS = 8 * 1024;
+
+    /**
+     * A thread's open calls and uncopied events. Guarded by itself, taken before the
+     * file's lock.
+     */
+    private static final class ThreadBuffer {
+        final String threadName = Thread.currentThread().getName();
+        final StringBuilder events = new StringBuilder(BUFFER_CHARS + 256);
+        CallSite[] sites = new CallSite[16];
+        long[] starts = new long[16];
+        int depth;
+        long threadId;
+
+        void push(CallSite site, long nanos) {
+            if (depth == sites.length) {
+                sites = Arrays.copyOf(sites, depth * 2);
+                starts = Arrays.copyOf(starts, depth * 2);
+            }
+            sites[depth] = site;
+            starts[depth] = nanos;
+            depth++;
+        }
+    }
+
+    private final Logger logger;
+    private final TraceSink delegate;
+    private final Path file;
+    private final long maxBytes;
+    private final int maxFiles;
+    private final long pid = pid();
+    private final long startNanos = System.nanoTime();
+
+    private final ThreadLocal<ThreadBuffer> buffers = ThreadLocal.withInitial(this::register);
+
+    /**
+     * Every thread's buffer; {@link #flush()} drops a dead thread's once it copied it out.
+     */
+    private final Map<Thread, ThreadBuffer> threadBuffers =
+            Collections.synchronizedMap(new HashMap<>());
+
+    /**
+     * Thread names by thread id, repeated at the start of every file. Guarded by this.
+     */
+    private final Map<Long, String> threads = new TreeMap<>();
+
+    private final StringBuilder line = new StringBuilder(256);
+    private char[] chars = new char[BUFFER_CHARS + 256];
+    private Writer out;
+    private long written;
+    private int part;
+    private boolean closed;
+
+    ChromeTraceSink(Logger logger, TraceSink delegate, Path file, long maxBytes, int maxFiles)
+            throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        if (maxFiles <= 0) {
+            throw new IllegalArgumentException("maxFiles must be positive: " + maxFiles);
+        }
+        this.logger = logger;
+        this.delegate = delegate;
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        open();
+    }
+
+    static ChromeTraceSink fromSystemProperties(Logger logger, TraceSink delegate, String file)
+            throws IOException {
+        long maxBytes = Long.getLong("tr4j.chrome.maxBytes", 100L << 20);
+        int maxFiles = Integer.getInteger("tr4j.chrome.maxFiles", 10);
+        ChromeTraceSink sink = new ChromeTraceSink(logger, delegate, Paths.get(file), maxBytes,
+                maxFiles);
+        Daemon.scheduleAtFixedRate(sink::flush, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                logger.error("TR cannot close the trace " + sink.file(), e);
+            }
+        }, "tr4j-chrome-close"));
+        return sink;
+    }
+
+    private static long pid() {
+        // "pid@host" on the JVMs we know
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        try {
+            return Long.parseLong(name.substring(0, name.indexOf('@')));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private ThreadBuffer register() {
+        ThreadBuffer buffer = new ThreadBuffer();
+        threadBuffers.put(Thread.currentThread(), buffer);
+        return buffer;
+    }
+
+    synchronized Path file() {
+        return part(part);
+    }
+
+    /**
+     * @return the number of the file events are written to now, see {@link #part(int)}
+     */
+    synchronized int currentPart() {
+        return part;
+    }
+
+    Path part(int n) {
+        if (n == 0) {
+            return file;
+        }
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return file.resolveSibling(dot > 0
+                ? name.substring(0, dot) + '.' + n + name.substring(dot)
+                : name + '.' + n);
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return level == Level.TRACE || delegate.isEnabled(level);
+    }
+
+    @Override
+    public boolean defersRendering() {
+        return delegate.defersRendering();
+    }
+
+    @Override
+    public void write(Level level, int type, CallSite site, int depth, long threadId,
+                      String format, Object[] args) {
+        if (type == TraceSink.ENTER || type == TraceSink.EXIT) {
+            long nanos = System.nanoTime() - startNanos;
+            ThreadBuffer buffer = buffers.get();
+            synchronized (buffer) {
+                buffer.threadId = threadId;
+                if (type == TraceSink.ENTER) {
+                    buffer.push(site, nanos);
+                } else if (buffer.depth > 0) {
+                    // an exit whose enter came before the sink was installed has no start
+                    buffer.depth--;
+                    long start = buffer.starts[buffer.depth];
+                    appendEvent(buffer.events, 'X', threadId, start, nanos - start,
+                            buffer.sites[buffer.depth]);
+                    buffer.sites[buffer.depth] = null;
+                    if (buffer.events.length() >= BUFFER_CHARS) {
+                        copyOut(buffer);
+                    }
+                }
+            }
+        }
+        if (delegate.isEnabled(level)) {
+            delegate.write(level, type, site, depth, threadId, format, args);
+        }
+    }
+
+    private void appendEvent(StringBuilder sb, char phase, long threadId, long start,
+                             long duration, CallSite site) {
+        sb.append("{\"ph\":\"").append(phase).append("\",\"pid\":").append(pid)
+                .append(",\"tid\":").append(threadId).append(",\"ts\":");
+        appendMicros(sb, start);
+        if (phase == 'X') {
+            sb.append(",\"dur\":");
+            appendMicros(sb, duration);
+        }
+        // the simple class name, as the text output shows the file name
+        String className = site.className;
+        sb.append(",\"name\":\"");
+        appendEscaped(sb, className, className.lastIndexOf('.') + 1);
+        sb.append('.');
+        appendEscaped(sb, site.methodName, 0);
+        sb.append("\",\"cat\":\"");
+        appendEscaped(sb, site.fileName, 0);
+        sb.append("\"},\n");
+    }
+
+    private static void appendMicros(StringBuilder sb, long nanos) {
+        sb.append(nanos / 1000).append('.');
+        long fraction = nanos % 1000;
+        sb.append(fraction < 100 ? fraction < 10 ? "00" : "0" : "").append(fraction);
+    }
+
+    private void appendThreadName(StringBuilder sb, long threadId, String name) {
+        sb.append("{\"ph\":\"M\",\"pid\":").append(pid).append(",\"tid\":").append(threadId)
+                .append(",\"name\":\"thread_name\",\"args\":{\"name\":\"");
+        appendEscaped(sb, name, 0);
+        sb.append("\"}},\n");
+    }
+
+    static void appendEscaped(StringBuilder sb, String s, int start) {
+        for (int i = start; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append("\\u00").append(Character.forDigit(c >> 4, 16))
+                        .append(Character.forDigit(c & 0xf, 16));
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes the chars take in UTF-8
+     */
+    static int utf8Length(CharSequence s) {
+        int bytes = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x800) {
+                // three bytes, or four for a surrogate pair, which is two chars
+                bytes += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Copies the buffer's events to the file; the caller holds the buffer's lock.
+     */
+    private void copyOut(ThreadBuffer buffer) {
+        StringBuilder events = buffer.events;
+        if (events.length() == 0) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (!closed) {
+                    if (!threads.containsKey(buffer.threadId)) {
+                        threads.put(buffer.threadId, buffer.threadName);
+                        line.setLength(0);
+                        appendThreadName(line, buffer.threadId, buffer.threadName);
+                        writeOut(line);
+                    }
+                    writeOut(events);
+                    if (written >= maxBytes) {
+                        rotate();
+                    }
+                }
+            } catch (IOException e) {
+                TRStats.dropped();
+            }
+        }
+        events.setLength(0);
+    }
+
+    // through a reused array, as Writer.append would copy into a new String
+    private void writeOut(StringBuilder sb) throws IOException {
+        int length = sb.length();
+        if (length > chars.length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        sb.getChars(0, length, chars, 0);
+        out.write(chars, 0, length);
+        int bytes = utf8Length(sb);
+        written += bytes;
+        TRStats.rendered(bytes);
+    }
+
+    private void open() throws IOException {
+        out = Files.newBufferedWriter(part(part), StandardCharsets.UTF_8);
+        out.write("[\n");
+        written = 2;
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            line.setLength(0);
+            appendThreadName(line, thread.getKey(), thread.getValue());
+            writeOut(line);
+        }
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        part++;
+        open();
+        if (part >= maxFiles) {
+            Files.deleteIfExists(part(part - maxFiles));
+        }
+    }
+
+    private List<ThreadBuffer> threadBuffers() {
+        synchronized (threadBuffers) {
+            return new ArrayList<>(threadBuffers.values());
+        }
+    }
+
+    void flush() {
+        List<Map.Entry<Thread, ThreadBuffer>> entries;
+        synchronized (threadBuffers) {
+            entries = new ArrayList<>(threadBuffers.entrySet());
+        }
+        for (Map.Entry<Thread, ThreadBuffer> entry : entries) {
+            ThreadBuffer buffer = entry.getValue();
+            synchronized (buffer) {
+                copyOut(buffer);
+            }
+            if (!entry.getKey().isAlive()) {
+                threadBuffers.remove(entry.getKey());
+            }
+        }
+        synchronized (this) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                logger.error("TR cannot write the trace " + part(part), e);
+            }
+        }
+    }
+
+    /**
+     * Writes what the threads buffered and a begin event per open call; later events are
+     * dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        for (ThreadBuffer buffer : threadBuffers()) {
+            synchronized (buffer) {
+                for (int i = 0; i < buffer.depth; i++) {
+                    appendEvent(buffer.events, 'B', buffer.threadId, buffer.starts[i], 0,
+                            buffer.sites[i]);
+                }
+                copyOut(buffer);
+            }
+        }
+        synchronized (this) {
+            closed = true;
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package neo.log.tr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes a call that logs nothing between its enter and its exit as one
+ * {@code File(line)method : >< [12.3us]} line. Each thread holds back its latest enter
+ * until its next event; an enter held back for a second, or at exit, is written anyway,
+ * marked {@code > [held 1.02s]}.
+ * <p>
+ * Enabled with {@code -Dtr4j.collapse=true}.
+ */
+final class CollapsingSink implements TraceSink {
+
+    private static final long HOLD_MILLIS = 1000;
+
+    private static final long MARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final int EMPTY = 0;
+    private static final int HELD = 1;
+    private static final int CLAIMED = 2;
+
+    /**
+     * Filled by its thread only; the periodic flush may claim it while it is HELD.
+     */
+    private static final class Pending {
+        final AtomicInteger state = new AtomicInteger(EMPTY);
+        Level level;
+        CallSite site;
+        int depth;
+        long threadId;
+        String format;
+        Object[] args;
+        long start;
+    }
+
+    private static final String LEAF_FORMAT = ">< [%s]";
+    private static final String HELD_FORMAT = "> [held %s]";
+
+    private final TraceSink delegate;
+
+    private final ThreadLocal<Pending> pending = ThreadLocal.withInitial(this::register);
+
+    /**
+     * Every live thread's pending enter, for the periodic flush.
+     */
+    private final Map<Thread, Pending> threads =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    CollapsingSink(TraceSink delegate) {
+        this.delegate = delegate;
+    }
+
+    static CollapsingSink fromSystemProperties(TraceSink delegate) {
+        CollapsingSink sink = new CollapsingSink(delegate);
+        Daemon.scheduleAtFixedRate(() -> sink.flushHeld(TimeUnit.MILLISECONDS.toNanos(
+                HOLD_MILLIS)), HOLD_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> sink.flushHeld(0),
+                "tr4j-collapse-flush"));
+        return sink;
+    }
+
+    private Pending register() {
+        Pending enter = new Pending();
+        threads.put(Thread.currentThread(), enter);
+        return enter;
+    }
+
+    TraceSink delegate() {
+        return delegate;
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return delegate.isEnabled(level);
+    }
+
+    @Override
+    public boolean defersRendering() {
+        return delegate.defersRendering();
+    }
+
+    @Override
+    public void write(Level level, int type, CallSite site, int depth, long threadId,
+                      String format, Object[] args) {
+        Pending enter = pending.get();
+        if (enter.state.get() != EMPTY && reclaim(enter)) {
+            if (type == EXIT && depth == enter.depth) {
+                writeLeaf(enter, System.nanoTime() - enter.start);
+                return;
+            }
+            flush(enter);
+        }
+        if (type == ENTER) {
+            enter.level = level;
+            enter.site = site;
+            enter.depth = depth;
+            enter.threadId = threadId;
+            enter.format = format;
+            enter.args = args;
+            enter.start = System.nanoTime();
+            enter.state.set(HELD);
+            return;
+        }
+        delegate.write(level, type, site, depth, threadId, format, args);
+    }
+
+    /**
+     * @return true if the enter was still held; waits while the periodic flush writes it
+     */
+    private static boolean reclaim(Pending enter) {
+        while (true) {
+            int state = enter.state.get();
+            if (state == EMPTY) {
+                return false;
+            }
+            if (state == HELD) {
+                if (enter.state.compareAndSet(HELD, EMPTY)) {
+                    return true;
+                }
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Writes the enters every thread has held back for at least {@code nanos}.
+     */
+    void flushHeld(long nanos) {
+        List<Pending> all;
+        synchronized (threads) {
+            all = new ArrayList<>(threads.values());
+        }
+        long now = System.nanoTime();
+        for (Pending enter : all) {
+            if (enter.state.get() == HELD && now - enter.start >= nanos
+                    && enter.state.compareAndSet(HELD, CLAIMED)) {
+                // the thread may have held a newer enter before the claim
+                if (now - enter.start >= nanos) {
+                    flush(enter);
+                    enter.state.set(EMPTY);
+                } else {
+                    enter.state.set(HELD);
+                }
+            }
+        }
+    }
+
+    private void flush(Pending enter) {
+        long held = System.nanoTime() - enter.start;
+        if (held < MARK_NANOS) {
+            delegate.write(enter.level, ENTER, enter.site, enter.depth, enter.threadId,
+                    enter.format, enter.args);
+        } else {
+            delegate.write(enter.level, ENTER, enter.site, enter.depth, enter.threadId,
+                    format(HELD_FORMAT, enter), args(LatencyStats.duration(held), enter));
+        }
+        enter.site = null;
+        enter.args = null;
+    }
+
+    private void writeLeaf(Pending enter, long nanos) {
+        delegate.write(enter.level, LEAF, enter.site, enter.depth, enter.threadId,
+                format(LEAF_FORMAT, enter), args(nanos, enter));
+        enter.site = null;
+        enter.args = null;
+    }
+
+    private static String format(String head, Pending enter) {
+        return ">".equals(enter.format) ? head
+                : head + enter.format.substring(enter.format.startsWith(">") ? 1 : 0);
+    }
+
+    private static Object[] args(Object first, Pending enter) {
+        Object[] enterArgs = enter.args == null ? new Object[0] : enter.args;
+        Object[] args = new Object[enterArgs.length + 1];
+        args[0] = first;
+        System.arraycopy(enterArgs, 0, args, 1, enterArgs.length);
+        return args;
+    }
+
+    /**
+     * @return the arguments of a {@link TraceSink#LEAF} event with its nanoseconds shown
+     *         as, e.g., {@code 12.3us}
+     */
+    static Object[] leafArgs(Object[] args) {
+        if (args == null || args.length == 0 || !(args[0] instanceof Long)) {
+            return args;
+        }
+        Object[] shown = args.clone();
+        shown[0] = LatencyStats.duration((Long) args[0]);
+        return shown;
+    }
+}
@@ -0,0 +1,39 @@
+package neo.log.tr;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one background thread of TR, for periodic reports and flushes. It is a daemon and
+ * only started when a task is first scheduled.
+ */
+final class Daemon {
+
+    private Daemon() {
+    }
+
+    private static final class Holder {
+        static final ScheduledExecutorService EXECUTOR =
+                Executors.newSingleThreadScheduledExecutor(task -> {
+                    Thread thread = new Thread(task, "tr4j-daemon");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Runs the task every period; an exception is logged by the task itself or swallowed,
+     * it never cancels later runs.
+     */
+    static ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long period, TimeUnit unit) {
+        return Holder.EXECUTOR.scheduleAtFixedRate(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // keep the schedule alive
+            }
+        }, period, period, unit);
+    }
+}
@@ -0,0 +1,76 @@
+package neo.log.tr;
+
+/**
+ * Preallocated storage for events kept to be rendered later, as parallel arrays so that
+ * storing one is a handful of stores. The owner decides which slot an event goes to and
+ * who may read it.
+ */
+final class EventSlots {
+
+    final Level[] levels;
+    final byte[] types;
+    final CallSite[] sites;
+    final int[] depths;
+    final long[] threadIds;
+    final long[] times;
+    final String[] formats;
+    final Object[][] args;
+
+    EventSlots(int capacity) {
+        levels = new Level[capacity];
+        types = new byte[capacity];
+        sites = new CallSite[capacity];
+        depths = new int[capacity];
+        threadIds = new long[capacity];
+        times = new long[capacity];
+        formats = new String[capacity];
+        args = new Object[capacity][];
+    }
+
+    int capacity() {
+        return levels.length;
+    }
+
+    void set(int slot, Level level, int type, CallSite site, int depth, long threadId,
+             long time, String format, Object[] arguments) {
+        levels[slot] = level;
+        types[slot] = (byte) type;
+        sites[slot] = site;
+        depths[slot] = depth;
+        threadIds[slot] = threadId;
+        times[slot] = time;
+        formats[slot] = format;
+        args[slot] = arguments;
+    }
+
+    /**
+     * Drops the slot's references, so a large argument does not outlive its event.
+     */
+    void clear(int slot) {
+        sites[slot] = null;
+        formats[slot] = null;
+        args[slot] = null;
+    }
+
+    /**
+     * Appends the level, padded, and the event's {@code [tid] File(line)method : msg}
+     * line; a message that fails to render is shown by its format.
+     */
+    static void appendEvent(StringBuilder sb, Level level, long threadId, CallSite site,
+                            int depth, String format, Object[] arguments) {
+        int padding = sb.length() + 6;
+        sb.append(level);
+        while (sb.length() < padding) {
+            sb.append(' ');
+        }
+        int line = sb.length();
+        try {
+            LoggerSink.renderTo(sb, depth, threadId, site, format, arguments);
+        } catch (RuntimeException e) {
+            sb.setLength(line);
+            sb.append('[').append(threadId).append(']');
+            IndentContext.appendIndent(sb, depth);
+            sb.append(site.prefix).append(" : ").append(format);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package neo.log.tr;
+
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Keeps the last N events of every thread, at every level, in a per-thread ring and only
+ * renders them on {@code TR.error}, on {@link TR#dumpFlightRecorder()}, and at exit or on
+ * an uncaught exception if asked to.
+ * <p>
+ * Enabled with {@code -Dtr4j.backend=flight}; {@code -Dtr4j.flight.events} sets N
+ * (default 256, rounded up to a power of two).
+ */
+final class FlightRecorderSink implements TraceSink {
+
+    private final Logger logger;
+    private final TraceSink delegate;
+    private final int capacity;
+
+    private final ThreadLocal<EventBuffer> buffers = ThreadLocal.withInitial(this::register);
+
+    /**
+     * Whether a recording thread without a handler of its own gets one that dumps it.
+     */
+    boolean dumpOnUncaught;
+
+    /**
+     * All live threads' buffers, for {@link #dumpAll(String)}.
+     */
+    private final Map<Thread, EventBuffer> threads =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    FlightRecorderSink(Logger logger, TraceSink delegate, int events) {
+        if (events <= 0) {
+            throw new IllegalArgumentException("events must be positive: " + events);
+        }
+        this.logger = logger;
+        this.delegate = delegate;
+        this.capacity = Integer.highestOneBit(events) == events
+                ? events : Integer.highestOneBit(events) << 1;
+    }
+
+    static FlightRecorderSink fromSystemProperties(Logger logger, TraceSink delegate) {
+        int events = Integer.getInteger("tr4j.flight.events", 256);
+        FlightRecorderSink sink = new FlightRecorderSink(logger, delegate, events);
+        sink.dumpOnUncaught = Boolean.getBoolean("tr4j.flight.dumpOnUncaught");
+        if (Boolean.getBoolean("tr4j.flight.dumpOnExit")) {
+            Runtime.getRuntime().addShutdownHook(
+                    new Thread(() -> sink.dumpAll("exit"), "tr4j-flight-dump"));
+        }
+        return sink;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    private EventBuffer register() {
+        Thread thread = Thread.currentThread();
+        EventBuffer buffer = new EventBuffer(capacity, thread.getId());
+        threads.put(thread, buffer);
+        if (dumpOnUncaught && thread.getUncaughtExceptionHandler() == thread.getThreadGroup()) {
+            ThreadGroup group = thread.getThreadGroup();
+            thread.setUncaughtExceptionHandler((t, e) -> {
+                try {
+                    dumpCurrentThread("uncaught " + e);
+                } catch (Throwable ignored) {
+                    // never hide the original exception
+                }
+                group.uncaughtException(t, e);
+            });
+        }
+        return buffer;
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return true;
+    }
+
+    @Override
+    public boolean defersRendering() {
+        return true;
+    }
+
+    @Override
+    public void write(Level level, int type, CallSite site, int depth, long threadId,
+                      String format, Object[] args) {
+        EventBuffer buffer = buffers.get();
+        buffer.record(level, type, site, depth, format, args);
+        if (delegate.isEnabled(level)) {
+            delegate.write(level, type, site, depth, threadId, format, args);
+        }
+        if (level == Level.ERROR) {
+            dumpCurrentThread("error");
+        }
+    }
+
+    void dumpCurrentThread(String reason) {
+        String dump = drainCurrentThread(reason);
+        if (dump != null) {
+            logger.error(dump);
+        }
+    }
+
+    /**
+     * @return the rendered events of the current thread since its previous dump, or null
+     */
+    String drainCurrentThread(String reason) {
+        EventBuffer buffer = buffers.get();
+        long head = buffer.head;
+        String dump = render(Thread.currentThread(), buffer, buffer.dumped, head, reason);
+        buffer.dumped = head;
+        return dump;
+    }
+
+    /**
+     * Logs the recorded events of every live thread, without consuming them.
+     */
+    void dumpAll(String reason) {
+        List<Map.Entry<Thread, EventBuffer>> entries;
+        synchronized (threads) {
+            entries = new ArrayList<>(threads.entrySet());
+        }
+        for (Map.Entry<Thread, EventBuffer> entry : entries) {
+            EventBuffer buffer = entry.getValue();
+            String dump = render(entry.getKey(), buffer, 0, buffer.head, reason);
+            if (dump != null) {
+                logger.warn(dump);
+            }
+        }
+    }
+
+    /**
+     * @return the events of the thread with sequence numbers in [from, to), oldest first,
+     *         or null if there are none
+     */
+    String render(Thread thread, EventBuffer buffer, long from, long to, String reason) {
+        long first = Math.max(from, to - capacity);
+        if (first >= to) {
+            return null;
+        }
+        long now = System.nanoTime();
+        StringBuilder sb = new StringBuilder(128 * (int) (to - first));
+        sb.append("TR flight recorder (").append(reason).append("): last ")
+                .append(to - first).append(" of ").append(to).append(" events of thread [")
+                .append(buffer.threadId).append("] ").append(thread.getName());
+        for (long seq = first; seq < to; seq++) {
+            int start = sb.length();
+            if (!buffer.appendEvent(sb, seq, now)) {
+                sb.setLength(start);
+            }
+        }
+        // a foreign thread may have overwritten the oldest slots while they were read
+        long lapped = buffer.head - capacity;
+        if (lapped > first) {
+            sb.append(System.lineSeparator()).append("  (")
+                    .append(Math.min(lapped, to) - first)
+                    .append(" oldest events were overwritten during the dump)");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * One thread's ring. Only the owning thread writes; {@link #head} is published with an
+     * ordered store after the slot, so other threads see complete events unless the writer
+     * laps them.
+     */
+    static final class EventBuffer {
+
+        private static final AtomicLongFieldUpdater<EventBuffer> HEAD =
+                AtomicLongFieldUpdater.newUpdater(EventBuffer.class, "head");
+
+        final long threadId;
+        private final int mask;
+        private final EventSlots slots;
+
+        volatile long head;
+
+        /**
+         * Sequence of the first event not yet dumped by the owning thread.
+         */
+        long dumped;
+
+        EventBuffer(int capacity, long threadId) {
+            this.threadId = threadId;
+            mask = capacity - 1;
+            slots = new EventSlots(capacity);
+        }
+
+        void record(Level level, int type, CallSite site, int depth, String format,
+                    Object[] arguments) {
+            long seq = head;
+            slots.set((int) seq & mask, level, type, site, depth, threadId, System.nanoTime(),
+                    format, arguments);
+            HEAD.lazySet(this, seq + 1);
+        }
+
+        /**
+         * Appends the event on a new line as {@code -1.234ms [tid] File(line)method : msg}.
+         *
+         * @return false if the slot changed while it was read
+         */
+        boolean appendEvent(StringBuilder sb, long seq, long now) {
+            int slot = (int) seq & mask;
+            Level level = slots.levels[slot];
+            CallSite site = slots.sites[slot];
+            String format = slots.formats[slot];
+            Object[] arguments = slots.args[slot];
+            int depth = slots.depths[slot];
+            long time = slots.times[slot];
+            if (level == null || site == null) {
+                return false;
+            }
+            sb.append(System.lineSeparator()).append("  ");
+            appendAge(sb, now - time);
+            sb.append(' ');
+            EventSlots.appendEvent(sb, level, threadId, site, depth, format, arguments);
+            return true;
+        }
+
+        private static void appendAge(StringBuilder sb, long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            sb.append('-').append(micros / 1000).append('.');
+            long fraction = micros % 1000;
+            if (fraction < 100) {
+                sb.append('0');
+            }
+            if (fraction < 10) {
+                sb.append('0');
+            }
+            sb.append(fraction).append("ms");
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package neo.log.tr;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Call depth of one thread, only touched by that thread. Indents up to
+ * {@code -Dtr4j.indent.max} (default 64) are shared; deeper ones show as "[depth N]".
+ */
+class IndentContext {
+    static final int MAX_DEPTH = Math.max(0, Integer.getInteger("tr4j.indent.max", 64));
+
+    private static final AtomicInteger SPAN_THREADS = new AtomicInteger();
+
+    private static final String[] INDENTS = new String[MAX_DEPTH + 1];
+
+    static {
+        char[] chars = new char[1 + 2 * MAX_DEPTH];
+        Arrays.fill(chars, ' ');
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            INDENTS[depth] = new String(chars, 0, 1 + 2 * depth);
+        }
+    }
+
+    private int depth;
+
+    /**
+     * Depth inside a subtree the sampler left out, 0 while the thread is traced.
+     */
+    private int unsampled;
+
+    /**
+     * Call sites and span ids of the open traced calls, by depth; a span id is 0 while
+     * span ids are off.
+     */
+    private CallSite[] calls = new CallSite[16];
+    private long[] spans = new long[16];
+
+    /**
+     * The next span id: the thread's number in the high 24 bits, a counter in the low 40.
+     */
+    private long nextSpan;
+
+    /**
+     * The last context captured, handed out again while the thread is still in the same
+     * call.
+     */
+    private TraceContext captured = TraceContext.NONE;
+
+    // State saved by attach(), restored by detach(); attached contexts nest.
+    private int attached;
+    private int[] savedDepths = new int[4];
+    private int[] savedUnsampled = new int[4];
+    private CallSite[][] savedCalls = new CallSite[4][];
+    private CallSite[][] spareCalls = new CallSite[4][];
+    private long[][] savedSpans = new long[4][];
+    private long[][] spareSpans = new long[4][];
+    private TraceContext[] savedCaptured = new TraceContext[4];
+
+    IndentContext() {
+        depth = 0;
+    }
+
+    /**
+     * @return true if the enter is traced; the sampler decides at the outermost one
+     */
+    boolean enterSampled(Sampler sampler) {
+        if (unsampled > 0) {
+            unsampled++;
+            return false;
+        }
+        if (depth == 0 && !sampler.sample()) {
+            unsampled = 1;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the exit is traced
+     */
+    boolean exitSampled() {
+        if (unsampled > 0) {
+            unsampled--;
+            return false;
+        }
+        return true;
+    }
+
+    boolean sampled() {
+        return unsampled == 0;
+    }
+
+    void enter(CallSite site, long span) {
+        if (depth >= calls.length) {
+            int length = Math.max(depth + 1, calls.length * 2);
+            calls = Arrays.copyOf(calls, length);
+            spans = Arrays.copyOf(spans, length);
+        }
+        calls[depth] = site;
+        spans[depth] = span;
+        depth++;
+    }
+
+    long nextSpan() {
+        if (nextSpan == 0) {
+            nextSpan = (long) SPAN_THREADS.incrementAndGet() << 40;
+        }
+        return ++nextSpan;
+    }
+
+    /**
+     * @return the span id of the innermost open traced call, or 0
+     */
+    long span() {
+        return depth > 0 && depth <= spans.length ? spans[depth - 1] : 0;
+    }
+
+    /**
+     * @return the span id of the call that just exited, or 0
+     */
+    long exitedSpan() {
+        return depth < spans.length ? spans[depth] : 0;
+    }
+
+    /**
+     * @return the call site of the innermost open traced call, or null
+     */
+    CallSite parent() {
+        return depth > 0 && depth <= calls.length ? calls[depth - 1] : null;
+    }
+
+    TraceContext capture() {
+        CallSite parent = parent();
+        long span = span();
+        boolean sampled = sampled();
+        if (depth == 0 && sampled) {
+            return TraceContext.NONE;
+        }
+        TraceContext last = captured;
+        if (last.depth != depth || last.parent != parent || last.span != span
+                || last.sampled != sampled) {
+            last = new TraceContext(depth, parent, span, Thread.currentThread().getId(),
+                    sampled);
+            captured = last;
+        }
+        return last;
+    }
+
+    /**
+     * Continues the context on this thread until {@link #detach()}.
+     *
+     * @return false if the thread already was in this context
+     */
+    boolean attach(TraceContext context) {
+        if (attached == savedDepths.length) {
+            int length = attached * 2;
+            savedDepths = Arrays.copyOf(savedDepths, length);
+            savedUnsampled = Arrays.copyOf(savedUnsampled, length);
+            savedCalls = Arrays.copyOf(savedCalls, length);
+            spareCalls = Arrays.copyOf(spareCalls, length);
+            savedSpans = Arrays.copyOf(savedSpans, length);
+            spareSpans = Arrays.copyOf(spareSpans, length);
+            savedCaptured = Arrays.copyOf(savedCaptured, length);
+        }
+        boolean continued = captured != context;
+        savedDepths[attached] = depth;
+        savedUnsampled[attached] = unsampled;
+        savedCalls[attached] = calls;
+        savedSpans[attached] = spans;
+        savedCaptured[attached] = captured;
+        if (spareCalls[attached] == null || spareCalls[attached].length <= context.depth) {
+            int length = Math.max(16, context.depth * 2);
+            spareCalls[attached] = new CallSite[length];
+            spareSpans[attached] = new long[length];
+        }
+        calls = spareCalls[attached];
+        spans = spareSpans[attached];
+        attached++;
+        depth = context.depth;
+        if (depth > 0) {
+            calls[depth - 1] = context.parent;
+            spans[depth - 1] = context.span;
+        }
+        unsampled = context.sampled ? 0 : 1;
+        // a capture before the thread's own first enter hands the context on as it is
+        captured = context;
+        return continued;
+    }
+
+    void detach() {
+        attached--;
+        spareCalls[attached] = calls;
+        spareSpans[attached] = spans;
+        calls = savedCalls[attached];
+        spans = savedSpans[attached];
+        savedCalls[attached] = null;
+        savedSpans[attached] = null;
+        captured = savedCaptured[attached];
+        savedCaptured[attached] = null;
+        depth = savedDepths[attached];
+        unsampled = savedUnsampled[attached];
+    }
+
+    public boolean decreaseIndent() {
+        if (depth > 0) {
+            depth--;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    public String GetIndent() {
+        if (depth <= MAX_DEPTH) {
+            return INDENTS[depth];
+        }
+        return " [depth " + depth + "] ";
+    }
+
+    public void appendIndent(StringBuilder sb) {
+        appendIndent(sb, depth);
+    }
+
+    static void appendIndent(StringBuilder sb, int depth) {
+        if (depth <= MAX_DEPTH) {
+            sb.append(INDENTS[depth]);
+        } else {
+            sb.append(" [depth ").append(depth).append("] ");
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package neo.log.tr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of nanoseconds with log-linear buckets, in the style of
+ * HdrHistogram, precise to about 3%. Reads do not stop writers.
+ */
+final class LatencyHistogram {
+
+    static final int PRECISION_BITS = 5;
+    static final long MAX_VALUE = (1L << 44) - 1;
+
+    private static final int SUB_BUCKETS = 1 << PRECISION_BITS;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        long clamped = Math.min(value, MAX_VALUE);
+        int shift = 63 - Long.numberOfLeadingZeros(clamped) - PRECISION_BITS;
+        return shift * SUB_BUCKETS + (int) (clamped >>> shift);
+    }
+
+    /**
+     * @return the largest value counted in the bucket
+     */
+    static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long top = index - shift * SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    void record(long nanos) {
+        counts.incrementAndGet(index(nanos));
+        total.addAndGet(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    long total() {
+        return total.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the value at the quantile, within the precision of its bucket, or 0 if
+     *         nothing was recorded
+     */
+    long valueAt(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max());
+            }
+        }
+        return max();
+    }
+}
@@ -0,0 +1,108 @@
+package neo.log.tr;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of one traced method, measured between its {@code TR.enter()} and
+ * {@code TR.exit()} in profiling mode ({@code -Dtr4j.profile=true}). Durations are in
+ * nanoseconds; percentiles are within about 3% of the exact value.
+ */
+public final class LatencyStats {
+
+    private final String site;
+    private final String className;
+    private final String methodName;
+    private final long count;
+    private final long total;
+    private final long p50;
+    private final long p99;
+    private final long max;
+
+    LatencyStats(CallSite site, LatencyHistogram histogram) {
+        this.site = site.prefix;
+        this.className = site.className;
+        this.methodName = site.methodName;
+        this.count = histogram.count();
+        this.total = histogram.total();
+        this.p50 = histogram.valueAt(0.50);
+        this.p99 = histogram.valueAt(0.99);
+        this.max = histogram.max();
+    }
+
+    /**
+     * @return the enter call site as {@code File(line)method}
+     */
+    public String getSite() {
+        return site;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return total;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    public long getP50Nanos() {
+        return p50;
+    }
+
+    public long getP99Nanos() {
+        return p99;
+    }
+
+    public long getMaxNanos() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%10d %9s %9s %9s %9s  %s", count, duration(p50),
+                duration(p99), duration(max), duration(total), site);
+    }
+
+    /**
+     * Formats like {@code %.1fus}, {@code %.2fms} and {@code %.2fs} with half-up rounding,
+     * but without a Formatter, as collapsed leaf lines format one duration per call.
+     */
+    static String duration(long nanos) {
+        if (nanos < TimeUnit.MICROSECONDS.toNanos(1)) {
+            return nanos + "ns";
+        }
+        if (nanos < TimeUnit.MILLISECONDS.toNanos(1)) {
+            return decimal(nanos, 100, 1, "us");
+        }
+        if (nanos < TimeUnit.SECONDS.toNanos(1)) {
+            return decimal(nanos, 10_000, 2, "ms");
+        }
+        return decimal(nanos, 10_000_000, 2, "s");
+    }
+
+    /**
+     * @param step the nanoseconds of the last digit shown
+     */
+    private static String decimal(long nanos, long step, int digits, String unit) {
+        long steps = (nanos + step / 2) / step;
+        long scale = digits == 1 ? 10 : 100;
+        long fraction = steps % scale;
+        StringBuilder sb = new StringBuilder(12).append(steps / scale).append('.');
+        if (digits == 2 && fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction).append(unit).toString();
+    }
+}
@@ -0,0 +1,9 @@
+package neo.log.tr;
+
+enum Level {
+    TRACE,
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR
+}
@@ -0,0 +1,100 @@
+package neo.log.tr;
+
+import org.slf4j.Logger;
+
+/**
+ * The default sink: renders each event as an indented {@code [tid] File(line)method : msg}
+ * line and logs it through slf4j.
+ */
+final class LoggerSink implements TraceSink {
+
+    /**
+     * Builders larger than this are not kept for reuse, so one huge message does not pin
+     * its buffer to the thread forever.
+     */
+    private static final int MAX_RETAINED_LINE = 16 * 1024;
+
+    private static ThreadLocal<StringBuilder> lineBuilder =
+            ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final Logger logger;
+
+    LoggerSink(Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return isEnabled(logger, level);
+    }
+
+    static boolean isEnabled(Logger logger, Level level) {
+        switch (level) {
+            case ERROR:
+                return logger.isErrorEnabled();
+            case WARN:
+                return logger.isWarnEnabled();
+            case INFO:
+                return logger.isInfoEnabled();
+            case DEBUG:
+                return logger.isDebugEnabled();
+            case TRACE:
+            default:
+                return logger.isTraceEnabled();
+        }
+    }
+
+    @Override
+    public void write(Level level, int type, CallSite site, int depth, long threadId,
+                      String format, Object[] args) {
+        String line = render(depth, threadId, site, format,
+                type == LEAF ? CollapsingSink.leafArgs(args) : args);
+        TRStats.rendered(ChromeTraceSink.utf8Length(line));
+        log(logger, level, line);
+    }
+
+    static void log(Logger logger, Level level, String line) {
+        switch (level) {
+            case ERROR:
+                logger.error(line);
+                break;
+            case WARN:
+                logger.warn(line);
+                break;
+            case INFO:
+                logger.info(line);
+                break;
+            case DEBUG:
+                logger.debug(line);
+                break;
+            case TRACE:
+            default:
+                logger.trace(line);
+                break;
+        }
+    }
+
+    /**
+     * Renders the line into the thread's reusable builder; the returned String handed to
+     * slf4j is the only allocation.
+     */
+    static String render(int depth, long threadId, CallSite site, String format,
+                         Object... args) {
+        StringBuilder sb = lineBuilder.get();
+        sb.setLength(0);
+        renderTo(sb, depth, threadId, site, format, args);
+        String line = sb.toString();
+        if (sb.capacity() > MAX_RETAINED_LINE) {
+            lineBuilder.remove();
+        }
+        return line;
+    }
+
+    static void renderTo(StringBuilder sb, int depth, long threadId, CallSite site,
+                         String format, Object... args) {
+        sb.append('[').append(threadId).append(']');
+        IndentContext.appendIndent(sb, depth);
+        sb.append(site.prefix).append(" : ");
+        MessageFormatter.formatTo(sb, format, args);
+    }
+}
@@ -0,0 +1,281 @@
+package neo.log.tr;
+
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes TR events as fixed-size binary records into a memory-mapped ring file instead of
+ * text; {@link TraceRingDecoder} reads it back. Only primitive arguments are recorded.
+ * Call sites and formats go once to a side table, {@code <ring>.sites}.
+ * <p>
+ * Ring layout, little endian:
+ * <pre>
+ * header (64 bytes): magic, version, record size, capacity, start millis, start nanos
+ * record (64 bytes): sequence + 1 (0 = empty, written last), type, level, depth, site,
+ *                    thread id, nanoTime, format id, argument count, 3 argument kinds,
+ *                    3 arguments
+ * </pre>
+ */
+final class MappedRingSink implements TraceSink, Closeable {
+
+    static final long MAGIC = 0x474e49524a345254L; // "TR4JRING"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 64;
+    static final int MAX_ARGS = 3;
+    static final int MAX_FORMATS = 4096;
+
+    // header offsets
+    static final int H_MAGIC = 0;
+    static final int H_VERSION = 8;
+    static final int H_RECORD_SIZE = 12;
+    static final int H_CAPACITY = 16;
+    static final int H_START_MILLIS = 24;
+    static final int H_START_NANOS = 32;
+
+    // record offsets
+    static final int R_SEQUENCE = 0;
+    static final int R_TYPE = 8;
+    static final int R_LEVEL = 9;
+    static final int R_DEPTH = 10;
+    static final int R_SITE = 12;
+    static final int R_THREAD = 16;
+    static final int R_TIME = 24;
+    static final int R_FORMAT = 32;
+    static final int R_ARG_COUNT = 36;
+    static final int R_ARG_KINDS = 37;
+    static final int R_ARGS = 40;
+
+    // argument kinds
+    static final byte ARG_OMITTED = 0;
+    static final byte ARG_NULL = 1;
+    static final byte ARG_LONG = 2;
+    static final byte ARG_DOUBLE = 3;
+    static final byte ARG_BOOLEAN = 4;
+    static final byte ARG_CHAR = 5;
+    static final byte ARG_INT = 6;
+
+    static final int NO_FORMAT = -1;
+
+    private final Logger logger;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final AtomicLong next = new AtomicLong();
+
+    private final Writer sites;
+    private volatile long[] exported = new long[4];
+    private final ConcurrentHashMap<String, Integer> formats = new ConcurrentHashMap<>();
+
+    MappedRingSink(Logger logger, Path file, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE) {
+            throw new IllegalArgumentException("Invalid ring capacity " + capacity);
+        }
+        this.logger = logger;
+        this.capacity = capacity;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        buffer.order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(H_MAGIC, MAGIC);
+        buffer.putInt(H_VERSION, VERSION);
+        buffer.putInt(H_RECORD_SIZE, RECORD_SIZE);
+        buffer.putInt(H_CAPACITY, capacity);
+        buffer.putLong(H_START_MILLIS, System.currentTimeMillis());
+        buffer.putLong(H_START_NANOS, System.nanoTime());
+        sites = Files.newBufferedWriter(sitesFile(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Opens {@code -Dtr4j.ring.file} (default tr4j.ring) with room for
+     * {@code -Dtr4j.ring.records} records (default 1M, 64MB).
+     */
+    static MappedRingSink fromSystemProperties(Logger logger) throws IOException {
+        Path file = Paths.get(System.getProperty("tr4j.ring.file", "tr4j.ring"));
+        int records = Integer.getInteger("tr4j.ring.records", 1 << 20);
+        MappedRingSink sink = new MappedRingSink(logger, file, records);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                // the mapped records are already in the page cache
+            }
+        }, "tr4j-ring-close"));
+        return sink;
+    }
+
+    static Path sitesFile(Path ring) {
+        return ring.resolveSibling(ring.getFileName() + ".sites");
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return LoggerSink.isEnabled(logger, level);
+    }
+
+    @Override
+    public void write(Level level, int type, CallSite site, int depth, long threadId,
+                      String format, Object[] args) {
+        export(site);
+        // enter and exit only have a format of their own when they carry span ids
+        int formatId = type == MESSAGE || args != null && args.length > 0
+                ? formatId(format) : NO_FORMAT;
+        long sequence = next.getAndIncrement();
+        TRStats.rendered(RECORD_SIZE);
+        int offset = HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+        MappedByteBuffer b = buffer;
+        b.putLong(offset + R_SEQUENCE, 0);
+        b.put(offset + R_TYPE, (byte) type);
+        b.put(offset + R_LEVEL, (byte) level.ordinal());
+        b.putShort(offset + R_DEPTH, (short) Math.min(depth, Short.MAX_VALUE));
+        b.putInt(offset + R_SITE, site.id);
+        b.putLong(offset + R_THREAD, threadId);
+        b.putLong(offset + R_TIME, System.nanoTime());
+        b.putInt(offset + R_FORMAT, formatId);
+        int count = args == null ? 0 : args.length;
+        b.put(offset + R_ARG_COUNT, (byte) Math.min(count, Byte.MAX_VALUE));
+        for (int i = 0; i < MAX_ARGS; i++) {
+            Object arg = i < count ? args[i] : null;
+            long bits = 0;
+            byte kind;
+            if (i >= count) {
+                kind = ARG_OMITTED;
+            } else if (arg == null) {
+                kind = ARG_NULL;
+            } else if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+                kind = ARG_INT;
+                bits = ((Number) arg).intValue();
+            } else if (arg instanceof Long) {
+                kind = ARG_LONG;
+                bits = (Long) arg;
+            } else if (arg instanceof Double || arg instanceof Float) {
+                kind = ARG_DOUBLE;
+                bits = Double.doubleToRawLongBits(((Number) arg).doubleValue());
+            } else if (arg instanceof Boolean) {
+                kind = ARG_BOOLEAN;
+                bits = (Boolean) arg ? 1 : 0;
+            } else if (arg instanceof Character) {
+                kind = ARG_CHAR;
+                bits = (Character) arg;
+            } else {
+                kind = ARG_OMITTED;
+            }
+            b.put(offset + R_ARG_KINDS + i, kind);
+            b.putLong(offset + R_ARGS + 8 * i, bits);
+        }
+        b.putLong(offset + R_SEQUENCE, sequence + 1);
+    }
+
+    private void export(CallSite site) {
+        int id = site.id;
+        long[] bits = exported;
+        if ((id >> 6) < bits.length && (bits[id >> 6] & (1L << id)) != 0) {
+            return;
+        }
+        synchronized (this) {
+            bits = exported;
+            if ((id >> 6) < bits.length && (bits[id >> 6] & (1L << id)) != 0) {
+                return;
+            }
+            writeSideTable('S', id, site.className + '\t' + site.fileName + '\t'
+                    + site.lineNumber + '\t' + site.methodName);
+            if ((id >> 6) >= bits.length) {
+                bits = Arrays.copyOf(bits, Math.max(bits.length * 2, (id >> 6) + 1));
+            }
+            bits[id >> 6] |= 1L << id;
+            exported = bits;
+        }
+    }
+
+    private int formatId(String format) {
+        Integer id = formats.get(format);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = formats.get(format);
+            if (id != null) {
+                return id;
+            }
+            if (formats.size() >= MAX_FORMATS) {
+                return NO_FORMAT;
+            }
+            id = formats.size();
+            writeSideTable('F', id, escape(format));
+            formats.put(format, id);
+            return id;
+        }
+    }
+
+    /**
+     * Lines are flushed right away, so the side table is complete even if the process dies.
+     */
+    private void writeSideTable(char kind, int id, String value) {
+        try {
+            sites.write(kind + "\t" + id + "\t" + value + "\n");
+            sites.flush();
+        } catch (IOException e) {
+            // the decoder shows unknown sites and formats as "?"
+        }
+    }
+
+    static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        sites.close();
+        channel.close();
+    }
+}
@@ -0,0 +1,135 @@
+package neo.log.tr;
+
+import java.math.BigInteger;
+import java.util.Formattable;
+
+/**
+ * Appends a TR message to a reusable {@link StringBuilder} without intermediate Strings.
+ * Handles plain {@code %s}, {@code %d}, {@code %x}, {@code %%} and {@code %n}; anything
+ * else falls back to {@link String#format}.
+ */
+final class MessageFormatter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private MessageFormatter() {
+    }
+
+    static void formatTo(StringBuilder sb, String format, Object... args) {
+        int start = sb.length();
+        if (!tryFormatTo(sb, format, args)) {
+            sb.setLength(start);
+            sb.append(String.format(format, args));
+        }
+    }
+
+    private static boolean tryFormatTo(StringBuilder sb, String format, Object[] args) {
+        int length = format.length();
+        int argIndex = 0;
+        int from = 0;
+        for (int i = format.indexOf('%'); i >= 0; i = format.indexOf('%', from)) {
+            sb.append(format, from, i);
+            if (i + 1 == length) {
+                return false;
+            }
+            char conversion = format.charAt(i + 1);
+            from = i + 2;
+            if (conversion == '%') {
+                sb.append('%');
+                continue;
+            }
+            if (conversion == 'n') {
+                sb.append(LINE_SEPARATOR);
+                continue;
+            }
+            if (args == null || argIndex >= args.length) {
+                return false;
+            }
+            Object arg = args[argIndex++];
+            boolean done;
+            switch (conversion) {
+                case 's':
+                    done = appendString(sb, arg);
+                    break;
+                case 'd':
+                    done = appendDecimal(sb, arg);
+                    break;
+                case 'x':
+                    done = appendHex(sb, arg);
+                    break;
+                default:
+                    done = false;
+                    break;
+            }
+            if (!done) {
+                return false;
+            }
+        }
+        sb.append(format, from, length);
+        return true;
+    }
+
+    private static boolean appendString(StringBuilder sb, Object arg) {
+        if (arg == null) {
+            sb.append("null");
+        } else if (arg instanceof String && ((String) arg).length() <= Values.MAX_CHARS) {
+            sb.append((String) arg);
+        } else if (arg instanceof Integer || arg instanceof Long
+                || arg instanceof Short || arg instanceof Byte) {
+            sb.append(((Number) arg).longValue());
+        } else if (arg instanceof Boolean) {
+            sb.append(((Boolean) arg).booleanValue());
+        } else if (arg instanceof Character) {
+            sb.append(((Character) arg).charValue());
+        } else if (arg instanceof Formattable) {
+            return false;
+        } else {
+            Values.appendTo(sb, arg);
+        }
+        return true;
+    }
+
+    private static boolean appendDecimal(StringBuilder sb, Object arg) {
+        if (arg instanceof Integer || arg instanceof Long
+                || arg instanceof Short || arg instanceof Byte) {
+            sb.append(((Number) arg).longValue());
+            return true;
+        }
+        if (arg instanceof BigInteger) {
+            sb.append(arg.toString());
+            return true;
+        }
+        return arg == null && appendString(sb, null);
+    }
+
+    private static boolean appendHex(StringBuilder sb, Object arg) {
+        if (arg instanceof Integer) {
+            appendHex(sb, (Integer) arg, Integer.SIZE);
+        } else if (arg instanceof Long) {
+            appendHex(sb, (Long) arg, Long.SIZE);
+        } else if (arg instanceof Short) {
+            appendHex(sb, (Short) arg, Short.SIZE);
+        } else if (arg instanceof Byte) {
+            appendHex(sb, (Byte) arg, Byte.SIZE);
+        } else {
+            return arg == null && appendString(sb, null);
+        }
+        return true;
+    }
+
+    /**
+     * Appends the low {@code bits} bits of value as unsigned hex, like {@code %x} does for
+     * negative numbers.
+     */
+    static void appendHex(StringBuilder sb, long value, int bits) {
+        int shift = bits - 4;
+        while (shift > 0 && ((value >>> shift) & 0xF) == 0) {
+            shift -= 4;
+        }
+        for (; shift >= 0; shift -= 4) {
+            sb.append(HEX[(int) ((value >>> shift) & 0xF)]);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package neo.log.tr;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every {@code TR.enter()}/{@code TR.exit()} pair into a histogram per call site and
+ * the thread's {@link CallTree}, whatever the logger's level.
+ * <p>
+ * Enabled with {@code -Dtr4j.profile=true}; {@code -Dtr4j.profile.report=S} logs a report
+ * every S seconds, and {@code -Dtr4j.profile.collapsed=FILE} writes collapsed stacks at
+ * exit.
+ */
+final class ProfilingSink implements TraceSink {
+
+    /**
+     * The open calls of one thread, indexed by depth.
+     */
+    private static final class Frames {
+        final CallTree tree;
+        long[] starts = new long[16];
+        CallSite[] sites = new CallSite[16];
+        CallTree.Node[] nodes = new CallTree.Node[16];
+
+        Frames(CallTree tree) {
+            this.tree = tree;
+        }
+
+        void enter(int depth, CallSite site, long now) {
+            if (depth >= starts.length) {
+                int length = Math.max(depth + 1, starts.length * 2);
+                starts = Arrays.copyOf(starts, length);
+                sites = Arrays.copyOf(sites, length);
+                nodes = Arrays.copyOf(nodes, length);
+            }
+            starts[depth] = now;
+            sites[depth] = site;
+            nodes[depth] = parent(depth).child(site);
+        }
+
+        /**
+         * @return the node of the call open at the depth above, or the root
+         */
+        CallTree.Node parent(int depth) {
+            CallTree.Node parent = depth > 0 ? nodes[depth - 1] : null;
+            return parent != null ? parent : tree.root;
+        }
+    }
+
+    private final TraceSink delegate;
+
+    private final ThreadLocal<Frames> frames = ThreadLocal.withInitial(this::register);
+
+    /**
+     * Threads registered since the last {@link #sweep()}.
+     */
+    private static final int SWEEP_EVERY = 64;
+
+    private final Queue<CallTree> trees = new ConcurrentLinkedQueue<>();
+
+    private final Object lock = new Object();
+
+    /**
+     * The trees of dead threads, merged. Guarded by the lock.
+     */
+    private final CallTree retired = new CallTree(null);
+
+    private int registered;
+
+    /**
+     * Histograms indexed by call site id, grown under the lock and read without it.
+     */
+    private volatile LatencyHistogram[] histograms = new LatencyHistogram[64];
+
+    ProfilingSink(TraceSink delegate) {
+        this.delegate = delegate;
+    }
+
+    static ProfilingSink fromSystemProperties(Logger logger, TraceSink delegate) {
+        ProfilingSink sink = new ProfilingSink(delegate);
+        Integer period = Integer.getInteger("tr4j.profile.report");
+        if (period != null && period > 0) {
+            Daemon.scheduleAtFixedRate(() -> logger.info(sink.report()), period,
+                    TimeUnit.SECONDS);
+        }
+        String collapsed = System.getProperty("tr4j.profile.collapsed");
+        if (collapsed != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try (Writer out = Files.newBufferedWriter(Paths.get(collapsed))) {
+                    sink.writeCollapsed(out);
+                } catch (IOException e) {
+                    logger.error("TR cannot write the collapsed stacks to " + collapsed, e);
+                }
+            }, "tr4j-collapsed-stacks"));
+        }
+        return sink;
+    }
+
+    private Frames register() {
+        CallTree tree = new CallTree(Thread.currentThread());
+        trees.add(tree);
+        synchronized (lock) {
+            if (++registered % SWEEP_EVERY == 0) {
+                sweep();
+            }
+        }
+        return new Frames(tree);
+    }
+
+    /**
+     * Merges the trees of dead threads into {@link #retired}; called under the lock.
+     */
+    private void sweep() {
+        for (Iterator<CallTree> it = trees.iterator(); it.hasNext(); ) {
+            CallTree tree = it.next();
+            if (!tree.isOwnerAlive()) {
+                retired.root.merge(tree.root);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the number of trees kept per thread
+     */
+    int trees() {
+        return trees.size();
+    }
+
+    TraceSink delegate() {
+        return delegate;
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return level == Level.TRACE || delegate.isEnabled(level);
+    }
+
+    @Override
+    public boolean defersRendering() {
+        return delegate.defersRendering();
+    }
+
+    @Override
+    public void write(Level level, int type, CallSite site, int depth, long threadId,
+                      String format, Object[] args) {
+        if (type == TraceSink.ENTER) {
+            frames.get().enter(depth, site, System.nanoTime());
+        } else if (type == TraceSink.EXIT) {
+            long now = System.nanoTime();
+            Frames open = frames.get();
+            if (depth < open.sites.length && open.sites[depth] != null) {
+                long nanos = now - open.starts[depth];
+                histogram(open.sites[depth]).record(nanos);
+                open.nodes[depth].exit(open.parent(depth), nanos);
+                open.sites[depth] = null;
+                open.nodes[depth] = null;
+            }
+        }
+        if (delegate.isEnabled(level)) {
+            delegate.write(level, type, site, depth, threadId, format, args);
+        }
+    }
+
+    private LatencyHistogram histogram(CallSite site) {
+        LatencyHistogram[] current = histograms;
+        if (site.id < current.length) {
+            LatencyHistogram histogram = current[site.id];
+            if (histogram != null) {
+                return histogram;
+            }
+        }
+        synchronized (lock) {
+            current = histograms;
+            if (site.id >= current.length) {
+                current = Arrays.copyOf(current, Math.max(site.id + 1, current.length * 2));
+            }
+            LatencyHistogram histogram = current[site.id];
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                current[site.id] = histogram;
+            }
+            histograms = current;
+            return histogram;
+        }
+    }
+
+    /**
+     * @return the statistics of every profiled method, by descending total time
+     */
+    List<LatencyStats> stats() {
+        LatencyHistogram[] current = histograms;
+        List<LatencyStats> stats = new ArrayList<>();
+        for (int id = 0; id < current.length; id++) {
+            if (current[id] != null) {
+                stats.add(new LatencyStats(CallSites.get(id), current[id]));
+            }
+        }
+        stats.sort(Comparator.comparingLong(LatencyStats::getTotalNanos).reversed());
+        return stats;
+    }
+
+    void writeCollapsed(Appendable out) throws IOException {
+        Map<String, Long> stacks;
+        synchronized (lock) {
+            sweep();
+            List<CallTree> all = new ArrayList<>(trees);
+            all.add(retired);
+            stacks = CallTree.collapse(all);
+        }
+        CallTree.writeCollapsed(stacks, out);
+    }
+
+    String report() {
+        List<LatencyStats> stats = stats();
+        StringBuilder sb = new StringBuilder();
+        sb.append("TR latency profile, ").append(stats.size()).append(" methods")
+                .append(System.lineSeparator())
+                .append(String.format(Locale.ROOT, "%10s %9s %9s %9s %9s  %s",
+                        "count", "p50", "p99", "max", "total", "site"));
+        for (LatencyStats stat : stats) {
+            sb.append(System.lineSeparator()).append(stat);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package neo.log.tr;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A token bucket for the WARN and ERROR events of one call site: {@code -Dtr4j.limit.rate}
+ * per second after a burst of {@code -Dtr4j.limit.burst}. It is kept as the time up to
+ * which its tokens are used, so taking one is a compare-and-set.
+ */
+final class RateLimiter {
+
+    private static final AtomicLongFieldUpdater<RateLimiter> USED_UNTIL =
+            AtomicLongFieldUpdater.newUpdater(RateLimiter.class, "usedUntil");
+    private static final AtomicLongFieldUpdater<RateLimiter> SUPPRESSED =
+            AtomicLongFieldUpdater.newUpdater(RateLimiter.class, "suppressed");
+
+    /**
+     * Nanoseconds per token, 0 if not limited.
+     */
+    private static volatile long interval;
+
+    /**
+     * Nanoseconds the bucket takes to fill up from empty.
+     */
+    private static volatile long capacity;
+
+    static final int SUMMARY_SECONDS =
+            Math.max(1, Integer.getInteger("tr4j.limit.summary", 10));
+
+    static {
+        configureFromSystemProperties();
+    }
+
+    private volatile long usedUntil = Long.MIN_VALUE;
+    private volatile long suppressed;
+
+    /**
+     * Level of the last suppressed event, for the summary.
+     */
+    volatile Level suppressedLevel;
+
+    static void configureFromSystemProperties() {
+        configure(Integer.getInteger("tr4j.limit.rate", 100),
+                Integer.getInteger("tr4j.limit.burst", 100));
+    }
+
+    /**
+     * @param rate  events per second per call site, 0 for no limit
+     * @param burst events a quiet site may log at once
+     */
+    static void configure(int rate, int burst) {
+        if (rate <= 0) {
+            interval = 0;
+            capacity = 0;
+        } else {
+            interval = TimeUnit.SECONDS.toNanos(1) / rate;
+            capacity = interval * Math.max(1, burst);
+        }
+    }
+
+    /**
+     * @return false if the event is suppressed
+     */
+    boolean tryAcquire(Level level) {
+        long step = interval;
+        if (step == 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        long emptyAt = now - capacity;
+        while (true) {
+            long used = usedUntil;
+            long from = used == Long.MIN_VALUE || used - emptyAt < 0 ? emptyAt : used;
+            long next = from + step;
+            if (next - now > 0) {
+                suppressedLevel = level;
+                SUPPRESSED.incrementAndGet(this);
+                return false;
+            }
+            if (USED_UNTIL.compareAndSet(this, used, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the number of events suppressed since the previous call
+     */
+    long drainSuppressed() {
+        return suppressed == 0 ? 0 : SUPPRESSED.getAndSet(this, 0);
+    }
+}
@@ -0,0 +1,141 @@
+package neo.log.tr;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a thread's outermost {@code TR.enter()} is traced, for its whole
+ * subtree. INFO and above are never sampled.
+ * <p>
+ * {@code -Dtr4j.sample.oneIn=N} traces one in N subtrees;
+ * {@code -Dtr4j.sample.window=W -Dtr4j.sample.period=P} those that start in the first W
+ * milliseconds of every P.
+ */
+abstract class Sampler {
+
+    static final Sampler ALWAYS = new Always();
+
+    /**
+     * Called by the thread that is about to enter its outermost traced method.
+     */
+    abstract boolean sample();
+
+    static Sampler oneIn(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        return n == 1 ? ALWAYS : new OneIn(n);
+    }
+
+    static Sampler window(long window, long period, TimeUnit unit) {
+        if (window <= 0 || period <= 0) {
+            throw new IllegalArgumentException("window and period must be positive");
+        }
+        return window >= period ? ALWAYS : new Window(unit.toNanos(window), unit.toNanos(period));
+    }
+
+    /**
+     * @param policy "always", "1/N" or "Wms/Pms", as returned by {@link #toString()}
+     */
+    static Sampler parse(String policy) {
+        String value = policy.trim();
+        if (value.equals("always")) {
+            return ALWAYS;
+        }
+        int slash = value.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("unknown sampling policy: " + policy);
+        }
+        try {
+            if (value.startsWith("1/")) {
+                return oneIn(Integer.parseInt(value.substring(2)));
+            }
+            if (value.endsWith("ms") && value.substring(0, slash).endsWith("ms")) {
+                return window(Long.parseLong(value.substring(0, slash - 2)),
+                        Long.parseLong(value.substring(slash + 1, value.length() - 2)),
+                        TimeUnit.MILLISECONDS);
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("unknown sampling policy: " + policy);
+    }
+
+    static Sampler fromSystemProperties() {
+        Integer oneIn = Integer.getInteger("tr4j.sample.oneIn");
+        if (oneIn != null) {
+            return oneIn(oneIn);
+        }
+        Long window = Long.getLong("tr4j.sample.window");
+        if (window != null) {
+            return window(window, Long.getLong("tr4j.sample.period", 1000L),
+                    TimeUnit.MILLISECONDS);
+        }
+        return ALWAYS;
+    }
+
+    static final class Always extends Sampler {
+
+        @Override
+        boolean sample() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "always";
+        }
+    }
+
+    /**
+     * Random rather than every N-th, so periodic workloads do not alias with the rate.
+     */
+    static final class OneIn extends Sampler {
+
+        private final int n;
+
+        OneIn(int n) {
+            this.n = n;
+        }
+
+        @Override
+        boolean sample() {
+            return ThreadLocalRandom.current().nextInt(n) == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "1/" + n;
+        }
+    }
+
+    static final class Window extends Sampler {
+
+        private final long window;
+        private final long period;
+
+        Window(long window, long period) {
+            this.window = window;
+            this.period = period;
+        }
+
+        @Override
+        boolean sample() {
+            return sample(System.nanoTime(), Thread.currentThread().getId());
+        }
+
+        /**
+         * Each thread's window is shifted by a hash of its id.
+         */
+        boolean sample(long now, long threadId) {
+            long phase = Math.floorMod(threadId * 0x9e3779b97f4a7c15L, period);
+            return Math.floorMod(now + phase, period) < window;
+        }
+
+        @Override
+        public String toString() {
+            return TimeUnit.NANOSECONDS.toMillis(window) + "ms/"
+                    + TimeUnit.NANOSECONDS.toMillis(period) + "ms";
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package neo.log.tr;
+
+import org.slf4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the events of each thread's outermost traced call, at every level, and only logs
+ * them if the call took longer than its threshold. INFO and above are also logged at once.
+ * <p>
+ * Enabled with {@code -Dtr4j.slow.threshold=MS}; {@code -Dtr4j.slow.sites} sets thresholds
+ * by {@code class.method} prefix, e.g. {@code com.ourshop.Order.place=400}, and
+ * {@code -Dtr4j.slow.events} the events kept per call (default 1024).
+ */
+final class SlowCallSink implements TraceSink {
+
+    private final Logger logger;
+    private final TraceSink delegate;
+    private final int capacity;
+
+    private volatile long threshold;
+
+    /**
+     * Thresholds in nanoseconds by {@code class} or {@code class.method} prefix.
+     */
+    private final Map<String, Long> thresholds = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<CallBuffer> buffers;
+
+    SlowCallSink(Logger logger, TraceSink delegate, long threshold, TimeUnit unit,
+                 int events) {
+        if (events <= 0) {
+            throw new IllegalArgumentException("events must be positive: " + events);
+        }
+        this.logger = logger;
+        this.delegate = delegate;
+        this.capacity = events;
+        this.threshold = unit.toNanos(threshold);
+        buffers = ThreadLocal.withInitial(() -> new CallBuffer(capacity));
+    }
+
+    static SlowCallSink fromSystemProperties(Logger logger, TraceSink delegate, long threshold) {
+        SlowCallSink sink = new SlowCallSink(logger, delegate, threshold, TimeUnit.MILLISECONDS,
+                Integer.getInteger("tr4j.slow.events", 1024));
+        String sites = System.getProperty("tr4j.slow.sites");
+        if (sites != null) {
+            for (String entry : sites.split(",")) {
+                int equals = entry.indexOf('=');
+                try {
+                    sink.setThreshold(entry.substring(0, equals).trim(),
+                            Long.parseLong(entry.substring(equals + 1).trim()),
+                            TimeUnit.MILLISECONDS);
+                } catch (RuntimeException e) {
+                    logger.warn("TR ignores -Dtr4j.slow.sites entry " + entry);
+                }
+            }
+        }
+        return sink;
+    }
+
+    /**
+     * @param prefix a class or {@code class.method} prefix, or "" for every call
+     */
+    void setThreshold(String prefix, long value, TimeUnit unit) {
+        if (prefix.isEmpty()) {
+            threshold = unit.toNanos(value);
+        } else {
+            thresholds.put(prefix, unit.toNanos(value));
+        }
+    }
+
+    long threshold(CallSite site) {
+        if (thresholds.isEmpty()) {
+            return threshold;
+        }
+        String name = site.className + '.' + site.methodName;
+        String best = null;
+        for (String prefix : thresholds.keySet()) {
+            if (name.startsWith(prefix) && (best == null || prefix.length() > best.length())
+                    && (name.length() == prefix.length() || name.charAt(prefix.length()) == '.'
+                    || name.charAt(prefix.length()) == '$')) {
+                best = prefix;
+            }
+        }
+        return best == null ? threshold : thresholds.get(best);
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return true;
+    }
+
+    @Override
+    public boolean defersRendering() {
+        return true;
+    }
+
+    @Override
+    public void write(Level level, int type, CallSite site, int depth, long threadId,
+                      String format, Object[] args) {
+        if (level.compareTo(Level.INFO) >= 0 && delegate.isEnabled(level)) {
+            delegate.write(level, type, site, depth, threadId, format, args);
+        }
+        CallBuffer buffer = buffers.get();
+        if (buffer.size == 0 && type != ENTER) {
+            // outside any call
+            return;
+        }
+        long now = System.nanoTime();
+        if (type == EXIT && depth == buffer.rootDepth) {
+            long nanos = now - buffer.slots.times[0];
+            if (nanos >= threshold(buffer.slots.sites[0])) {
+                logger.warn(buffer.render(threadId, nanos, level, site, depth, format, args,
+                        now));
+            }
+            buffer.clear();
+            return;
+        }
+        buffer.record(level, type, site, depth, threadId, format, args, now);
+    }
+
+    /**
+     * The events of one thread's open outermost call.
+     */
+    static final class CallBuffer {
+
+        final EventSlots slots;
+        int size;
+        int rootDepth;
+
+        /**
+         * Events that did not fit.
+         */
+        long omitted;
+
+        CallBuffer(int capacity) {
+            slots = new EventSlots(capacity);
+        }
+
+        void record(Level level, int type, CallSite site, int depth, long threadId,
+                    String format, Object[] arguments, long now) {
+            if (size == slots.capacity()) {
+                omitted++;
+                return;
+            }
+            if (size == 0) {
+                rootDepth = depth;
+            }
+            slots.set(size, level, type, site, depth, threadId, now, format, arguments);
+            size++;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                slots.clear(i);
+            }
+            size = 0;
+            omitted = 0;
+        }
+
+        /**
+         * Renders the call up to its exit, each event with the time since the enter.
+         */
+        String render(long threadId, long nanos, Level exitLevel, CallSite exitSite,
+                      int exitDepth, String exitFormat, Object[] exitArgs, long now) {
+            long start = slots.times[0];
+            StringBuilder sb = new StringBuilder(128 * (size + 2));
+            sb.append("TR slow call ").append(slots.sites[0].prefix).append(" took ")
+                    .append(LatencyStats.duration(nanos)).append(", ")
+                    .append(size + omitted + 1).append(" events of thread [").append(threadId)
+                    .append(']');
+            for (int i = 0; i < size; i++) {
+                appendEvent(sb, slots.times[i] - start, slots.levels[i], threadId,
+                        slots.sites[i], slots.depths[i], slots.formats[i], slots.args[i]);
+            }
+            if (omitted > 0) {
+                sb.append(System.lineSeparator()).append("  (").append(omitted)
+                        .append(" events left out)");
+            }
+            appendEvent(sb, now - start, exitLevel, threadId, exitSite, exitDepth, exitFormat,
+                    exitArgs);
+            return sb.toString();
+        }
+
+        private static void appendEvent(StringBuilder sb, long offset, Level level,
+                                        long threadId, CallSite site, int depth,
+                                        String format, Object[] arguments) {
+            sb.append(System.lineSeparator()).append("  +");
+            int padding = sb.length() + 9;
+            sb.append(LatencyStats.duration(offset));
+            while (sb.length() < padding) {
+                sb.append(' ');
+            }
+            sb.append(' ');
+            EventSlots.appendEvent(sb, level, threadId, site, depth, format, arguments);
+        }
+    }
+}
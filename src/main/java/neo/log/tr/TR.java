@@ -2,209 +2,1043 @@ package neo.log.tr;
 
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
-import java.util.Arrays;
+import java.lang.invoke.MutableCallSite;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class TR {
 
     private static final org.slf4j.Logger logger =
             LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
-    private static StackTraceElement getStackTraceElement() {
-        StackTraceElement[] stackTraces = Thread.currentThread().getStackTrace();
-        return stackTraces[3];
+    private static CallSite getCallSite() {
+        CallSite site = CallerLocator.INSTANCE.callSite();
+        return site == null ? CallSites.UNKNOWN : site;
     }
 
     private static ThreadLocal<IndentContext> indentContext =
             ThreadLocal.withInitial(IndentContext::new);
 
-    private static void output(Level level, DebugData dd, String format, Object... args) {
+    // set by createOutput(), so declared before traceSink
+    private static SlowCallSink slowCalls;
+    private static AsyncSink async;
+
+    private static final TraceSink traceSink = createSink(createOutput());
+
+    // created when the FLIGHT backend is first set
+    private static TraceSink flightSink;
+
+    private static Backend backend = Backend.TRACE;
+
+    private static volatile TraceSink sink = traceSink;
+
+    // Whether the backend traces and logs, as constant call sites the JIT folds away.
+
+    private static final MutableCallSite TRACING =
+            new MutableCallSite(MethodHandles.constant(boolean.class, true));
+    private static final MutableCallSite LOGGING =
+            new MutableCallSite(MethodHandles.constant(boolean.class, true));
+    private static final MethodHandle IS_TRACING = TRACING.dynamicInvoker();
+    private static final MethodHandle IS_LOGGING = LOGGING.dynamicInvoker();
+
+    static {
+        setBackend(initialBackend());
+    }
+
+    private static boolean tracing() {
+        try {
+            return (boolean) IS_TRACING.invokeExact();
+        } catch (Throwable t) {
+            throw new AssertionError(t);
+        }
+    }
+
+    private static boolean logging() {
+        try {
+            return (boolean) IS_LOGGING.invokeExact();
+        } catch (Throwable t) {
+            throw new AssertionError(t);
+        }
+    }
+
+    private static Backend initialBackend() {
+        String value = System.getProperty("tr4j.backend");
+        if (value != null) {
+            try {
+                return Backend.parse(value);
+            } catch (IllegalArgumentException e) {
+                logger.warn("TR ignores unknown -Dtr4j.backend=" + value);
+            }
+        }
+        return "flight".equals(System.getProperty("tr4j.output")) ? Backend.FLIGHT : Backend.TRACE;
+    }
+
+    private static TraceSink createSink(TraceSink output) {
+        if (Boolean.getBoolean("tr4j.profile")) {
+            return ProfilingSink.fromSystemProperties(logger, output);
+        }
+        return output;
+    }
+
+    private static TraceSink createOutput() {
+        TraceSink output = createBaseOutput();
+        if (Boolean.getBoolean("tr4j.collapse")) {
+            output = CollapsingSink.fromSystemProperties(output);
+        }
+        Long threshold = Long.getLong("tr4j.slow.threshold");
+        if (threshold != null) {
+            slowCalls = SlowCallSink.fromSystemProperties(logger, output, threshold);
+            output = slowCalls;
+        }
+        String chrome = System.getProperty("tr4j.chrome");
+        if (chrome != null) {
+            try {
+                output = ChromeTraceSink.fromSystemProperties(logger, output, chrome);
+            } catch (IOException e) {
+                logger.error("TR cannot open the trace " + chrome, e);
+            }
+        }
+        return output;
+    }
+
+    private static TraceSink createBaseOutput() {
+        if ("ring".equals(System.getProperty("tr4j.output"))) {
+            try {
+                return MappedRingSink.fromSystemProperties(logger);
+            } catch (IOException e) {
+                logger.error("TR cannot open the trace ring, falling back to text output", e);
+            }
+        }
+        if (Boolean.getBoolean("tr4j.async")) {
+            async = AsyncSink.fromSystemProperties(logger, new LoggerSink(logger));
+            return async;
+        }
+        return new LoggerSink(logger);
+    }
+
+    public static synchronized Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Switches what TR does at runtime, see {@link Backend}.
+     */
+    public static synchronized void setBackend(Backend newBackend) {
+        if (newBackend == Backend.FLIGHT) {
+            if (flightSink == null) {
+                // the recorder goes between the profiler and the output
+                if (traceSink instanceof ProfilingSink) {
+                    flightSink = ProfilingSink.fromSystemProperties(logger,
+                            FlightRecorderSink.fromSystemProperties(
+                                    logger, ((ProfilingSink) traceSink).delegate()));
+                } else {
+                    flightSink = FlightRecorderSink.fromSystemProperties(logger, traceSink);
+                }
+            }
+            sink = flightSink;
+        } else {
+            sink = traceSink;
+        }
+        backend = newBackend;
+        TRACING.setTarget(MethodHandles.constant(boolean.class, newBackend.traces));
+        LOGGING.setTarget(MethodHandles.constant(boolean.class, newBackend.logs));
+        MutableCallSite.syncAll(new MutableCallSite[]{TRACING, LOGGING});
+    }
+
+    static TraceSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Replaces the backend's sink; null restores it.
+     */
+    static synchronized void setSink(TraceSink newSink) {
+        sink = newSink == null ? (backend == Backend.FLIGHT ? flightSink : traceSink) : newSink;
+    }
+
+    /**
+     * Switches TRACE and DEBUG of a package or class prefix; the longest prefix wins and
+     * "" or "*" is the default.
+     */
+    public static void setTraceEnabled(String prefix, boolean enabled) {
+        TraceSwitch.setRule(prefix, enabled);
+    }
+
+    public static void removeTraceRule(String prefix) {
+        TraceSwitch.removeRule(prefix);
+    }
+
+    public static boolean isTraceEnabled(String className) {
+        return TraceSwitch.isEnabled(className);
+    }
+
+    /**
+     * Renders values of the type and its subtypes in place of {@code toString()}; null
+     * removes the renderer.
+     */
+    public static <T> void registerRenderer(Class<T> type, ValueRenderer<? super T> renderer) {
+        Values.register(type, renderer);
+    }
+
+    /**
+     * @param prefix a class or {@code class.method} prefix, or "" for the default
+     */
+    public static void setSlowThreshold(String prefix, long threshold, TimeUnit unit) {
+        SlowCallSink current = slowCalls;
+        if (current != null) {
+            current.setThreshold(prefix, threshold, unit);
+        }
+    }
+
+    public static void dumpFlightRecorder() {
+        TraceSink current = sink;
+        if (current instanceof ProfilingSink) {
+            current = ((ProfilingSink) current).delegate();
+        }
+        if (current instanceof FlightRecorderSink) {
+            ((FlightRecorderSink) current).dumpAll("on demand");
+        }
+    }
+
+    /**
+     * @return the latency of every profiled method, by descending total time
+     */
+    public static List<LatencyStats> latencyStats() {
+        TraceSink current = sink;
+        if (current instanceof ProfilingSink) {
+            return ((ProfilingSink) current).stats();
+        }
+        return Collections.emptyList();
+    }
+
+    public static String latencyReport() {
+        TraceSink current = sink;
+        if (current instanceof ProfilingSink) {
+            return ((ProfilingSink) current).report();
+        }
+        return null;
+    }
+
+    /**
+     * Writes the profiled call trees as flame graph collapsed stacks.
+     */
+    public static void writeCollapsedStacks(Appendable out) throws IOException {
+        TraceSink current = sink;
+        if (current instanceof ProfilingSink) {
+            ((ProfilingSink) current).writeCollapsed(out);
+        }
+    }
+
+    private static volatile Sampler sampler = Sampler.fromSystemProperties();
+
+    static volatile boolean spans = Boolean.getBoolean("tr4j.spans");
+
+    private static volatile boolean summariesScheduled;
+
+    private static final String SPAN_ENTER = "> span %x parent %x";
+    private static final String SPAN_EXIT = "< span %x";
+
+    static {
+        TRStats.register();
+    }
+
+    static Sampler getSampler() {
+        return sampler;
+    }
+
+    static void setSampler(Sampler newSampler) {
+        sampler = newSampler == null ? Sampler.ALWAYS : newSampler;
+    }
+
+    private static boolean logged(Level level) {
+        return logging() && sink.isEnabled(level);
+    }
+
+    private static IndentContext traced(Level level) {
+        if (!tracing() || !sink.isEnabled(level)) {
+            return null;
+        }
         IndentContext iu = indentContext.get();
-        if ("<".equals(format)) {
-            if (!iu.decreaseIndent()) {
-                logger.warn(String.format("[%d]TR log indent mismatch", dd.threadId));
-            }
-        }
-        String dbgStr = String.format("[%d]%s%s(%d)%s",
-                dd.threadId, iu.GetIndent(), dd.fileName, dd.lineNumber, dd.methodName);
-        String logStr = String.format(format, args);
-        String finalStr = String.format("%s : %s", dbgStr, logStr);
-        switch (level) {
-            case ERROR:
-                logger.error(finalStr);
-                break;
-            case WARN:
-                logger.warn(finalStr);
-                break;
-            case INFO:
-                logger.info(finalStr);
-                break;
-            case DEBUG:
-                logger.debug(finalStr);
-                break;
-            case TRACE:
-            default:
-                logger.trace(finalStr);
-                break;
-        }
-        if (">".equals(format)) {
-            iu.increaseIndent();
+        return iu.sampled() ? iu : null;
+    }
+
+    private static IndentContext entering() {
+        if (!tracing() || !sink.isEnabled(Level.TRACE)) {
+            return null;
+        }
+        IndentContext iu = indentContext.get();
+        return iu.enterSampled(sampler) ? iu : null;
+    }
+
+    private static IndentContext exiting() {
+        if (!tracing() || !sink.isEnabled(Level.TRACE)) {
+            return null;
+        }
+        IndentContext iu = indentContext.get();
+        return iu.exitSampled() ? iu : null;
+    }
+
+    private static IndentContext traced(Level level, CallSite site) {
+        return site.traceSwitch.enabled ? traced(level) : null;
+    }
+
+    private static IndentContext entering(CallSite site) {
+        return site.traceSwitch.enabled ? entering() : null;
+    }
+
+    private static IndentContext exiting(CallSite site) {
+        return site.traceSwitch.enabled ? exiting() : null;
+    }
+
+    static IndentContext currentIndentContext() {
+        return indentContext.get();
+    }
+
+    static void continued(TraceContext context) {
+        IndentContext iu = traced(Level.TRACE);
+        if (iu != null && context.parent != null && context.parent.traceSwitch.enabled) {
+            if (spans) {
+                output(iu, Level.TRACE, context.parent, "continued from [%d] span %x",
+                        context.threadId, context.span);
+            } else {
+                output(iu, Level.TRACE, context.parent, "continued from [%d]",
+                        context.threadId);
+            }
+        }
+    }
+
+    private static boolean admitted(Level level, CallSite site) {
+        RateLimiter limiter = site.limiter;
+        if (!limiter.tryAcquire(level)) {
+            TRStats.suppressed();
+            if (!summariesScheduled) {
+                scheduleSummaries();
+            }
+            return false;
+        }
+        long suppressed = limiter.drainSuppressed();
+        if (suppressed > 0) {
+            output(level, site, "suppressed %d similar events", suppressed);
+        }
+        return true;
+    }
+
+    private static synchronized void scheduleSummaries() {
+        if (!summariesScheduled) {
+            summariesScheduled = true;
+            Daemon.scheduleAtFixedRate(TR::reportSuppressed, RateLimiter.SUMMARY_SECONDS,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    static void reportSuppressed() {
+        for (int id = 0, size = CallSites.size(); id < size; id++) {
+            CallSite site = CallSites.get(id);
+            if (site == null) {
+                continue;
+            }
+            long suppressed = site.limiter.drainSuppressed();
+            Level level = site.limiter.suppressedLevel;
+            if (suppressed > 0 && logged(level)) {
+                output(level, site, "suppressed %d similar events", suppressed);
+            }
+        }
+    }
+
+    private static void output(Level level, CallSite site, String format, Object... args) {
+        output(indentContext.get(), level, site, format, args);
+    }
+
+    private static Object value(Object value) {
+        return value == null || !sink.defersRendering() ? value : Values.rendered(value);
+    }
+
+    // NOTR logs as neo.log.notr.TR does, straight to slf4j
+    private static void notrOutput(Level level, CallSite site, String format, Object... args) {
+        if (LoggerSink.isEnabled(logger, level)) {
+            StringBuilder sb = new StringBuilder().append('[')
+                    .append(Thread.currentThread().getId()).append(']').append(site.prefix)
+                    .append(" : ");
+            MessageFormatter.formatTo(sb, format, args);
+            LoggerSink.log(logger, level, sb.toString());
+        }
+    }
+
+    private static void notrInfo(String format, Object... args) {
+        StringBuilder sb = new StringBuilder();
+        MessageFormatter.formatTo(sb, format, args);
+        logger.info(sb.toString());
+    }
+
+    private static void output(IndentContext iu, Level level, CallSite site, String format,
+                               Object... args) {
+        boolean timed = TRStats.outputTiming;
+        long start = timed ? System.nanoTime() : 0;
+        long threadId = Thread.currentThread().getId();
+        int type = ">".equals(format) ? TraceSink.ENTER
+                : "<".equals(format) ? TraceSink.EXIT : TraceSink.MESSAGE;
+        boolean matched = true;
+        if (type == TraceSink.EXIT) {
+            matched = iu.decreaseIndent();
+            if (!matched) {
+                TRStats.indentMismatch();
+                logger.warn(String.format("[%d]TR log indent mismatch", threadId));
+            }
+        }
+        long span = 0;
+        if (spans) {
+            if (type == TraceSink.ENTER) {
+                span = iu.nextSpan();
+                format = SPAN_ENTER;
+                args = new Object[]{span, iu.span()};
+            } else if (type == TraceSink.EXIT && matched) {
+                // an exit without its enter has no span to name
+                format = SPAN_EXIT;
+                args = new Object[]{iu.exitedSpan()};
+            }
+        }
+        TRStats.event(level, site);
+        sink.write(level, type, site, iu.depth(), threadId, format, args);
+        if (type == TraceSink.ENTER) {
+            iu.enter(site, span);
+        }
+        if (timed) {
+            TRStats.outputNanos(System.nanoTime() - start);
         }
     }
 
     public static void enter() {
-        if (logger.isTraceEnabled()) {
-            StackTraceElement ste = getStackTraceElement();
-            DebugData dd = new DebugData(ste);
-            output(Level.TRACE, dd, ">");
+        IndentContext iu = entering();
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.TRACE, site, ">");
+            }
         }
     }
 
     public static void exit() {
-        if (logger.isTraceEnabled()) {
-            StackTraceElement ste = getStackTraceElement();
-            DebugData dd = new DebugData(ste);
-            output(Level.TRACE, dd, "<");
+        IndentContext iu = exiting();
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.TRACE, site, "<");
+            }
         }
     }
 
     public static <T> T exit(T result) {
-        if (logger.isTraceEnabled()) {
-            StackTraceElement ste = getStackTraceElement();
-            DebugData dd = new DebugData(ste);
-            output(Level.TRACE, dd, "return %s",
-                    result == null ? "null" : result.toString());
-            output(Level.TRACE, dd, "<");
+        IndentContext iu = exiting();
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.TRACE, site, "return %s", value(result));
+                output(iu, Level.TRACE, site, "<");
+            }
         }
         return result;
     }
 
+    // Fixed-arity and primitive overloads neither allocate nor box when nothing is logged.
+    // A Supplier argument has its own name, as an overload would make debug("%s", null)
+    // ambiguous.
+
     public static void debug(String format, Object... args) {
-        if (logger.isDebugEnabled()) {
-            StackTraceElement ste = getStackTraceElement();
-            DebugData dd = new DebugData(ste);
-            output(Level.DEBUG, dd, format, args);
+        IndentContext iu = traced(Level.DEBUG);
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.DEBUG, site, format, args);
+            }
         }
     }
 
     public static void debug() {
-        if (logger.isDebugEnabled()) {
-            StackTraceElement ste = getStackTraceElement();
-            DebugData dd = new DebugData(ste);
-            output(Level.DEBUG, dd, "");
+        IndentContext iu = traced(Level.DEBUG);
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.DEBUG, site, "");
+            }
         }
     }
 
     public static void debug(Object obj) {
-        if (logger.isDebugEnabled()) {
-            StackTraceElement ste = getStackTraceElement();
-            DebugData dd = new DebugData(ste);
-            output(Level.DEBUG, dd, "%s", obj == null ? "null" : obj.toString());
+        IndentContext iu = traced(Level.DEBUG);
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.DEBUG, site, "%s", value(obj));
+            }
+        }
+    }
+
+    public static void debug(String format, Object arg) {
+        IndentContext iu = traced(Level.DEBUG);
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.DEBUG, site, format, arg);
+            }
+        }
+    }
+
+    public static void debug(String format, Object arg1, Object arg2) {
+        IndentContext iu = traced(Level.DEBUG);
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.DEBUG, site, format, arg1, arg2);
+            }
+        }
+    }
+
+    public static void debug(String format, Object arg1, Object arg2, Object arg3) {
+        IndentContext iu = traced(Level.DEBUG);
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.DEBUG, site, format, arg1, arg2, arg3);
+            }
+        }
+    }
+
+    public static void debug(String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+        IndentContext iu = traced(Level.DEBUG);
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.DEBUG, site, format, arg1, arg2, arg3, arg4);
+            }
+        }
+    }
+
+    public static void debug(String format, int arg) {
+        IndentContext iu = traced(Level.DEBUG);
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.DEBUG, site, format, arg);
+            }
+        }
+    }
+
+    public static void debug(String format, long arg) {
+        IndentContext iu = traced(Level.DEBUG);
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.DEBUG, site, format, arg);
+            }
+        }
+    }
+
+    public static void debugLazy(String format, Supplier<?> arg) {
+        IndentContext iu = traced(Level.DEBUG);
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.DEBUG, site, format, arg.get());
+            }
+        }
+    }
+
+    private static String message(Supplier<?> message) {
+        return message == null ? "null" : String.valueOf(message.get());
+    }
+
+    public static void debug(Supplier<?> message) {
+        IndentContext iu = traced(Level.DEBUG);
+        if (iu != null) {
+            CallSite site = getCallSite();
+            if (site.traceSwitch.enabled) {
+                output(iu, Level.DEBUG, site, "%s", message(message));
+            }
         }
     }
 
     public static void info(String format, Object... args) {
-        if (logger.isInfoEnabled()) {
-            StackTraceElement ste = getStackTraceElement();
-            DebugData dd = new DebugData(ste);
-            output(Level.INFO, dd, format, args);
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, getCallSite(), format, args);
+            } else {
+                notrInfo(format, args);
+            }
+        }
+    }
+
+    public static void info(String format, Object arg) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, getCallSite(), format, arg);
+            } else {
+                notrInfo(format, arg);
+            }
+        }
+    }
+
+    public static void info(String format, Object arg1, Object arg2) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, getCallSite(), format, arg1, arg2);
+            } else {
+                notrInfo(format, arg1, arg2);
+            }
+        }
+    }
+
+    public static void info(String format, Object arg1, Object arg2, Object arg3) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, getCallSite(), format, arg1, arg2, arg3);
+            } else {
+                notrInfo(format, arg1, arg2, arg3);
+            }
+        }
+    }
+
+    public static void info(String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, getCallSite(), format, arg1, arg2, arg3, arg4);
+            } else {
+                notrInfo(format, arg1, arg2, arg3, arg4);
+            }
+        }
+    }
+
+    public static void info(String format, int arg) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, getCallSite(), format, arg);
+            } else {
+                notrInfo(format, arg);
+            }
+        }
+    }
+
+    public static void info(String format, long arg) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, getCallSite(), format, arg);
+            } else {
+                notrInfo(format, arg);
+            }
+        }
+    }
+
+    public static void infoLazy(String format, Supplier<?> arg) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, getCallSite(), format, arg.get());
+            } else {
+                notrInfo(format, arg.get());
+            }
+        }
+    }
+
+    public static void info(Supplier<?> message) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, getCallSite(), "%s", message(message));
+            } else {
+                logger.info(message(message));
+            }
         }
     }
 
     public static void warn(String format, Object... args) {
-        if (logger.isWarnEnabled()) {
-            StackTraceElement ste = getStackTraceElement();
-            DebugData dd = new DebugData(ste);
-            output(Level.WARN, dd, format, args);
+        if (logged(Level.WARN)) {
+            CallSite site = getCallSite();
+            if (!tracing()) {
+                notrOutput(Level.WARN, site, format, args);
+            } else if (admitted(Level.WARN, site)) {
+                output(Level.WARN, site, format, args);
+            }
         }
     }
 
     public static void warn(Throwable t) {
-        if (logger.isWarnEnabled()) {
-            StackTraceElement ste = getStackTraceElement();
-            DebugData dd = new DebugData(ste);
-            output(Level.WARN, dd, t.getMessage());
-            logger.warn(t.getMessage(), t);
+        if (logged(Level.WARN)) {
+            if (!tracing()) {
+                logger.warn(t.getMessage(), t);
+                return;
+            }
+            CallSite site = getCallSite();
+            if (admitted(Level.WARN, site)) {
+                output(Level.WARN, site, t.getMessage());
+                logStackTrace(Level.WARN, t);
+            }
         }
     }
 
     public static void error(String format, Object... args) {
-        if (logger.isErrorEnabled()) {
-            StackTraceElement ste = getStackTraceElement();
-            DebugData dd = new DebugData(ste);
-            output(Level.ERROR, dd, format, args);
+        if (logged(Level.ERROR)) {
+            CallSite site = getCallSite();
+            if (!tracing()) {
+                notrOutput(Level.ERROR, site, format, args);
+            } else if (admitted(Level.ERROR, site)) {
+                output(Level.ERROR, site, format, args);
+            }
         }
     }
 
     public static void error(Throwable t) {
-        if (logger.isErrorEnabled()) {
-            StackTraceElement ste = getStackTraceElement();
-            DebugData dd = new DebugData(ste);
-            output(Level.ERROR, dd, t.getMessage());
+        if (logged(Level.ERROR)) {
+            if (!tracing()) {
+                logger.error(t.getMessage(), t);
+                return;
+            }
+            CallSite site = getCallSite();
+            if (admitted(Level.ERROR, site)) {
+                output(Level.ERROR, site, t.getMessage());
+                logStackTrace(Level.ERROR, t);
+            }
+        }
+    }
+
+    // after the line output() wrote, which an asynchronous output renders later
+    private static void logStackTrace(Level level, Throwable t) {
+        AsyncSink current = async;
+        if (current != null) {
+            current.flush(1, TimeUnit.SECONDS);
+        }
+        if (level == Level.ERROR) {
             logger.error(t.getMessage(), t);
+        } else {
+            logger.warn(t.getMessage(), t);
         }
     }
 
     public static void fixMe(String format, Object... args) {
-        if (logger.isWarnEnabled()) {
-            StackTraceElement ste = getStackTraceElement();
-            DebugData dd = new DebugData(ste);
-            output(Level.WARN, dd, "FIX ME!!! : " + format, args);
+        if (logged(Level.WARN)) {
+            CallSite site = getCallSite();
+            if (!tracing()) {
+                notrOutput(Level.WARN, site, "FIX ME!!! : " + format, args);
+            } else if (admitted(Level.WARN, site)) {
+                output(Level.WARN, site, "FIX ME!!! : " + format, args);
+            }
         }
     }
 
-}
+    // Woven callers pass the id of their call site instead of walking the stack; every
+    // method mirrors the one without '$'.
 
-class DebugData {
-    String fileName;
-    int lineNumber;
-    String className;
-    String methodName;
-    long threadId;
-    String threadName;
-
-    DebugData(StackTraceElement ste) {
-        fileName = ste.getFileName();
-        lineNumber = ste.getLineNumber();
-        className = ste.getClassName();
-        methodName = ste.getMethodName();
-        threadId = Thread.currentThread().getId();
-        threadName = Thread.currentThread().getName();
+    public static int site$(String className, String fileName, int lineNumber,
+                            String methodName) {
+        return CallSites.register(className, fileName, lineNumber, methodName).id;
     }
-}
 
-class IndentContext {
-    private int indent;
+    public static void enter$(int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = entering(callSite);
+        if (iu != null) {
+            output(iu, Level.TRACE, callSite, ">");
+        }
+    }
 
-    IndentContext() {
-        indent = 1;
+    public static void exit$(int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = exiting(callSite);
+        if (iu != null) {
+            output(iu, Level.TRACE, callSite, "<");
+        }
     }
 
-    public synchronized void increaseIndent() {
-        indent += 2;
+    public static <T> T exit$(T result, int site) {
+        if (!tracing()) {
+            return result;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = exiting(callSite);
+        if (iu != null) {
+            output(iu, Level.TRACE, callSite, "return %s", value(result));
+            output(iu, Level.TRACE, callSite, "<");
+        }
+        return result;
     }
 
-    public synchronized boolean decreaseIndent() {
-        if (indent > 1) {
-            indent -= 2;
-            return true;
-        } else {
-            return false;
+    public static void debug$(String format, Object[] args, int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = traced(Level.DEBUG, callSite);
+        if (iu != null) {
+            output(iu, Level.DEBUG, callSite, format, args);
         }
     }
 
-    public synchronized String GetIndent() {
-        char[] chars = new char[indent];
-        Arrays.fill(chars, ' ');
-        return new String(chars);
+    public static void debug$(int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = traced(Level.DEBUG, callSite);
+        if (iu != null) {
+            output(iu, Level.DEBUG, callSite, "");
+        }
     }
 
-}
+    public static void debug$(Object obj, int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = traced(Level.DEBUG, callSite);
+        if (iu != null) {
+            output(iu, Level.DEBUG, callSite, "%s", value(obj));
+        }
+    }
+
+    public static void debug$(String format, Object arg, int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = traced(Level.DEBUG, callSite);
+        if (iu != null) {
+            output(iu, Level.DEBUG, callSite, format, arg);
+        }
+    }
+
+    public static void debug$(String format, Object arg1, Object arg2, int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = traced(Level.DEBUG, callSite);
+        if (iu != null) {
+            output(iu, Level.DEBUG, callSite, format, arg1, arg2);
+        }
+    }
+
+    public static void debug$(String format, Object arg1, Object arg2, Object arg3, int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = traced(Level.DEBUG, callSite);
+        if (iu != null) {
+            output(iu, Level.DEBUG, callSite, format, arg1, arg2, arg3);
+        }
+    }
+
+    public static void debug$(String format, Object arg1, Object arg2, Object arg3, Object arg4, int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = traced(Level.DEBUG, callSite);
+        if (iu != null) {
+            output(iu, Level.DEBUG, callSite, format, arg1, arg2, arg3, arg4);
+        }
+    }
+
+    public static void debug$(String format, int arg, int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = traced(Level.DEBUG, callSite);
+        if (iu != null) {
+            output(iu, Level.DEBUG, callSite, format, arg);
+        }
+    }
+
+    public static void debug$(String format, long arg, int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = traced(Level.DEBUG, callSite);
+        if (iu != null) {
+            output(iu, Level.DEBUG, callSite, format, arg);
+        }
+    }
+
+    public static void debugLazy$(String format, Supplier<?> arg, int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = traced(Level.DEBUG, callSite);
+        if (iu != null) {
+            output(iu, Level.DEBUG, callSite, format, arg.get());
+        }
+    }
+
+    public static void debug$(Supplier<?> message, int site) {
+        if (!tracing()) {
+            return;
+        }
+        CallSite callSite = CallSites.get(site);
+        IndentContext iu = traced(Level.DEBUG, callSite);
+        if (iu != null) {
+            output(iu, Level.DEBUG, callSite, "%s", message(message));
+        }
+    }
+
+    public static void info$(String format, Object[] args, int site) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, CallSites.get(site), format, args);
+            } else {
+                notrInfo(format, args);
+            }
+        }
+    }
+
+    public static void info$(String format, Object arg, int site) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, CallSites.get(site), format, arg);
+            } else {
+                notrInfo(format, arg);
+            }
+        }
+    }
+
+    public static void info$(String format, Object arg1, Object arg2, int site) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, CallSites.get(site), format, arg1, arg2);
+            } else {
+                notrInfo(format, arg1, arg2);
+            }
+        }
+    }
+
+    public static void info$(String format, Object arg1, Object arg2, Object arg3, int site) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, CallSites.get(site), format, arg1, arg2, arg3);
+            } else {
+                notrInfo(format, arg1, arg2, arg3);
+            }
+        }
+    }
+
+    public static void info$(String format, Object arg1, Object arg2, Object arg3, Object arg4, int site) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, CallSites.get(site), format, arg1, arg2, arg3, arg4);
+            } else {
+                notrInfo(format, arg1, arg2, arg3, arg4);
+            }
+        }
+    }
+
+    public static void info$(String format, int arg, int site) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, CallSites.get(site), format, arg);
+            } else {
+                notrInfo(format, arg);
+            }
+        }
+    }
 
-enum Level {
-    TRACE,
-    DEBUG,
-    INFO,
-    WARN,
-    ERROR
-}
\ No newline at end of file
+    public static void info$(String format, long arg, int site) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, CallSites.get(site), format, arg);
+            } else {
+                notrInfo(format, arg);
+            }
+        }
+    }
+
+    public static void infoLazy$(String format, Supplier<?> arg, int site) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, CallSites.get(site), format, arg.get());
+            } else {
+                notrInfo(format, arg.get());
+            }
+        }
+    }
+
+    public static void info$(Supplier<?> message, int site) {
+        if (logged(Level.INFO)) {
+            if (tracing()) {
+                output(Level.INFO, CallSites.get(site), "%s", message(message));
+            } else {
+                logger.info(message(message));
+            }
+        }
+    }
+
+    public static void warn$(String format, Object[] args, int site) {
+        if (logged(Level.WARN)) {
+            CallSite callSite = CallSites.get(site);
+            if (!tracing()) {
+                notrOutput(Level.WARN, callSite, format, args);
+            } else if (admitted(Level.WARN, callSite)) {
+                output(Level.WARN, callSite, format, args);
+            }
+        }
+    }
+
+    public static void warn$(Throwable t, int site) {
+        if (logged(Level.WARN)) {
+            if (!tracing()) {
+                logger.warn(t.getMessage(), t);
+                return;
+            }
+            CallSite callSite = CallSites.get(site);
+            if (admitted(Level.WARN, callSite)) {
+                output(Level.WARN, callSite, t.getMessage());
+                logStackTrace(Level.WARN, t);
+            }
+        }
+    }
+
+    public static void error$(String format, Object[] args, int site) {
+        if (logged(Level.ERROR)) {
+            CallSite callSite = CallSites.get(site);
+            if (!tracing()) {
+                notrOutput(Level.ERROR, callSite, format, args);
+            } else if (admitted(Level.ERROR, callSite)) {
+                output(Level.ERROR, callSite, format, args);
+            }
+        }
+    }
+
+    public static void error$(Throwable t, int site) {
+        if (logged(Level.ERROR)) {
+            if (!tracing()) {
+                logger.error(t.getMessage(), t);
+                return;
+            }
+            CallSite callSite = CallSites.get(site);
+            if (admitted(Level.ERROR, callSite)) {
+                output(Level.ERROR, callSite, t.getMessage());
+                logStackTrace(Level.ERROR, t);
+            }
+        }
+    }
+
+    public static void fixMe$(String format, Object[] args, int site) {
+        if (logged(Level.WARN)) {
+            CallSite callSite = CallSites.get(site);
+            if (!tracing()) {
+                notrOutput(Level.WARN, callSite, "FIX ME!!! : " + format, args);
+            } else if (admitted(Level.WARN, callSite)) {
+                output(Level.WARN, callSite, "FIX ME!!! : " + format, args);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package neo.log.tr;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.List;
+
+/**
+ * Optional java agent that weaves TR calls at class-load time with call site ids as
+ * constants, see {@link CallSiteWeaver}.
+ * <p>
+ * Usage: {@code -javaagent:tr4j.jar[=com.ourshop,org.other]}, weaving every class or the
+ * listed package prefixes. ASM must be on the class path.
+ */
+public final class TRAgent implements ClassFileTransformer {
+
+    private static final String[] EXCLUDED = {
+            "java/", "javax/", "jdk/", "sun/", "com/sun/", "org/objectweb/asm/",
+    };
+
+    private final String[] included;
+    private final CallSiteWeaver weaver = new CallSiteWeaver(TRAgent::bind);
+
+    TRAgent(String agentArgs) {
+        if (agentArgs == null || agentArgs.trim().isEmpty()) {
+            included = new String[0];
+        } else {
+            String[] prefixes = agentArgs.split(",");
+            included = new String[prefixes.length];
+            for (int i = 0; i < prefixes.length; i++) {
+                included[i] = prefixes[i].trim().replace('.', '/');
+            }
+        }
+    }
+
+    public static void premain(String agentArgs, Instrumentation inst) {
+        inst.addTransformer(new TRAgent(agentArgs));
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (className == null || classBeingRedefined != null || !accepts(className)) {
+            return null;
+        }
+        try {
+            return weaver.weave(classfileBuffer);
+        } catch (Throwable t) {
+            // never break class loading, the class still works through the stack walk
+            return null;
+        }
+    }
+
+    boolean accepts(String className) {
+        for (String excluded : EXCLUDED) {
+            if (className.startsWith(excluded)) {
+                return false;
+            }
+        }
+        if (CallerLocator.isInternal(className.replace('/', '.'))) {
+            return false;
+        }
+        if (included.length == 0) {
+            return true;
+        }
+        for (String prefix : included) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers the call sites while the class is being loaded and pushes their ids as
+     * constants.
+     */
+    static CallSiteWeaver.ClassBinding bind(String owner, boolean isInterface,
+                                            List<CallSiteWeaver.Site> sites) {
+        int[] ids = new int[sites.size()];
+        for (int i = 0; i < ids.length; i++) {
+            CallSiteWeaver.Site site = sites.get(i);
+            ids[i] = CallSites.register(site.className, site.fileName, site.lineNumber,
+                    site.methodName).id;
+        }
+        return (mv, index) -> mv.visitLdcInsn(ids[index]);
+    }
+}
@@ -0,0 +1,271 @@
+package neo.log.tr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TR's own counters. They are {@link LongAdder}s, striped per thread under contention, so
+ * counting does not serialize the threads that trace; call sites count their own events.
+ * <p>
+ * The MBean is registered when TR is loaded, unless {@code -Dtr4j.jmx=false}.
+ */
+final class TRStats implements TRStatsMBean {
+
+    static final String OBJECT_NAME = "neo.log.tr:type=TR";
+
+    private static final int TOP_CALL_SITES = 10;
+
+    private static final LongAdder[] events = new LongAdder[Level.values().length];
+    private static final LongAdder indentMismatches = new LongAdder();
+    private static final LongAdder droppedEvents = new LongAdder();
+    private static final LongAdder suppressedEvents = new LongAdder();
+    private static final LongAdder renderFailures = new LongAdder();
+    private static final LongAdder renderedBytes = new LongAdder();
+
+    /**
+     * log4j-core's {@code Configurator.setLevel(String, Level)} and log4j-api's
+     * {@code Level.getLevel(String)}, or null without them; TR itself only needs slf4j.
+     */
+    private static final Method[] LOG4J_SET_LEVEL = log4jSetLevel();
+    private static final LongAdder outputNanos = new LongAdder();
+
+    static volatile boolean outputTiming = Boolean.getBoolean("tr4j.stats.timing");
+
+    static {
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new LongAdder();
+        }
+    }
+
+    static void register() {
+        if ("false".equals(System.getProperty("tr4j.jmx"))) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new TRStats(), new ObjectName(OBJECT_NAME));
+        } catch (JMException | RuntimeException e) {
+            // already registered by another class loader, or no JMX in this environment
+        }
+    }
+
+    private static Method[] log4jSetLevel() {
+        try {
+            Class<?> level = Class.forName("org.apache.logging.log4j.Level");
+            return new Method[]{
+                    Class.forName("org.apache.logging.log4j.core.config.Configurator")
+                            .getMethod("setLevel", String.class, level),
+                    level.getMethod("getLevel", String.class)};
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    static void event(Level level, CallSite site) {
+        events[level.ordinal()].increment();
+        site.events.increment();
+    }
+
+    static void indentMismatch() {
+        indentMismatches.increment();
+    }
+
+    static void dropped() {
+        droppedEvents.increment();
+    }
+
+    static void suppressed() {
+        suppressedEvents.increment();
+    }
+
+    static void renderFailed() {
+        renderFailures.increment();
+    }
+
+    static void rendered(int bytes) {
+        renderedBytes.add(bytes);
+    }
+
+    static void outputNanos(long nanos) {
+        outputNanos.add(nanos);
+    }
+
+    static long droppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    static long renderFailures() {
+        return renderFailures.sum();
+    }
+
+    static long events(Level level) {
+        return events[level.ordinal()].sum();
+    }
+
+    @Override
+    public long getTraceEvents() {
+        return events(Level.TRACE);
+    }
+
+    @Override
+    public long getDebugEvents() {
+        return events(Level.DEBUG);
+    }
+
+    @Override
+    public long getInfoEvents() {
+        return events(Level.INFO);
+    }
+
+    @Override
+    public long getWarnEvents() {
+        return events(Level.WARN);
+    }
+
+    @Override
+    public long getErrorEvents() {
+        return events(Level.ERROR);
+    }
+
+    @Override
+    public long getIndentMismatches() {
+        return indentMismatches.sum();
+    }
+
+    @Override
+    public long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    @Override
+    public long getSuppressedEvents() {
+        return suppressedEvents.sum();
+    }
+
+    @Override
+    public long getRenderFailures() {
+        return renderFailures.sum();
+    }
+
+    @Override
+    public long getRenderedBytes() {
+        return renderedBytes.sum();
+    }
+
+    @Override
+    public long getOutputNanos() {
+        return outputNanos.sum();
+    }
+
+    @Override
+    public boolean isOutputTimingEnabled() {
+        return outputTiming;
+    }
+
+    @Override
+    public void setOutputTimingEnabled(boolean enabled) {
+        outputTiming = enabled;
+    }
+
+    @Override
+    public String[] getTopCallSites() {
+        PriorityQueue<long[]> top = new PriorityQueue<>(
+                (a, b) -> Long.compare(a[0], b[0]));
+        for (int id = 0, size = CallSites.size(); id < size; id++) {
+            long count = CallSites.get(id).events.sum();
+            if (count > 0) {
+                top.add(new long[]{count, id});
+                if (top.size() > TOP_CALL_SITES) {
+                    top.poll();
+                }
+            }
+        }
+        String[] result = new String[top.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            long[] entry = top.poll();
+            result[i] = entry[0] + " " + CallSites.get((int) entry[1]).prefix;
+        }
+        return result;
+    }
+
+    @Override
+    public String getLevel() {
+        Logger logger = LoggerFactory.getLogger(TR.class);
+        for (Level level : Level.values()) {
+            if (LoggerSink.isEnabled(logger, level)) {
+                return level.name();
+            }
+        }
+        return "OFF";
+    }
+
+    @Override
+    public void setLevel(String level) {
+        if (LOG4J_SET_LEVEL == null) {
+            throw new UnsupportedOperationException(
+                    "the level can only be set with log4j-core on the class path");
+        }
+        try {
+            Object value = LOG4J_SET_LEVEL[1].invoke(null,
+                    level.trim().toUpperCase(Locale.ROOT));
+            if (value == null) {
+                throw new IllegalArgumentException("unknown level: " + level);
+            }
+            LOG4J_SET_LEVEL[0].invoke(null, TR.class.getName(), value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public String getSampling() {
+        return TR.getSampler().toString();
+    }
+
+    @Override
+    public void setSampling(String policy) {
+        TR.setSampler(Sampler.parse(policy));
+    }
+
+    @Override
+    public String getBackend() {
+        return TR.getBackend().name();
+    }
+
+    @Override
+    public void setBackend(String backend) {
+        TR.setBackend(Backend.parse(backend));
+    }
+
+    @Override
+    public void setTraceEnabled(String prefix, boolean enabled) {
+        TraceSwitch.setRule(prefix, enabled);
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder counter : events) {
+            counter.reset();
+        }
+        indentMismatches.reset();
+        droppedEvents.reset();
+        suppressedEvents.reset();
+        renderFailures.reset();
+        renderedBytes.reset();
+        outputNanos.reset();
+        for (int id = 0, size = CallSites.size(); id < size; id++) {
+            CallSites.get(id).events.reset();
+        }
+    }
+}
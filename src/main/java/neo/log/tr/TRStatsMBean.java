@@ -0,0 +1,89 @@
+package neo.log.tr;
+
+/**
+ * What tracing itself costs, registered as {@code neo.log.tr:type=TR}. Counters run from
+ * JVM start or the last {@link #reset()}.
+ */
+public interface TRStatsMBean {
+
+    long getTraceEvents();
+
+    long getDebugEvents();
+
+    long getInfoEvents();
+
+    long getWarnEvents();
+
+    long getErrorEvents();
+
+    /**
+     * @return exits without a matching enter
+     */
+    long getIndentMismatches();
+
+    /**
+     * @return events the asynchronous output dropped because its queue was full
+     */
+    long getDroppedEvents();
+
+    /**
+     * @return WARN and ERROR events left out because their call site was over its rate
+     */
+    long getSuppressedEvents();
+
+    /**
+     * @return events the asynchronous output failed to render
+     */
+    long getRenderFailures();
+
+    /**
+     * @return UTF-8 bytes of the rendered text lines and Chrome trace files, plus bytes of
+     *         binary ring records
+     */
+    long getRenderedBytes();
+
+    /**
+     * @return time spent in TR's output path, only counted while output timing is enabled
+     */
+    long getOutputNanos();
+
+    boolean isOutputTimingEnabled();
+
+    /**
+     * Off unless {@code -Dtr4j.stats.timing=true}, as it costs two nanoTime calls per event.
+     */
+    void setOutputTimingEnabled(boolean enabled);
+
+    /**
+     * @return the ten call sites with the most events, as {@code count File(line)method}
+     */
+    String[] getTopCallSites();
+
+    /**
+     * @return the level of the {@code neo.log.tr.TR} logger
+     */
+    String getLevel();
+
+    /**
+     * Sets the level of the {@code neo.log.tr.TR} logger; needs log4j-core.
+     */
+    void setLevel(String level);
+
+    /**
+     * @return the sampling policy: "always", "1/N" or "Wms/Pms"
+     */
+    String getSampling();
+
+    void setSampling(String policy);
+
+    /**
+     * @return the backend: TRACE, NOTR, FLIGHT or OFF
+     */
+    String getBackend();
+
+    void setBackend(String backend);
+
+    void setTraceEnabled(String prefix, boolean enabled);
+
+    void reset();
+}
@@ -0,0 +1,122 @@
+package neo.log.tr;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Build-time alternative to {@link TRAgent}: weaves the compiled classes under the given
+ * directories in place, keeping each call site id in a static field set by the class
+ * initializer.
+ * <p>
+ * Usage: {@code java -cp tr4j.jar:asm.jar neo.log.tr.TRWeaver target/classes}, or see the
+ * "weave" profile of tr4j's pom.xml.
+ */
+public final class TRWeaver {
+
+    static final String FIELD_PREFIX = "$tr$site";
+
+    private static final String SITE_DESCRIPTOR = Type.getMethodDescriptor(Type.INT_TYPE,
+            Type.getType(String.class), Type.getType(String.class), Type.INT_TYPE,
+            Type.getType(String.class));
+
+    private final CallSiteWeaver weaver = new CallSiteWeaver(TRWeaver::bind);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TRWeaver <classes directory>...");
+            System.exit(1);
+        }
+        TRWeaver weaver = new TRWeaver();
+        for (String dir : args) {
+            int woven = weaver.weaveDirectory(Paths.get(dir));
+            System.out.println("TRWeaver: woven " + woven + " classes in " + dir);
+        }
+    }
+
+    /**
+     * @return the number of classes that were rewritten
+     */
+    int weaveDirectory(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        List<Path> classes;
+        try (Stream<Path> files = Files.walk(dir)) {
+            classes = files.filter(f -> f.toString().endsWith(".class"))
+                    .collect(Collectors.toList());
+        }
+        int woven = 0;
+        for (Path file : classes) {
+            String className = dir.relativize(file).toString()
+                    .replace(File.separatorChar, '.');
+            className = className.substring(0, className.length() - ".class".length());
+            if (CallerLocator.isInternal(className)) {
+                continue;
+            }
+            byte[] bytes = weaver.weave(Files.readAllBytes(file));
+            if (bytes != null) {
+                Files.write(file, bytes);
+                woven++;
+            }
+        }
+        return woven;
+    }
+
+    byte[] weave(byte[] classFile) {
+        return weaver.weave(classFile);
+    }
+
+    static CallSiteWeaver.ClassBinding bind(String owner, boolean isInterface,
+                                            List<CallSiteWeaver.Site> sites) {
+        // interface fields must be public
+        int access = (isInterface ? Opcodes.ACC_PUBLIC : Opcodes.ACC_PRIVATE)
+                | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC;
+        return new CallSiteWeaver.ClassBinding() {
+            @Override
+            public void pushSite(MethodVisitor mv, int index) {
+                mv.visitFieldInsn(Opcodes.GETSTATIC, owner, FIELD_PREFIX + index, "I");
+            }
+
+            @Override
+            public boolean needsInitializer() {
+                return true;
+            }
+
+            @Override
+            public void addMembers(ClassVisitor cv) {
+                for (int i = 0; i < sites.size(); i++) {
+                    cv.visitField(access, FIELD_PREFIX + i, "I", null, null).visitEnd();
+                }
+            }
+
+            @Override
+            public void initialize(MethodVisitor mv) {
+                for (int i = 0; i < sites.size(); i++) {
+                    CallSiteWeaver.Site site = sites.get(i);
+                    mv.visitLdcInsn(site.className);
+                    if (site.fileName == null) {
+                        mv.visitInsn(Opcodes.ACONST_NULL);
+                    } else {
+                        mv.visitLdcInsn(site.fileName);
+                    }
+                    mv.visitLdcInsn(site.lineNumber);
+                    mv.visitLdcInsn(site.methodName);
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, CallSiteWeaver.TR_OWNER, "site$",
+                            SITE_DESCRIPTOR, false);
+                    mv.visitFieldInsn(Opcodes.PUTSTATIC, owner, FIELD_PREFIX + i, "I");
+                }
+            }
+        };
+    }
+}
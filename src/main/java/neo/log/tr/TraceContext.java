@@ -0,0 +1,182 @@
+package neo.log.tr;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Where a thread is in its trace, captured on one thread and continued on another, which
+ * indents from the captured depth and first logs {@code continued from [tid]}:
+ * <pre>
+ * ExecutorService pool = TraceContext.wrap(Executors.newFixedThreadPool(4));
+ * future.thenApplyAsync(TraceContext.capture().function(this::price), pool);
+ * </pre>
+ * A wrapped executor captures when a task is submitted; capture a
+ * {@code CompletableFuture} callback where its stage is defined, as above.
+ */
+public final class TraceContext {
+
+    /**
+     * Outside any traced call; wrapping with it returns the task itself.
+     */
+    public static final TraceContext NONE = new TraceContext(0, null, 0, 0, true);
+
+    final int depth;
+    final CallSite parent;
+    /**
+     * The span id of the innermost open call, 0 unless {@code -Dtr4j.spans=true}.
+     */
+    final long span;
+    final long threadId;
+    final boolean sampled;
+
+    TraceContext(int depth, CallSite parent, long span, long threadId, boolean sampled) {
+        this.depth = depth;
+        this.parent = parent;
+        this.span = span;
+        this.threadId = threadId;
+        this.sampled = sampled;
+    }
+
+    public static TraceContext capture() {
+        return TR.currentIndentContext().capture();
+    }
+
+    /**
+     * @return an executor that continues the submitting thread's context
+     */
+    public static Executor wrap(Executor executor) {
+        return command -> executor.execute(capture().runnable(command));
+    }
+
+    /**
+     * @return an executor service that continues the submitting thread's context
+     */
+    public static ExecutorService wrap(ExecutorService executor) {
+        return new TracingExecutorService(executor);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the span id of the innermost open traced call, 0 if span ids are off
+     */
+    public long getSpanId() {
+        return span;
+    }
+
+    public void run(Runnable task) {
+        within((r, unused) -> {
+            r.run();
+            return null;
+        }, task, null);
+    }
+
+    public <T> T call(Callable<T> task) throws Exception {
+        return within((c, unused) -> c.call(), task, null);
+    }
+
+    public Runnable runnable(Runnable task) {
+        return this == NONE ? task : () -> run(task);
+    }
+
+    public <T> Callable<T> callable(Callable<T> task) {
+        return this == NONE ? task : () -> call(task);
+    }
+
+    public <T> Supplier<T> supplier(Supplier<T> supplier) {
+        if (this == NONE) {
+            return supplier;
+        }
+        Task<Void, Void, T, RuntimeException> task = (unused1, unused2) -> supplier.get();
+        return () -> within(task, null, null);
+    }
+
+    public <T, R> Function<T, R> function(Function<T, R> function) {
+        if (this == NONE) {
+            return function;
+        }
+        Task<T, Void, R, RuntimeException> task = (t, unused) -> function.apply(t);
+        return t -> within(task, t, null);
+    }
+
+    public <T> Consumer<T> consumer(Consumer<T> consumer) {
+        if (this == NONE) {
+            return consumer;
+        }
+        Task<T, Void, Void, RuntimeException> task = (t, unused) -> {
+            consumer.accept(t);
+            return null;
+        };
+        return t -> within(task, t, null);
+    }
+
+    public <T, U, R> BiFunction<T, U, R> biFunction(BiFunction<T, U, R> function) {
+        if (this == NONE) {
+            return function;
+        }
+        Task<T, U, R, RuntimeException> task = function::apply;
+        return (t, u) -> within(task, t, u);
+    }
+
+    public <T, U> BiConsumer<T, U> biConsumer(BiConsumer<T, U> consumer) {
+        if (this == NONE) {
+            return consumer;
+        }
+        Task<T, U, Void, RuntimeException> task = (t, u) -> {
+            consumer.accept(t, u);
+            return null;
+        };
+        return (t, u) -> within(task, t, u);
+    }
+
+    /**
+     * Any of the wrapped shapes, taking its arguments so that running it does not allocate.
+     */
+    private interface Task<A, B, R, E extends Exception> {
+        R run(A a, B b) throws E;
+    }
+
+    /**
+     * Runs the task in this context on the current thread, then restores the thread's own.
+     */
+    private <A, B, R, E extends Exception> R within(Task<A, B, R, E> task, A a, B b) throws E {
+        IndentContext iu = TR.currentIndentContext();
+        boolean continued = iu.attach(this);
+        try {
+            if (continued) {
+                TR.continued(this);
+            }
+            return task.run(a, b);
+        } finally {
+            iu.detach();
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (this == NONE) {
+            return "none";
+        }
+        StringBuilder sb = new StringBuilder().append('[').append(threadId).append("] depth ")
+                .append(depth);
+        if (parent != null) {
+            sb.append(" in ").append(parent.fileName).append('(').append(parent.lineNumber)
+                    .append(')').append(parent.methodName);
+        }
+        if (span != 0) {
+            sb.append(" span ").append(Long.toHexString(span));
+        }
+        if (!sampled) {
+            sb.append(", unsampled");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,408 @@
+package neo.log.tr;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares a baseline and a candidate TR capture. It reports the methods whose time or
+ * number of calls changed, and the call paths that appeared or disappeared:
+ * <pre>
+ * TR diff, baseline 12000 calls of 40 methods, candidate 13000 calls of 41 methods
+ *      count  change      mean  change exclusive    change  method
+ *       2000     +0%    1.21ms    +35%  612.40ms +160.10ms  Order.java:place  slower
+ * </pre>
+ * Each side is read by {@link TraceLogAnalyzer}. Methods are matched by file and method
+ * name, or by {@code File(line)method} with {@code --by-line}, and ranked by the change of
+ * their exclusive time.
+ * <p>
+ * A change is reported if it is at least {@code --min-change} percent (default 10) and
+ * {@code --t} standard errors (default 3): Welch's t-test for mean times, and
+ * {@code (c - b) / sqrt(b + c)} for counts, taken as Poisson.
+ * <p>
+ * Usage: {@code java -cp tr4j.jar neo.log.tr.TraceDiff [--threads N] [--top N]
+ * [--min-change PCT] [--t T] [--by-line] <baseline> <candidate>}, where each side is a file or a
+ * comma-separated list of files, oldest first.
+ */
+public final class TraceDiff {
+
+    private final TraceLogAnalyzer.Report baseline;
+    private final TraceLogAnalyzer.Report candidate;
+    private final double minChange;
+    private final double t;
+
+    private final Map<String, TraceLogAnalyzer.MethodStats> baselineMethods;
+    private final Map<String, TraceLogAnalyzer.MethodStats> candidateMethods;
+    private final TraceLogAnalyzer.PathNode baselinePaths;
+    private final TraceLogAnalyzer.PathNode candidatePaths;
+
+    /**
+     * The change of one method; a side where the method was not called has empty stats.
+     */
+    static final class Change {
+
+        final String site;
+        final TraceLogAnalyzer.MethodStats baseline;
+        final TraceLogAnalyzer.MethodStats candidate;
+        boolean slower;
+        boolean faster;
+        boolean moreCalls;
+        boolean fewerCalls;
+
+        Change(String site, TraceLogAnalyzer.MethodStats baseline,
+               TraceLogAnalyzer.MethodStats candidate) {
+            this.site = site;
+            this.baseline = baseline;
+            this.candidate = candidate;
+        }
+
+        long exclusiveDelta() {
+            return candidate.exclusive - baseline.exclusive;
+        }
+
+        boolean isNew() {
+            return baseline.count == 0;
+        }
+
+        boolean isGone() {
+            return candidate.count == 0;
+        }
+
+        boolean isReported() {
+            return isNew() || isGone() || slower || faster || moreCalls || fewerCalls;
+        }
+
+        String verdict() {
+            if (isNew()) {
+                return "new";
+            }
+            if (isGone()) {
+                return "gone";
+            }
+            StringBuilder sb = new StringBuilder();
+            append(sb, slower, "slower");
+            append(sb, faster, "faster");
+            append(sb, moreCalls, "more calls");
+            append(sb, fewerCalls, "fewer calls");
+            return sb.toString();
+        }
+
+        private static void append(StringBuilder sb, boolean flag, String word) {
+            if (flag) {
+                sb.append(sb.length() > 0 ? ", " : "").append(word);
+            }
+        }
+    }
+
+    /**
+     * A call path found in one capture only, with its calls there.
+     */
+    static final class CallPath {
+
+        final List<String> sites;
+        final long count;
+        final boolean added;
+
+        CallPath(List<String> sites, long count, boolean added) {
+            this.sites = sites;
+            this.count = count;
+            this.added = added;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int top = 50;
+        double minChange = 10;
+        double t = 3;
+        boolean byLine = false;
+        List<String> sides = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--top":
+                        top = Integer.parseInt(args[++i]);
+                        break;
+                    case "--min-change":
+                        minChange = Double.parseDouble(args[++i]);
+                        break;
+                    case "--t":
+                        t = Double.parseDouble(args[++i]);
+                        break;
+                    case "--by-line":
+                        byLine = true;
+                        break;
+                    default:
+                        sides.add(args[i]);
+                        break;
+                }
+            }
+        } catch (RuntimeException e) {
+            sides.clear();
+        }
+        if (sides.size() != 2 || threads <= 0) {
+            System.err.println("Usage: TraceDiff [--threads N] [--top N] [--min-change PCT]"
+                    + " [--t T] [--by-line] <baseline> <candidate>");
+            System.exit(1);
+        }
+        TraceLogAnalyzer analyzer = new TraceLogAnalyzer(threads, 0);
+        TraceLogAnalyzer.Report baseline = analyzer.analyze(files(sides.get(0)));
+        TraceLogAnalyzer.Report candidate = analyzer.analyze(files(sides.get(1)));
+        Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        new TraceDiff(baseline, candidate, minChange / 100, t, byLine).writeTo(out, top);
+        out.flush();
+    }
+
+    private static List<Path> files(String list) {
+        List<Path> files = new ArrayList<>();
+        for (String file : list.split(",")) {
+            if (!file.trim().isEmpty()) {
+                files.add(Paths.get(file.trim()));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Matches methods by file and method name.
+     *
+     * @param minChange the smallest relative change reported, e.g. 0.1
+     * @param t         the smallest change reported, in standard errors
+     */
+    TraceDiff(TraceLogAnalyzer.Report baseline, TraceLogAnalyzer.Report candidate,
+              double minChange, double t) {
+        this(baseline, candidate, minChange, t, false);
+    }
+
+    /**
+     * @param byLine whether methods are matched by {@code File(line)method}
+     */
+    TraceDiff(TraceLogAnalyzer.Report baseline, TraceLogAnalyzer.Report candidate,
+              double minChange, double t, boolean byLine) {
+        this.baseline = baseline;
+        this.candidate = candidate;
+        this.minChange = minChange;
+        this.t = t;
+        baselineMethods = byLine ? baseline.methods : byMethod(baseline.methods);
+        candidateMethods = byLine ? candidate.methods : byMethod(candidate.methods);
+        baselinePaths = byLine ? baseline.paths : byMethod(baseline.paths);
+        candidatePaths = byLine ? candidate.paths : byMethod(candidate.paths);
+    }
+
+    /**
+     * @return {@code File:method} for a {@code File(line)method} site
+     */
+    static String methodKey(String site) {
+        int open = site.indexOf('(');
+        int close = open < 0 ? -1 : site.indexOf(')', open);
+        return close < 0 ? site : site.substring(0, open) + ':' + site.substring(close + 1);
+    }
+
+    private static Map<String, TraceLogAnalyzer.MethodStats> byMethod(
+            Map<String, TraceLogAnalyzer.MethodStats> methods) {
+        Map<String, TraceLogAnalyzer.MethodStats> merged = new HashMap<>();
+        for (TraceLogAnalyzer.MethodStats stats : methods.values()) {
+            merged.computeIfAbsent(methodKey(stats.site), TraceLogAnalyzer.MethodStats::new)
+                    .merge(stats);
+        }
+        return merged;
+    }
+
+    /**
+     * @return a copy of the tree with every site replaced by its method key, merging the
+     *         children that share one
+     */
+    private static TraceLogAnalyzer.PathNode byMethod(TraceLogAnalyzer.PathNode node) {
+        TraceLogAnalyzer.PathNode copy = new TraceLogAnalyzer.PathNode(
+                node.site == null ? null : methodKey(node.site));
+        copy.count = node.count;
+        Deque<TraceLogAnalyzer.PathNode[]> pending = new ArrayDeque<>();
+        pending.push(new TraceLogAnalyzer.PathNode[]{node, copy});
+        while (!pending.isEmpty()) {
+            TraceLogAnalyzer.PathNode[] pair = pending.pop();
+            for (TraceLogAnalyzer.PathNode child : pair[0].children.values()) {
+                TraceLogAnalyzer.PathNode keyed = pair[1].child(methodKey(child.site));
+                keyed.count += child.count;
+                pending.push(new TraceLogAnalyzer.PathNode[]{child, keyed});
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @return the reported changes, by descending change of the exclusive time
+     */
+    List<Change> changes() {
+        Set<String> sites = new HashSet<>(baselineMethods.keySet());
+        sites.addAll(candidateMethods.keySet());
+        List<Change> changes = new ArrayList<>();
+        for (String site : sites) {
+            Change change = new Change(site, stats(baselineMethods, site),
+                    stats(candidateMethods, site));
+            judge(change);
+            if (change.isReported()) {
+                changes.add(change);
+            }
+        }
+        changes.sort(Comparator.comparingLong((Change c) -> Math.abs(c.exclusiveDelta()))
+                .thenComparingLong(c -> Math.abs(c.candidate.count - c.baseline.count))
+                .reversed().thenComparing(c -> c.site));
+        return changes;
+    }
+
+    private static TraceLogAnalyzer.MethodStats stats(
+            Map<String, TraceLogAnalyzer.MethodStats> methods, String site) {
+        TraceLogAnalyzer.MethodStats stats = methods.get(site);
+        return stats != null ? stats : new TraceLogAnalyzer.MethodStats(site);
+    }
+
+    private void judge(Change change) {
+        TraceLogAnalyzer.MethodStats b = change.baseline;
+        TraceLogAnalyzer.MethodStats c = change.candidate;
+        if (b.count == 0 || c.count == 0) {
+            return;
+        }
+        long calls = c.count - b.count;
+        if (Math.abs(calls) >= minChange * b.count
+                && Math.abs(calls) >= t * Math.sqrt(b.count + c.count)) {
+            change.moreCalls = calls > 0;
+            change.fewerCalls = calls < 0;
+        }
+        if (b.timed < 2 || c.timed < 2) {
+            return;
+        }
+        double meanB = (double) b.inclusive / b.timed;
+        double meanC = (double) c.inclusive / c.timed;
+        double delta = meanC - meanB;
+        double error = Math.sqrt(b.variance() / b.timed + c.variance() / c.timed);
+        if (Math.abs(delta) >= minChange * meanB && Math.abs(delta) >= t * error
+                && delta != 0) {
+            change.slower = delta > 0;
+            change.faster = delta < 0;
+        }
+    }
+
+    /**
+     * @return the paths found in one capture only, by descending calls. A path below one
+     *         that is already listed is left out.
+     */
+    List<CallPath> paths() {
+        List<CallPath> paths = new ArrayList<>();
+        compare(baselinePaths, candidatePaths, paths, true);
+        compare(candidatePaths, baselinePaths, paths, false);
+        paths.sort(Comparator.comparingLong((CallPath p) -> p.count).reversed());
+        return paths;
+    }
+
+    /**
+     * A path both sides have, with the path that led to it.
+     */
+    private static final class Match {
+        final TraceLogAnalyzer.PathNode other;
+        final TraceLogAnalyzer.PathNode in;
+        final Match parent;
+
+        Match(TraceLogAnalyzer.PathNode other, TraceLogAnalyzer.PathNode in, Match parent) {
+            this.other = other;
+            this.in = in;
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * Adds the paths of {@code in} that {@code other} does not have.
+     */
+    private static void compare(TraceLogAnalyzer.PathNode other, TraceLogAnalyzer.PathNode in,
+                                List<CallPath> paths, boolean added) {
+        Deque<Match> pending = new ArrayDeque<>();
+        pending.push(new Match(other, in, null));
+        while (!pending.isEmpty()) {
+            Match match = pending.pop();
+            for (TraceLogAnalyzer.PathNode child : match.in.children.values()) {
+                TraceLogAnalyzer.PathNode same = match.other.children.get(child.site);
+                if (same != null) {
+                    pending.push(new Match(same, child, match));
+                    continue;
+                }
+                List<String> sites = new ArrayList<>();
+                sites.add(child.site);
+                for (Match m = match; m.parent != null; m = m.parent) {
+                    sites.add(m.in.site);
+                }
+                Collections.reverse(sites);
+                paths.add(new CallPath(sites, child.total(), added));
+            }
+        }
+    }
+
+    static String percent(long from, long to) {
+        if (from == 0) {
+            return to == 0 ? "0%" : "new";
+        }
+        long percent = Math.round(100.0 * (to - from) / from);
+        return (percent >= 0 ? "+" : "") + percent + "%";
+    }
+
+    static String signed(long nanos) {
+        return (nanos < 0 ? "-" : "+") + LatencyStats.duration(Math.abs(nanos));
+    }
+
+    void writeTo(Appendable out, int top) throws IOException {
+        String newline = System.lineSeparator();
+        out.append("TR diff, baseline ").append(String.valueOf(baseline.calls))
+                .append(" calls of ").append(String.valueOf(baselineMethods.size()))
+                .append(" methods, candidate ").append(String.valueOf(candidate.calls))
+                .append(" calls of ").append(String.valueOf(candidateMethods.size()))
+                .append(" methods").append(newline);
+        out.append(String.format(Locale.ROOT, "%10s %7s %9s %7s %9s %9s  %s", "count", "change",
+                "mean", "change", "exclusive", "change", "method")).append(newline);
+        List<Change> changes = changes();
+        for (int i = 0; i < changes.size() && i < top; i++) {
+            Change change = changes.get(i);
+            TraceLogAnalyzer.MethodStats b = change.baseline;
+            TraceLogAnalyzer.MethodStats c = change.candidate;
+            out.append(String.format(Locale.ROOT, "%10d %7s %9s %7s %9s %9s  %s  %s", c.count,
+                    percent(b.count, c.count), LatencyStats.duration(c.mean()),
+                    percent(b.mean(), c.mean()), LatencyStats.duration(c.exclusive),
+                    signed(change.exclusiveDelta()), change.site, change.verdict()))
+                    .append(newline);
+        }
+        if (changes.size() > top) {
+            out.append("(").append(String.valueOf(changes.size() - top))
+                    .append(" changes left out)").append(newline);
+        }
+        List<CallPath> paths = paths();
+        for (int i = 0; i < paths.size() && i < top; i++) {
+            CallPath path = paths.get(i);
+            out.append(newline).append(path.added ? "New path, " : "Gone path, ")
+                    .append(String.valueOf(path.count)).append(" calls").append(newline);
+            StringBuilder sb = new StringBuilder();
+            for (int depth = 0; depth < path.sites.size(); depth++) {
+                sb.setLength(0);
+                IndentContext.appendIndent(sb, depth);
+                out.append(sb).append(path.sites.get(depth)).append(newline);
+            }
+        }
+        if (paths.size() > top) {
+            out.append(newline).append("(").append(String.valueOf(paths.size() - top))
+                    .append(" paths left out)").append(newline);
+        }
+    }
+}
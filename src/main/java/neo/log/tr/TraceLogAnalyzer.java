@@ -0,0 +1,974 @@
+package neo.log.tr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Rebuilds the calls of TR's text output from log files, in one pass, and reports the
+ * count, inclusive and exclusive time of every method plus the deepest call stacks seen:
+ * <pre>
+ * TR log analysis, 1843 lines, 610 calls of 3 methods, 2 threads
+ *      count inclusive exclusive      mean       max  method
+ *        200   41.77ms   30.12ms  208.85us    1.21ms  Order.java(52)place
+ * </pre>
+ * The time of a line is read from the timestamp the logging layout put before TR's
+ * {@code [tid]}; lines without one still count calls.
+ * <p>
+ * The files are taken in the order given, oldest first. Up to N of them are read at once,
+ * one thread per file, and their lines go to one of N workers by thread id, file by file,
+ * so a thread's lines stay in order. {@code .gz} files and rings are read as they are.
+ * <p>
+ * Usage: {@code java -cp tr4j.jar neo.log.tr.TraceLogAnalyzer [--threads N] [--top N]
+ * [--stacks N] <log file>...}
+ */
+public final class TraceLogAnalyzer {
+
+    static final int OTHER = 0;
+    static final int ENTER = 1;
+    static final int EXIT = 2;
+    static final int LEAF = 3;
+
+    static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final int BATCH = 1024;
+
+    /**
+     * The batches a reader may have ready before its file's turn comes.
+     */
+    private static final int READ_AHEAD = 16;
+    private static final long DAY = TimeUnit.DAYS.toNanos(1);
+
+    private final int partitions;
+    private final int stacks;
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int top = 50;
+        int stacks = 5;
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--top":
+                        top = Integer.parseInt(args[++i]);
+                        break;
+                    case "--stacks":
+                        stacks = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        files.add(Paths.get(args[i]));
+                        break;
+                }
+            }
+        } catch (RuntimeException e) {
+            files.clear();
+        }
+        if (files.isEmpty() || threads <= 0) {
+            System.err.println(
+                    "Usage: TraceLogAnalyzer [--threads N] [--top N] [--stacks N] <log file>...");
+            System.exit(1);
+        }
+        Report report = new TraceLogAnalyzer(threads, stacks).analyze(files);
+        Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        report.writeTo(out, top);
+        out.flush();
+    }
+
+    TraceLogAnalyzer(int partitions, int stacks) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("partitions must be positive: " + partitions);
+        }
+        this.partitions = partitions;
+        this.stacks = stacks;
+    }
+
+    Report analyze(List<Path> files) throws IOException, InterruptedException {
+        Worker[] workers = new Worker[partitions];
+        for (int i = 0; i < partitions; i++) {
+            workers[i] = new Worker(stacks);
+            workers[i].start();
+        }
+        Report report = new Report();
+        LogReader[] readers = new LogReader[files.size()];
+        try {
+            for (int i = 0; i < readers.length; i++) {
+                for (int ahead = i; ahead < Math.min(readers.length, i + partitions); ahead++) {
+                    if (readers[ahead] == null) {
+                        readers[ahead] = new LogReader(files.get(ahead), partitions);
+                        readers[ahead].start();
+                    }
+                }
+                report.lines += readers[i].handTo(workers);
+                readers[i] = null;
+            }
+        } finally {
+            for (LogReader reader : readers) {
+                if (reader != null) {
+                    reader.interrupt();
+                }
+            }
+            for (Worker worker : workers) {
+                worker.queue.put(Batch.END);
+            }
+            for (Worker worker : workers) {
+                worker.join();
+            }
+        }
+        for (Worker worker : workers) {
+            if (worker.failure != null) {
+                throw new IllegalStateException("TR log analysis failed", worker.failure);
+            }
+            report.merge(worker);
+        }
+        return report;
+    }
+
+    /**
+     * Reads one file into batches for the workers, which wait in its queue until
+     * {@link #handTo} passes them on.
+     */
+    private static final class LogReader extends Thread {
+
+        private final Path file;
+        private final Batch[] batches;
+        private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(READ_AHEAD);
+        private long lines;
+        private Throwable failure;
+
+        LogReader(Path file, int partitions) {
+            super("tr4j-analyzer-reader");
+            setDaemon(true);
+            this.file = file;
+            batches = new Batch[partitions];
+            for (int i = 0; i < partitions; i++) {
+                batches[i] = new Batch(i);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (TraceRingDecoder.isRing(file)) {
+                    new TraceRingDecoder(file).decode(line -> line(line.toString()), true);
+                } else {
+                    try (BufferedReader in = open(file)) {
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            line(line);
+                        }
+                    }
+                }
+                for (Batch batch : batches) {
+                    put(batch);
+                }
+            } catch (InterruptedIOException e) {
+                // the analysis was given up
+                return;
+            } catch (Throwable e) {
+                failure = e;
+            }
+            try {
+                queue.put(Batch.END);
+            } catch (InterruptedException e) {
+                // the analysis was given up
+            }
+        }
+
+        private void line(String line) throws IOException {
+            lines++;
+            int marker = marker(line);
+            if (marker < 0) {
+                return;
+            }
+            int partition = (int) Math.floorMod(threadId(line, marker), batches.length);
+            Batch batch = batches[partition];
+            batch.add(line, marker);
+            if (batch.size == BATCH) {
+                put(batch);
+                batches[partition] = new Batch(partition);
+            }
+        }
+
+        private void put(Batch batch) throws IOException {
+            try {
+                queue.put(batch);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("TR log analysis interrupted");
+            }
+        }
+
+        /**
+         * @return the lines read, once all of them are passed on to the workers
+         */
+        long handTo(Worker[] workers) throws IOException, InterruptedException {
+            Batch batch;
+            while ((batch = queue.take()) != Batch.END) {
+                workers[batch.partition].queue.put(batch);
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure != null) {
+                throw new IllegalStateException("TR log analysis failed", failure);
+            }
+            return lines;
+        }
+    }
+
+    private static BufferedReader open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        // malformed input becomes U+FFFD rather than failing the whole file
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * @return the index of the '[' of TR's {@code [tid] File(line)method : } in the line,
+     *         or -1 if there is none
+     */
+    static int marker(String line) {
+        for (int i = line.indexOf('['); i >= 0; i = line.indexOf('[', i + 1)) {
+            if (siteEnd(line, i) > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the " : " after the call site, or -1 if the text at the marker
+     *         is not {@code [tid]}, an indent and a call site
+     */
+    private static int siteEnd(String line, int marker) {
+        int i = digits(line, marker + 1);
+        if (i == marker + 1 || i >= line.length() || line.charAt(i) != ']') {
+            return -1;
+        }
+        int site = siteStart(line, i + 1);
+        if (site < 0) {
+            return -1;
+        }
+        int end = line.indexOf(" : ", site);
+        if (end < 0) {
+            return -1;
+        }
+        int open = line.indexOf('(', site);
+        if (open <= site || open > end) {
+            return -1;
+        }
+        int close = digits(line, open + 1);
+        if (close == open + 1 || close >= end || line.charAt(close) != ')') {
+            return -1;
+        }
+        for (int j = site; j < end; j++) {
+            if (line.charAt(j) == ' ') {
+                return -1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @param i the index after the ']' of the thread id
+     * @return the index of the call site after the indent, or -1
+     */
+    private static int siteStart(String line, int i) {
+        if (line.startsWith(" [depth ", i)) {
+            int end = digits(line, i + 8);
+            return line.startsWith("] ", end) ? end + 2 : -1;
+        }
+        int j = i;
+        while (j < line.length() && line.charAt(j) == ' ') {
+            j++;
+        }
+        int spaces = j - i;
+        return spaces % 2 == 1 ? j : -1;
+    }
+
+    private static int depth(String line, int i) {
+        if (line.startsWith(" [depth ", i)) {
+            return (int) number(line, i + 8, digits(line, i + 8));
+        }
+        int j = i;
+        while (line.charAt(j) == ' ') {
+            j++;
+        }
+        return (j - i - 1) / 2;
+    }
+
+    private static int digits(String s, int i) {
+        while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    private static long number(String s, int from, int to) {
+        long n = 0;
+        for (int i = from; i < to; i++) {
+            n = n * 10 + s.charAt(i) - '0';
+        }
+        return n;
+    }
+
+    static long threadId(String line, int marker) {
+        return number(line, marker + 1, digits(line, marker + 1));
+    }
+
+    /**
+     * @return the time of the line in nanoseconds, from the date and time of day or the
+     *         decoder's milliseconds in front of the marker, or {@link #NO_TIME}
+     */
+    static long time(String line, int marker) {
+        for (int i = 0; i + 8 <= marker; i++) {
+            if (isTimeOfDay(line, i)) {
+                long nanos = TimeUnit.HOURS.toNanos(number(line, i, i + 2))
+                        + TimeUnit.MINUTES.toNanos(number(line, i + 3, i + 5))
+                        + TimeUnit.SECONDS.toNanos(number(line, i + 6, i + 8));
+                int j = i + 8;
+                if (j < marker && (line.charAt(j) == '.' || line.charAt(j) == ',')) {
+                    nanos += fraction(line, j + 1, Math.min(digits(line, j + 1), marker));
+                }
+                if (i >= 11 && isDate(line, i - 11)) {
+                    try {
+                        long day = LocalDate.of((int) number(line, i - 11, i - 7),
+                                (int) number(line, i - 6, i - 4),
+                                (int) number(line, i - 3, i - 1)).toEpochDay();
+                        nanos += day * DAY;
+                    } catch (DateTimeException e) {
+                        // such as month 13: the line is not what we take it for
+                        return NO_TIME;
+                    }
+                }
+                return nanos;
+            }
+        }
+        // TraceRingDecoder --time: "12.345ms "
+        int end = digits(line, 0);
+        if (end > 0 && end < marker && line.charAt(end) == '.') {
+            int fractionEnd = digits(line, end + 1);
+            if (line.startsWith("ms ", fractionEnd)) {
+                return TimeUnit.MILLISECONDS.toNanos(number(line, 0, end))
+                        + fraction(line, end + 1, fractionEnd) / 1000;
+            }
+        }
+        return NO_TIME;
+    }
+
+    private static boolean isTimeOfDay(String s, int i) {
+        return isDigits(s, i, 2) && s.charAt(i + 2) == ':' && isDigits(s, i + 3, 2)
+                && s.charAt(i + 5) == ':' && isDigits(s, i + 6, 2)
+                && (i == 0 || !Character.isDigit(s.charAt(i - 1)));
+    }
+
+    private static boolean isDate(String s, int i) {
+        char separator = s.charAt(i + 4);
+        char space = s.charAt(i + 10);
+        return isDigits(s, i, 4) && (separator == '-' || separator == '/')
+                && isDigits(s, i + 5, 2) && s.charAt(i + 7) == separator
+                && isDigits(s, i + 8, 2) && (space == ' ' || space == 'T');
+    }
+
+    private static boolean isDigits(String s, int i, int n) {
+        return digits(s, i) >= i + n;
+    }
+
+    /**
+     * @return the decimal fraction of a second between from and to, in nanoseconds
+     */
+    private static long fraction(String s, int from, int to) {
+        long nanos = 0;
+        long scale = 100_000_000;
+        for (int i = from; i < to && scale > 0; i++, scale /= 10) {
+            nanos += (s.charAt(i) - '0') * scale;
+        }
+        return nanos;
+    }
+
+    /**
+     * @return a collapsed line's duration such as "12.3us", in nanoseconds, or -1
+     */
+    static long duration(String s, int from) {
+        int end = digits(s, from);
+        if (end == from) {
+            return -1;
+        }
+        long whole = number(s, from, end);
+        int fractionEnd = end;
+        long fraction = 0;
+        if (end < s.length() && s.charAt(end) == '.') {
+            fractionEnd = digits(s, end + 1);
+            fraction = fraction(s, end + 1, fractionEnd);
+        }
+        long unit;
+        if (s.startsWith("ns", fractionEnd)) {
+            unit = 1;
+        } else if (s.startsWith("us", fractionEnd)) {
+            unit = TimeUnit.MICROSECONDS.toNanos(1);
+        } else if (s.startsWith("ms", fractionEnd)) {
+            unit = TimeUnit.MILLISECONDS.toNanos(1);
+        } else if (s.startsWith("s", fractionEnd)) {
+            unit = TimeUnit.SECONDS.toNanos(1);
+        } else {
+            return -1;
+        }
+        return whole * unit + fraction * unit / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static final class Batch {
+
+        static final Batch END = new Batch(-1);
+
+        final int partition;
+        final String[] lines = new String[BATCH];
+        final int[] markers = new int[BATCH];
+        int size;
+
+        Batch(int partition) {
+            this.partition = partition;
+        }
+
+        void add(String line, int marker) {
+            lines[size] = line;
+            markers[size] = marker;
+            size++;
+        }
+    }
+
+    /**
+     * The totals of one method, keyed by its enter line's {@code File(line)method}.
+     */
+    static final class MethodStats {
+
+        final String site;
+        long count;
+        long inclusive;
+        long exclusive;
+        long max;
+
+        /**
+         * The mean of the inclusive times and the sum of squared differences from it, by
+         * Welford's method and merged with Chan's formula.
+         */
+        double runningMean;
+        double m2;
+
+        /**
+         * Calls with a time; the others only count.
+         */
+        long timed;
+
+        MethodStats(String site) {
+            this.site = site;
+        }
+
+        void add(long inclusive, long exclusive) {
+            count++;
+            if (inclusive != NO_TIME) {
+                timed++;
+                this.inclusive += inclusive;
+                this.exclusive += exclusive;
+                double delta = inclusive - runningMean;
+                runningMean += delta / timed;
+                m2 += delta * (inclusive - runningMean);
+                max = Math.max(max, inclusive);
+            }
+        }
+
+        void merge(MethodStats other) {
+            if (other.timed > 0) {
+                long total = timed + other.timed;
+                double delta = other.runningMean - runningMean;
+                runningMean += delta * other.timed / total;
+                m2 += other.m2 + delta * delta * ((double) timed * other.timed / total);
+            }
+            count += other.count;
+            timed += other.timed;
+            inclusive += other.inclusive;
+            exclusive += other.exclusive;
+            max = Math.max(max, other.max);
+        }
+
+        long mean() {
+            return timed == 0 ? 0 : inclusive / timed;
+        }
+
+        /**
+         * @return the sample variance of the inclusive times, in square nanoseconds
+         */
+        double variance() {
+            return timed < 2 ? 0 : m2 / (timed - 1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%10d %9s %9s %9s %9s  %s", count,
+                    LatencyStats.duration(inclusive), LatencyStats.duration(exclusive),
+                    LatencyStats.duration(mean()), LatencyStats.duration(max), site);
+        }
+    }
+
+    /**
+     * The calls of a site from the same chain of callers. Paths are as deep as the calls,
+     * so they are walked without recursion.
+     */
+    static final class PathNode {
+
+        final String site;
+        final Map<String, PathNode> children = new HashMap<>(4);
+        long count;
+
+        PathNode(String site) {
+            this.site = site;
+        }
+
+        PathNode child(String site) {
+            PathNode child = children.get(site);
+            if (child == null) {
+                child = new PathNode(site);
+                children.put(site, child);
+            }
+            return child;
+        }
+
+        void merge(PathNode other) {
+            Deque<PathNode[]> pending = new ArrayDeque<>();
+            pending.push(new PathNode[]{this, other});
+            while (!pending.isEmpty()) {
+                PathNode[] pair = pending.pop();
+                pair[0].count += pair[1].count;
+                for (PathNode child : pair[1].children.values()) {
+                    pending.push(new PathNode[]{pair[0].child(child.site), child});
+                }
+            }
+        }
+
+        /**
+         * @return the calls of this path and of all paths below it
+         */
+        long total() {
+            long total = 0;
+            Deque<PathNode> pending = new ArrayDeque<>();
+            pending.push(this);
+            while (!pending.isEmpty()) {
+                PathNode node = pending.pop();
+                total += node.count;
+                for (PathNode child : node.children.values()) {
+                    pending.push(child);
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * A call stack of one thread, outermost call first.
+     */
+    static final class Stack {
+
+        final long threadId;
+        final List<String> sites;
+
+        Stack(long threadId, List<String> sites) {
+            this.threadId = threadId;
+            this.sites = sites;
+        }
+
+        int depth() {
+            return sites.size();
+        }
+    }
+
+    /**
+     * The open calls of one thread, indexed by depth. A call whose enter came before the
+     * logs start has no site.
+     */
+    private static final class ThreadState {
+
+        final long threadId;
+        String[] sites = new String[16];
+        PathNode[] nodes = new PathNode[16];
+        long[] starts = new long[16];
+        long[] children = new long[16];
+        int size;
+
+        /**
+         * Added to times of day, so that calls over midnight do not go back in time.
+         */
+        long dayOffset;
+        long lastTime = NO_TIME;
+
+        /**
+         * The worker's line count at the thread's latest line.
+         */
+        long lastLine;
+
+        ThreadState(long threadId) {
+            this.threadId = threadId;
+        }
+
+        void ensure(int depth) {
+            if (depth >= sites.length) {
+                int length = Math.max(depth + 1, sites.length * 2);
+                sites = Arrays.copyOf(sites, length);
+                nodes = Arrays.copyOf(nodes, length);
+                starts = Arrays.copyOf(starts, length);
+                children = Arrays.copyOf(children, length);
+            }
+        }
+
+        long adjust(long time) {
+            if (time == NO_TIME) {
+                return NO_TIME;
+            }
+            if (time < DAY) {
+                if (lastTime != NO_TIME && time + dayOffset < lastTime - DAY / 2) {
+                    dayOffset += DAY;
+                }
+                time += dayOffset;
+            }
+            lastTime = time;
+            return time;
+        }
+    }
+
+    private static final class Worker extends Thread {
+
+        /**
+         * A thread with no open call is forgotten after this many lines without one of its
+         * own.
+         */
+        static final int IDLE_LINES = 1 << 16;
+
+        final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(4);
+        final Map<Long, ThreadState> threads = new HashMap<>();
+
+        /**
+         * The ids of all threads seen, including forgotten ones.
+         */
+        final Set<Long> seen = new HashSet<>();
+        long lines;
+        final Map<String, MethodStats> methods = new HashMap<>();
+        final List<Stack> deepest = new ArrayList<>();
+        final PathNode paths = new PathNode(null);
+        final int stacks;
+        long calls;
+        long unmatched;
+        long unfinished;
+        long untimed;
+        Throwable failure;
+
+        Worker(int stacks) {
+            super("tr4j-analyzer");
+            setDaemon(true);
+            this.stacks = stacks;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Batch batch;
+                while ((batch = queue.take()) != Batch.END) {
+                    for (int i = 0; i < batch.size; i++) {
+                        line(batch.lines[i], batch.markers[i]);
+                    }
+                }
+                for (ThreadState state : threads.values()) {
+                    for (int depth = 0; depth < state.size; depth++) {
+                        if (state.sites[depth] != null) {
+                            unfinished++;
+                        }
+                    }
+                }
+            } catch (Throwable e) {
+                failure = e;
+                // keep taking batches, so the reader does not block
+                try {
+                    while (queue.take() != Batch.END) {
+                        // discard
+                    }
+                } catch (InterruptedException ignored) {
+                    // the reader is gone as well
+                }
+            }
+        }
+
+        void line(String line, int marker) {
+            int siteEnd = siteEnd(line, marker);
+            int message = siteEnd + 3;
+            int type = type(line, message);
+            if (type == OTHER) {
+                return;
+            }
+            long threadId = threadId(line, marker);
+            ThreadState state = threads.get(threadId);
+            if (state == null) {
+                state = new ThreadState(threadId);
+                threads.put(threadId, state);
+                seen.add(threadId);
+            }
+            state.lastLine = ++lines;
+            if ((lines & (IDLE_LINES - 1)) == 0) {
+                threads.values().removeIf(idle -> idle.size == 0
+                        && lines - idle.lastLine >= IDLE_LINES);
+            }
+            long time = state.adjust(time(line, marker));
+            if (time == NO_TIME) {
+                untimed++;
+            }
+            int tidEnd = digits(line, marker + 1) + 1;
+            int depth = depth(line, tidEnd);
+            int site = siteStart(line, tidEnd);
+            switch (type) {
+                case ENTER:
+                    if (time != NO_TIME && line.startsWith("[held ", message + 2)) {
+                        long held = duration(line, message + 8);
+                        time -= Math.max(0, held);
+                    }
+                    open(state, depth, line.substring(site, siteEnd), time);
+                    break;
+                case EXIT:
+                    if (depth < state.size && state.sites[depth] != null
+                            && sameMethod(state.sites[depth], line, site, siteEnd)) {
+                        close(state, depth, time);
+                    } else {
+                        unmatched++;
+                        truncate(state, Math.min(depth, state.size));
+                    }
+                    break;
+                case LEAF:
+                default:
+                    long nanos = duration(line, message + 4);
+                    open(state, depth, line.substring(site, siteEnd), 0);
+                    close(state, depth, nanos < 0 ? NO_TIME : nanos);
+                    break;
+            }
+        }
+
+        private void open(ThreadState state, int depth, String site, long time) {
+            truncate(state, Math.min(depth, state.size));
+            state.ensure(depth);
+            for (int i = state.size; i < depth; i++) {
+                state.sites[i] = null;
+                state.nodes[i] = null;
+            }
+            PathNode parent = depth > 0 ? state.nodes[depth - 1] : null;
+            state.sites[depth] = site;
+            state.nodes[depth] = (parent != null ? parent : paths).child(site);
+            state.starts[depth] = time;
+            state.children[depth] = 0;
+            state.size = depth + 1;
+            if (stacks > 0) {
+                recordDepth(state, depth);
+            }
+        }
+
+        private void close(ThreadState state, int depth, long time) {
+            long start = state.starts[depth];
+            long inclusive = time == NO_TIME || start == NO_TIME ? NO_TIME : time - start;
+            if (inclusive != NO_TIME && inclusive < 0) {
+                // the clock of the logs went back
+                inclusive = NO_TIME;
+            }
+            String site = state.sites[depth];
+            MethodStats stats = methods.get(site);
+            if (stats == null) {
+                stats = new MethodStats(site);
+                methods.put(site, stats);
+            }
+            stats.add(inclusive,
+                    inclusive == NO_TIME ? NO_TIME : Math.max(0, inclusive - state.children[depth]));
+            if (inclusive != NO_TIME && depth > 0) {
+                state.children[depth - 1] += inclusive;
+            }
+            state.nodes[depth].count++;
+            calls++;
+            state.sites[depth] = null;
+            state.nodes[depth] = null;
+            state.size = depth;
+        }
+
+        /**
+         * Drops the calls open at depth and below, whose exits were never logged.
+         */
+        private void truncate(ThreadState state, int depth) {
+            for (int i = depth; i < state.size; i++) {
+                if (state.sites[i] != null) {
+                    unfinished++;
+                    state.sites[i] = null;
+                    state.nodes[i] = null;
+                }
+            }
+            state.size = depth;
+        }
+
+        private void recordDepth(ThreadState state, int depth) {
+            if (deepest.size() == stacks && depth + 1 <= deepest.get(stacks - 1).depth()) {
+                return;
+            }
+            List<String> sites = new ArrayList<>(depth + 1);
+            for (int i = 0; i <= depth; i++) {
+                sites.add(state.sites[i] == null ? "?" : state.sites[i]);
+            }
+            insert(deepest, new Stack(state.threadId, sites), stacks);
+        }
+    }
+
+    static void insert(List<Stack> deepest, Stack stack, int limit) {
+        int i = 0;
+        while (i < deepest.size() && deepest.get(i).depth() >= stack.depth()) {
+            i++;
+        }
+        if (i < limit) {
+            deepest.add(i, stack);
+            if (deepest.size() > limit) {
+                deepest.remove(limit);
+            }
+        }
+    }
+
+    static int type(String line, int message) {
+        if (message >= line.length()) {
+            return OTHER;
+        }
+        char c = line.charAt(message);
+        boolean alone = message + 1 == line.length() || line.charAt(message + 1) == ' ';
+        if (c == '>') {
+            if (line.startsWith("< [", message + 1)) {
+                return LEAF;
+            }
+            return alone ? ENTER : OTHER;
+        }
+        return c == '<' && alone ? EXIT : OTHER;
+    }
+
+    /**
+     * An exit is logged from another line of the method it exits, so only the file and
+     * the method are compared.
+     */
+    static boolean sameMethod(String enter, String line, int site, int siteEnd) {
+        int open = enter.indexOf('(');
+        int lineOpen = line.indexOf('(', site);
+        if (open != lineOpen - site || !line.regionMatches(site, enter, 0, open)) {
+            return false;
+        }
+        int method = enter.indexOf(')', open) + 1;
+        int lineMethod = line.indexOf(')', lineOpen) + 1;
+        return enter.length() - method == siteEnd - lineMethod
+                && line.regionMatches(lineMethod, enter, method, enter.length() - method);
+    }
+
+    static final class Report {
+
+        long lines;
+        long calls;
+        long unmatched;
+        long unfinished;
+        long untimed;
+        int threads;
+        final Map<String, MethodStats> methods = new HashMap<>();
+        final List<Stack> deepest = new ArrayList<>();
+
+        /**
+         * The root of the call paths of all threads; it has no site.
+         */
+        final PathNode paths = new PathNode(null);
+        private int stackLimit;
+
+        void merge(Worker worker) {
+            calls += worker.calls;
+            unmatched += worker.unmatched;
+            unfinished += worker.unfinished;
+            untimed += worker.untimed;
+            threads += worker.seen.size();
+            for (MethodStats stats : worker.methods.values()) {
+                MethodStats total = methods.get(stats.site);
+                if (total == null) {
+                    methods.put(stats.site, stats);
+                } else {
+                    total.merge(stats);
+                }
+            }
+            paths.merge(worker.paths);
+            stackLimit = worker.stacks;
+            for (Stack stack : worker.deepest) {
+                insert(deepest, stack, stackLimit);
+            }
+        }
+
+        /**
+         * @return the methods by descending exclusive time, then by count
+         */
+        List<MethodStats> methods() {
+            List<MethodStats> sorted = new ArrayList<>(methods.values());
+            sorted.sort(Comparator.comparingLong((MethodStats m) -> m.exclusive)
+                    .thenComparingLong(m -> m.count).reversed());
+            return sorted;
+        }
+
+        void writeTo(Appendable out, int top) throws IOException {
+            String newline = System.lineSeparator();
+            out.append("TR log analysis, ").append(String.valueOf(lines)).append(" lines, ")
+                    .append(String.valueOf(calls)).append(" calls of ")
+                    .append(String.valueOf(methods.size())).append(" methods, ")
+                    .append(String.valueOf(threads)).append(" threads").append(newline);
+            if (unmatched > 0 || unfinished > 0 || untimed > 0) {
+                out.append(String.valueOf(unmatched)).append(" exits without enter, ")
+                        .append(String.valueOf(unfinished)).append(" enters without exit, ")
+                        .append(String.valueOf(untimed)).append(" lines without time")
+                        .append(newline);
+            }
+            out.append(String.format(Locale.ROOT, "%10s %9s %9s %9s %9s  %s", "count",
+                    "inclusive", "exclusive", "mean", "max", "method")).append(newline);
+            List<MethodStats> sorted = methods();
+            for (int i = 0; i < sorted.size() && i < top; i++) {
+                out.append(sorted.get(i).toString()).append(newline);
+            }
+            if (sorted.size() > top) {
+                out.append("(").append(String.valueOf(sorted.size() - top))
+                        .append(" methods left out)").append(newline);
+            }
+            for (Stack stack : deepest) {
+                out.append(newline).append("Depth ").append(String.valueOf(stack.depth()))
+                        .append(" in thread [").append(String.valueOf(stack.threadId))
+                        .append("]").append(newline);
+                StringBuilder sb = new StringBuilder();
+                for (int depth = 0; depth < stack.sites.size(); depth++) {
+                    sb.setLength(0);
+                    IndentContext.appendIndent(sb, depth);
+                    out.append(sb).append(stack.sites.get(depth)).append(newline);
+                }
+            }
+        }
+    }
+}
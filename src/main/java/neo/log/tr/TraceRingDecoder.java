@@ -0,0 +1,242 @@
+package neo.log.tr;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static neo.log.tr.MappedRingSink.*;
+
+/**
+ * Turns a ring written by {@link MappedRingSink} back into TR's indented text, oldest
+ * record first:
+ * <pre>
+ * TRACE [1]   Foo.java(12)bar : >
+ * </pre>
+ * Arguments that were not recorded are shown as "?".
+ * <p>
+ * Usage: {@code java -cp tr4j.jar neo.log.tr.TraceRingDecoder [--time] <ring file>}.
+ * With {@code --time} every line starts with the milliseconds since the ring was opened.
+ */
+public final class TraceRingDecoder {
+
+    private static final Level[] LEVELS = Level.values();
+
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final long startNanos;
+    private final Map<Integer, CallSite> sites = new HashMap<>();
+    private final Map<Integer, String> formats = new HashMap<>();
+
+    public static void main(String[] args) throws IOException {
+        boolean time = false;
+        String file = null;
+        for (String arg : args) {
+            if ("--time".equals(arg)) {
+                time = true;
+            } else {
+                file = arg;
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: TraceRingDecoder [--time] <ring file>");
+            System.exit(1);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        new TraceRingDecoder(Paths.get(file)).decode(out, time);
+        out.flush();
+    }
+
+    TraceRingDecoder(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ring = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (ring.getLong(H_MAGIC) != MAGIC || ring.getInt(H_VERSION) != VERSION
+                || ring.getInt(H_RECORD_SIZE) != RECORD_SIZE) {
+            throw new IOException(file + " is not a TR ring file");
+        }
+        capacity = ring.getInt(H_CAPACITY);
+        startNanos = ring.getLong(H_START_NANOS);
+        Path sitesFile = sitesFile(file);
+        if (Files.exists(sitesFile)) {
+            readSideTable(sitesFile);
+        }
+    }
+
+    private void readSideTable(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 3) {
+                    continue;
+                }
+                int id = Integer.parseInt(fields[1]);
+                if ("S".equals(fields[0]) && fields.length == 6) {
+                    sites.put(id, new CallSite(id, fields[2], fields[3],
+                            Integer.parseInt(fields[4]), fields[5]));
+                } else if ("F".equals(fields[0])) {
+                    formats.put(id, unescape(fields[2]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the rendered records; the builder is reused for the next one.
+     */
+    interface LineConsumer {
+        void accept(StringBuilder line) throws IOException;
+    }
+
+    /**
+     * @return whether the file starts like a ring written by {@link MappedRingSink}
+     */
+    static boolean isRing(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // read the first 8 bytes
+            }
+            return !magic.hasRemaining() && magic.getLong(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Writes every record in the ring, oldest first.
+     */
+    void decode(Writer out, boolean time) throws IOException {
+        decode(line -> out.append(line.append('\n')), time);
+    }
+
+    /**
+     * Renders every record in the ring, oldest first, without the line separator.
+     */
+    void decode(LineConsumer out, boolean time) throws IOException {
+        long newest = 0;
+        int newestSlot = -1;
+        for (int slot = 0; slot < capacity; slot++) {
+            long sequence = ring.getLong(offset(slot) + R_SEQUENCE);
+            if (sequence > newest) {
+                newest = sequence;
+                newestSlot = slot;
+            }
+        }
+        if (newestSlot < 0) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(256);
+        for (int i = 1; i <= capacity; i++) {
+            int slot = (newestSlot + i) % capacity;
+            long sequence = ring.getLong(offset(slot) + R_SEQUENCE);
+            if (sequence == 0 || (sequence - 1) % capacity != slot) {
+                continue;
+            }
+            sb.setLength(0);
+            render(sb, offset(slot), time);
+            out.accept(sb);
+        }
+    }
+
+    private int offset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    void render(StringBuilder sb, int offset, boolean time) {
+        int type = ring.get(offset + R_TYPE);
+        int level = ring.get(offset + R_LEVEL);
+        int depth = ring.getShort(offset + R_DEPTH);
+        int siteId = ring.getInt(offset + R_SITE);
+        long threadId = ring.getLong(offset + R_THREAD);
+        if (time) {
+            long micros = (ring.getLong(offset + R_TIME) - startNanos) / 1000;
+            sb.append(micros / 1000).append('.');
+            long fraction = micros % 1000;
+            sb.append(fraction < 100 ? fraction < 10 ? "00" : "0" : "").append(fraction)
+                    .append("ms ");
+        }
+        String levelName = level >= 0 && level < LEVELS.length ? LEVELS[level].name() : "?";
+        sb.append(levelName);
+        for (int i = levelName.length(); i < 6; i++) {
+            sb.append(' ');
+        }
+        CallSite site = sites.get(siteId);
+        if (site == null) {
+            // once per id: a CallSite registers a trace switch and a rate limiter
+            site = new CallSite(siteId, "?", "?", 0, "?");
+            sites.put(siteId, site);
+        }
+        int formatId = ring.getInt(offset + R_FORMAT);
+        if (type == TraceSink.ENTER && formatId == MappedRingSink.NO_FORMAT) {
+            LoggerSink.renderTo(sb, depth, threadId, site, ">");
+        } else if (type == TraceSink.EXIT && formatId == MappedRingSink.NO_FORMAT) {
+            LoggerSink.renderTo(sb, depth, threadId, site, "<");
+        } else {
+            String format = formats.get(formatId);
+            Object[] args = arguments(offset);
+            if (type == TraceSink.LEAF) {
+                args = CollapsingSink.leafArgs(args);
+            }
+            int start = sb.length();
+            try {
+                LoggerSink.renderTo(sb, depth, threadId, site, format == null ? "?" : format,
+                        args);
+            } catch (RuntimeException e) {
+                // an argument that was not recorded does not fit its conversion
+                sb.setLength(start);
+                LoggerSink.renderTo(sb, depth, threadId, site, "%s", format);
+                for (Object arg : args) {
+                    sb.append(' ').append(arg);
+                }
+            }
+        }
+    }
+
+    private Object[] arguments(int offset) {
+        int count = ring.get(offset + R_ARG_COUNT);
+        Object[] args = new Object[count];
+        for (int i = 0; i < count; i++) {
+            if (i >= MAX_ARGS) {
+                args[i] = "?";
+                continue;
+            }
+            long bits = ring.getLong(offset + R_ARGS + 8 * i);
+            switch (ring.get(offset + R_ARG_KINDS + i)) {
+                case ARG_NULL:
+                    args[i] = null;
+                    break;
+                case ARG_INT:
+                    args[i] = (int) bits;
+                    break;
+                case ARG_LONG:
+                    args[i] = bits;
+                    break;
+                case ARG_DOUBLE:
+                    args[i] = Double.longBitsToDouble(bits);
+                    break;
+                case ARG_BOOLEAN:
+                    args[i] = bits != 0;
+                    break;
+                case ARG_CHAR:
+                    args[i] = (char) bits;
+                    break;
+                default:
+                    args[i] = "?";
+                    break;
+            }
+        }
+        return args;
+    }
+}
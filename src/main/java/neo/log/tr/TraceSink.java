@@ -0,0 +1,35 @@
+package neo.log.tr;
+
+/**
+ * Where TR events end up once TR has decided to log them and has updated the call depth.
+ * <p>
+ * {@code depth} is the depth the event is shown at: for an enter it is the depth before
+ * the call, for an exit the depth after it.
+ */
+interface TraceSink {
+
+    int ENTER = 1;
+    int EXIT = 2;
+    int MESSAGE = 3;
+    /**
+     * An enter and its exit with nothing in between, written as one line, see
+     * {@link CollapsingSink}.
+     */
+    int LEAF = 4;
+
+    /**
+     * @return true if events of the level should be captured and written at all
+     */
+    boolean isEnabled(Level level);
+
+    /**
+     * @return true if the sink keeps events to render later, so TR renders exit results
+     *         and debug objects at call time
+     */
+    default boolean defersRendering() {
+        return false;
+    }
+
+    void write(Level level, int type, CallSite site, int depth, long threadId, String format,
+               Object[] args);
+}
@@ -0,0 +1,138 @@
+package neo.log.tr;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Turns TRACE and DEBUG events on or off per caller class, by the rule with the longest
+ * matching package or class prefix. {@code neo.csharp} is off unless a rule names it.
+ * <p>
+ * {@code -Dtr4j.trace=com.ourshop.matching,-com.ourshop.matching.Noisy} traces the listed
+ * prefixes only, '-' switches one off and {@code *} turns the rest back on.
+ */
+final class TraceSwitch {
+
+    private static final Object lock = new Object();
+
+    /**
+     * Prefixes to on/off, guarded by the lock.
+     */
+    private static final Map<String, Boolean> rules = new TreeMap<>();
+
+    /**
+     * Switches by class name, guarded by the lock.
+     */
+    private static final Map<String, TraceSwitch> switches = new HashMap<>();
+
+    private static final String[] QUIET = {"neo.csharp"};
+
+    static {
+        configure(System.getProperty("tr4j.trace"));
+    }
+
+    final String className;
+
+    volatile boolean enabled;
+
+    private TraceSwitch(String className, boolean enabled) {
+        this.className = className;
+        this.enabled = enabled;
+    }
+
+    static TraceSwitch forClass(String className) {
+        synchronized (lock) {
+            TraceSwitch traceSwitch = switches.get(className);
+            if (traceSwitch == null) {
+                traceSwitch = new TraceSwitch(className, resolve(className));
+                switches.put(className, traceSwitch);
+            }
+            return traceSwitch;
+        }
+    }
+
+    /**
+     * Replaces all rules by the comma-separated list of {@code -Dtr4j.trace}.
+     */
+    static void configure(String list) {
+        synchronized (lock) {
+            rules.clear();
+            for (String prefix : QUIET) {
+                rules.put(prefix, false);
+            }
+            if (list != null && !list.trim().isEmpty()) {
+                rules.put("", false);
+                for (String entry : list.split(",")) {
+                    entry = entry.trim();
+                    if (entry.isEmpty()) {
+                        continue;
+                    }
+                    boolean enabled = !entry.startsWith("-");
+                    rules.put(normalize(enabled ? entry : entry.substring(1)), enabled);
+                }
+            }
+            update();
+        }
+    }
+
+    static void setRule(String prefix, boolean enabled) {
+        synchronized (lock) {
+            rules.put(normalize(prefix), enabled);
+            update();
+        }
+    }
+
+    static void removeRule(String prefix) {
+        synchronized (lock) {
+            rules.remove(normalize(prefix));
+            update();
+        }
+    }
+
+    static boolean isEnabled(String className) {
+        synchronized (lock) {
+            return resolve(className);
+        }
+    }
+
+    private static String normalize(String prefix) {
+        prefix = prefix.trim();
+        if (prefix.equals("*")) {
+            return "";
+        }
+        if (prefix.endsWith(".*")) {
+            return prefix.substring(0, prefix.length() - 2);
+        }
+        return prefix;
+    }
+
+    private static void update() {
+        for (TraceSwitch traceSwitch : switches.values()) {
+            traceSwitch.enabled = resolve(traceSwitch.className);
+        }
+    }
+
+    private static boolean resolve(String className) {
+        String best = null;
+        for (String prefix : rules.keySet()) {
+            if (matches(prefix, className) && (best == null || prefix.length() > best.length())) {
+                best = prefix;
+            }
+        }
+        return best == null || rules.get(best);
+    }
+
+    private static boolean matches(String prefix, String className) {
+        if (prefix.isEmpty()) {
+            return true;
+        }
+        if (!className.startsWith(prefix)) {
+            return false;
+        }
+        if (className.length() == prefix.length()) {
+            return true;
+        }
+        char next = className.charAt(prefix.length());
+        return next == '.' || next == '$';
+    }
+}
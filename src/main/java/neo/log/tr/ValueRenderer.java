@@ -0,0 +1,12 @@
+package neo.log.tr;
+
+/**
+ * Renders values of one type into trace lines, registered with
+ * {@link TR#registerRenderer(Class, ValueRenderer)}. The character budget still applies to
+ * what it appends.
+ */
+@FunctionalInterface
+public interface ValueRenderer<T> {
+
+    void render(T value, StringBuilder out);
+}
@@ -0,0 +1,230 @@
+package neo.log.tr;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renders the values of trace lines within {@code -Dtr4j.render.maxChars},
+ * {@code maxBytes} and {@code maxElements}. Arrays, collections and maps are rendered
+ * without their {@code toString()}; other objects by a registered renderer or
+ * {@code toString()}.
+ */
+final class Values {
+
+    static final int MAX_CHARS = Math.max(16, Integer.getInteger("tr4j.render.maxChars", 1000));
+    static final int MAX_BYTES = Math.max(1, Integer.getInteger("tr4j.render.maxBytes", 32));
+    static final int MAX_ELEMENTS = Math.max(1, Integer.getInteger("tr4j.render.maxElements", 16));
+
+    private static final String ELLIPSIS = "...";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Renderers as registered.
+     */
+    private static final Map<Class<?>, ValueRenderer<?>> renderers = new ConcurrentHashMap<>();
+
+    /**
+     * Renderers by the class of the value, including NONE for classes without one; cleared
+     * when a renderer is registered.
+     */
+    private static final Map<Class<?>, ValueRenderer<?>> resolved = new ConcurrentHashMap<>();
+
+    private static final ValueRenderer<Object> NONE = (value, out) -> { };
+
+    /**
+     * A value rendered when it was traced, for a sink that renders later; appended as is.
+     */
+    static final class Rendered {
+
+        private final String text;
+
+        Rendered(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    private Values() {
+    }
+
+    static <T> void register(Class<T> type, ValueRenderer<? super T> renderer) {
+        if (renderer == null) {
+            renderers.remove(type);
+        } else {
+            renderers.put(type, renderer);
+        }
+        resolved.clear();
+    }
+
+    /**
+     * Appends the value within the character budget; the closing of a cut array, collection
+     * or map may go past it by the count of what was left out.
+     */
+    static void appendTo(StringBuilder sb, Object value) {
+        if (value instanceof Rendered) {
+            sb.append(((Rendered) value).text);
+        } else {
+            append(sb, value, sb.length() + MAX_CHARS);
+        }
+    }
+
+    /**
+     * @return the value rendered now, within the budget
+     */
+    static Rendered rendered(Object value) {
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb, value);
+        return new Rendered(sb.toString());
+    }
+
+    /**
+     * Appends the value, cutting any text that goes past the limit.
+     */
+    @SuppressWarnings("unchecked")
+    private static void append(StringBuilder sb, Object value, int limit) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        ValueRenderer<Object> renderer = (ValueRenderer<Object>) renderer(value.getClass());
+        if (renderer != NONE) {
+            renderer.render(value, sb);
+            cut(sb, limit);
+        } else if (value instanceof CharSequence) {
+            CharSequence chars = (CharSequence) value;
+            int room = Math.max(0, limit - sb.length());
+            if (chars.length() <= room) {
+                sb.append(chars);
+            } else {
+                sb.append(chars, 0, room).append(ELLIPSIS);
+            }
+        } else if (value instanceof byte[]) {
+            appendBytes(sb, (byte[]) value);
+        } else if (value.getClass().isArray()) {
+            appendArray(sb, value, limit);
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            appendElements(sb, collection.iterator(), collection.size(), limit);
+        } else if (value instanceof Map) {
+            appendMap(sb, (Map<?, ?>) value, limit);
+        } else {
+            sb.append(value.toString());
+            cut(sb, limit);
+        }
+    }
+
+    private static void cut(StringBuilder sb, int limit) {
+        if (sb.length() > limit) {
+            sb.setLength(limit);
+            sb.append(ELLIPSIS);
+        }
+    }
+
+    private static ValueRenderer<?> renderer(Class<?> type) {
+        if (renderers.isEmpty()) {
+            return NONE;
+        }
+        ValueRenderer<?> renderer = resolved.get(type);
+        if (renderer == null) {
+            renderer = find(type);
+            resolved.put(type, renderer == null ? NONE : renderer);
+        }
+        return renderer == null ? NONE : renderer;
+    }
+
+    /**
+     * @return the renderer of the class, else of its nearest superclass, else of one of
+     *         its interfaces, or null
+     */
+    private static ValueRenderer<?> find(Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            ValueRenderer<?> renderer = renderers.get(c);
+            if (renderer != null) {
+                return renderer;
+            }
+        }
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                ValueRenderer<?> renderer = find(i);
+                if (renderer != null) {
+                    return renderer;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void appendBytes(StringBuilder sb, byte[] bytes) {
+        sb.append("byte[").append(bytes.length).append(']');
+        if (bytes.length == 0) {
+            return;
+        }
+        sb.append(' ');
+        int count = Math.min(bytes.length, MAX_BYTES);
+        for (int i = 0; i < count; i++) {
+            sb.append(HEX[(bytes[i] >> 4) & 0xF]).append(HEX[bytes[i] & 0xF]);
+        }
+        if (count < bytes.length) {
+            sb.append(ELLIPSIS);
+        }
+    }
+
+    private static void appendArray(StringBuilder sb, Object array, int limit) {
+        int length = Array.getLength(array);
+        sb.append('[');
+        int i = 0;
+        for (; i < length && i < MAX_ELEMENTS && sb.length() <= limit; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            append(sb, Array.get(array, i), limit);
+        }
+        appendRest(sb, length - i);
+        sb.append(']');
+    }
+
+    private static void appendElements(StringBuilder sb, Iterator<?> elements, int size,
+                                       int limit) {
+        sb.append('[');
+        int i = 0;
+        for (; i < MAX_ELEMENTS && sb.length() <= limit && elements.hasNext(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            append(sb, elements.next(), limit);
+        }
+        appendRest(sb, size - i);
+        sb.append(']');
+    }
+
+    private static void appendMap(StringBuilder sb, Map<?, ?> map, int limit) {
+        sb.append('{');
+        int i = 0;
+        Iterator<? extends Map.Entry<?, ?>> entries = map.entrySet().iterator();
+        for (; i < MAX_ELEMENTS && sb.length() <= limit && entries.hasNext(); i++) {
+            Map.Entry<?, ?> entry = entries.next();
+            if (i > 0) {
+                sb.append(", ");
+            }
+            append(sb, entry.getKey(), limit);
+            sb.append('=');
+            append(sb, entry.getValue(), limit);
+        }
+        appendRest(sb, map.size() - i);
+        sb.append('}');
+    }
+
+    private static void appendRest(StringBuilder sb, int rest) {
+        if (rest > 0) {
+            sb.append(", ... ").append(rest).append(" more");
+        }
+    }
+}
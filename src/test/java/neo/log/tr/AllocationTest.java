@@ -0,0 +1,271 @@
+package neo.log.tr;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.config.Property;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Uses the per-thread allocated-bytes counter of HotSpot to check that rendering a trace
+ * event does not allocate in steady state.
+ */
+public class AllocationTest {
+
+    private static final int ITERATIONS = 20_000;
+
+    private static final String LOGGER_NAME = TR.class.getName();
+
+    private com.sun.management.ThreadMXBean threads;
+    private LoggerContext context;
+    private int discarded;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        // route TR's logger to an appender that discards everything
+        context = (LoggerContext) LogManager.getContext(false);
+        Configuration config = context.getConfiguration();
+        Appender appender = new AbstractAppender("Discard", null, null, true, new Property[0]) {
+            @Override
+            public void append(LogEvent event) {
+                discarded++;
+            }
+        };
+        appender.start();
+        config.addAppender(appender);
+        LoggerConfig loggerConfig = new LoggerConfig(LOGGER_NAME,
+                org.apache.logging.log4j.Level.DEBUG, false);
+        loggerConfig.addAppender(appender, null, null);
+        config.addLogger(LOGGER_NAME, loggerConfig);
+        context.updateLoggers();
+    }
+
+    @After
+    public void tearDown() {
+        TR.setSink(null);
+        if (context != null) {
+            context.getConfiguration().removeLogger(LOGGER_NAME);
+            context.updateLoggers();
+        }
+    }
+
+    private long allocated() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void testRenderDoesNotAllocate() {
+        StringBuilder sb = new StringBuilder(256);
+        CallSite site = CallSites.register("A", "A.java", 42, "method");
+        Object[] args = {12345678, "str", -1L};
+        for (int i = 0; i < ITERATIONS; i++) {
+            sb.setLength(0);
+            LoggerSink.renderTo(sb, 1, 1L, site, "x=%d s=%s h=%x", args);
+        }
+        long before = allocated();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sb.setLength(0);
+            LoggerSink.renderTo(sb, 1, 1L, site, "x=%d s=%s h=%x", args);
+        }
+        long bytes = allocated() - before;
+        assertEquals("[1]   A.java(42)method : x=12345678 s=str h=ffffffffffffffff",
+                sb.toString());
+        // allow for the counter call itself
+        assertTrue("allocated " + bytes + " bytes", bytes < 1024);
+    }
+
+    /**
+     * A woven {@code TR.debug("x=%d", i)} allocates the line handed to slf4j and nothing
+     * else beyond what the logging backend allocates for the same line.
+     */
+    @Test
+    public void testDebugAllocatesOnlyTheLine() {
+        org.slf4j.Logger logger = LoggerFactory.getLogger(LOGGER_NAME);
+        assumeTrue(logger.isDebugEnabled());
+        int site = CallSites.register("A", "A.java", 42, "method").id;
+        Object[][] args = new Object[100][];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = new Object[]{i};
+        }
+        String line = LoggerSink.render(0, Thread.currentThread().getId(),
+                CallSites.get(site), "x=%d", 99);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            logger.debug(line);
+            TR.debug$("x=%d", args[i % 100], site);
+        }
+        long before = allocated();
+        for (int i = 0; i < ITERATIONS; i++) {
+            logger.debug(line);
+        }
+        long backend = allocated() - before;
+        before = allocated();
+        for (int i = 0; i < ITERATIONS; i++) {
+            TR.debug$("x=%d", args[i % 100], site);
+        }
+        long traced = allocated() - before;
+
+        // a compact String: header, array header and one byte per char, 8-byte aligned
+        long lineBytes = 24 + 16 + line.length() + 8;
+        long perEvent = (traced - backend) / ITERATIONS;
+        assertTrue("allocated " + perEvent + " bytes per event beyond the backend",
+                perEvent <= lineBytes);
+        assertTrue(discarded >= 2 * ITERATIONS);
+    }
+
+    private static void plainDebug(int i) {
+        TR.debug("x=%d", i);
+    }
+
+    private static CallSite locate() {
+        return CallerLocator.INSTANCE.callSite();
+    }
+
+    /**
+     * An unwoven {@code TR.debug("x=%d", i)} allocates, beyond what the logging backend
+     * allocates for the same line: the line, the boxed {@code i} and the one-element
+     * argument array handed to the sink, and whatever StackWalker allocates to find the
+     * caller, which is measured here on its own.
+     */
+    @Test
+    public void testPlainDebugAllocatesTheLineTheArgumentAndTheWalk() {
+        org.slf4j.Logger logger = LoggerFactory.getLogger(LOGGER_NAME);
+        assumeTrue(logger.isDebugEnabled());
+        String line = "[" + Thread.currentThread().getId() + "] AllocationTest.java(999)"
+                + "plainDebug : x=20999";
+        for (int i = 0; i < ITERATIONS; i++) {
+            logger.debug(line);
+            plainDebug(1000 + i);
+            locate();
+        }
+        long before = allocated();
+        for (int i = 0; i < ITERATIONS; i++) {
+            logger.debug(line);
+        }
+        long backend = allocated() - before;
+        before = allocated();
+        for (int i = 0; i < ITERATIONS; i++) {
+            locate();
+        }
+        long walk = (allocated() - before) / ITERATIONS;
+        before = allocated();
+        for (int i = 0; i < ITERATIONS; i++) {
+            plainDebug(1000 + i);
+        }
+        long traced = allocated() - before;
+
+        long lineBytes = 24 + 16 + line.length() + 8;
+        long boxed = 16;
+        long array = 24;
+        long perEvent = (traced - backend) / ITERATIONS;
+        assertTrue("allocated " + perEvent + " bytes per event beyond the backend, the walk "
+                        + walk, perEvent <= lineBytes + boxed + array + walk + 16);
+    }
+
+    /**
+     * With the level off, the primitive overloads do not box and the fixed-arity ones do
+     * not build a varargs array.
+     */
+    @Test
+    public void testDisabledDebugDoesNotAllocate() {
+        TR.setSink(new TraceSink() {
+            @Override
+            public boolean isEnabled(Level level) {
+                return false;
+            }
+
+            @Override
+            public void write(Level level, int type, CallSite site, int depth, long threadId,
+                              String format, Object[] args) {
+                fail();
+            }
+        });
+        Object arg = "arg";
+        for (int i = 0; i < ITERATIONS; i++) {
+            disabledDebug(i + 1000, arg);
+        }
+        long before = allocated();
+        for (int i = 0; i < ITERATIONS; i++) {
+            disabledDebug(i + 1000, arg);
+        }
+        long bytes = allocated() - before;
+        assertTrue("allocated " + bytes + " bytes", bytes < 1024);
+    }
+
+    private static void disabledDebug(int n, Object arg) {
+        TR.debug("n=%d", n);
+        TR.debug("n=%d", (long) n);
+        TR.debug("a=%s b=%s", arg, arg);
+        TR.debug("%s %s %s %s", arg, arg, arg, arg);
+        TR.info("n=%d", n);
+        TR.debug$("n=%d", n, 0);
+        TR.debug$("a=%s b=%s c=%s", arg, arg, arg, 0);
+    }
+
+    /**
+     * Capturing the context again in the same call and continuing it reuse what the first
+     * time allocated.
+     */
+    @Test
+    public void testCaptureAndRestoreDoNotAllocate() {
+        TR.setSink(new TraceSink() {
+            @Override
+            public boolean isEnabled(Level level) {
+                return true;
+            }
+
+            @Override
+            public void write(Level level, int type, CallSite site, int depth, long threadId,
+                              String format, Object[] args) {
+            }
+        });
+        int site = CallSites.register("A", "A.java", 42, "method").id;
+        int[] depth = new int[1];
+        Runnable task = () -> depth[0] = TR.currentIndentContext().depth();
+        TR.enter$(site);
+        TR.setSink(new TraceSink() {
+            @Override
+            public boolean isEnabled(Level level) {
+                return false;
+            }
+
+            @Override
+            public void write(Level level, int type, CallSite site, int depth, long threadId,
+                              String format, Object[] args) {
+                fail();
+            }
+        });
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                TraceContext.capture().run(task);
+            }
+            long before = allocated();
+            for (int i = 0; i < ITERATIONS; i++) {
+                TraceContext.capture().run(task);
+            }
+            long bytes = allocated() - before;
+            assertTrue("allocated " + bytes + " bytes", bytes < 1024);
+            assertEquals(1, depth[0]);
+        } finally {
+            TR.currentIndentContext().decreaseIndent();
+        }
+    }
+}
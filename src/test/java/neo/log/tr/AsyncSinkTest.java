@@ -0,0 +1,178 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncSinkTest {
+
+    /**
+     * Records the messages and the rendering thread; holds the first event until released,
+     * so the queue can be filled up.
+     */
+    private static final class SlowSink implements TraceSink {
+
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        volatile Thread renderer;
+
+        @Override
+        public boolean isEnabled(Level level) {
+            return true;
+        }
+
+        @Override
+        public void write(Level level, int type, CallSite site, int depth, long threadId,
+                          String format, Object[] args) {
+            renderer = Thread.currentThread();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            StringBuilder sb = new StringBuilder();
+            MessageFormatter.formatTo(sb, format, args);
+            messages.add(sb.toString());
+        }
+    }
+
+    private final SlowSink delegate = new SlowSink();
+    private final CallSite site = CallSites.register("A", "A.java", 1, "run");
+    private AsyncSink sink;
+
+    @After
+    public void tearDown() {
+        delegate.release.countDown();
+        if (sink != null) {
+            sink.close();
+        }
+    }
+
+    private void write(Level level, int n) {
+        sink.write(level, TraceSink.MESSAGE, site, 0, 1L, "%d", new Object[]{n});
+    }
+
+    /**
+     * Writes one event the consumer takes and blocks on, then fills the queue.
+     */
+    private void fill() throws InterruptedException {
+        write(Level.INFO, 0);
+        assertTrue(delegate.started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 4; i++) {
+            write(Level.INFO, i);
+        }
+    }
+
+    @Test
+    public void testRendersOnBackgroundThread() {
+        delegate.release.countDown();
+        sink = new AsyncSink(delegate, 16, AsyncSink.Overflow.BLOCK);
+        for (int i = 0; i < 100; i++) {
+            write(Level.DEBUG, i);
+        }
+        assertTrue(sink.flush(5, TimeUnit.SECONDS));
+        assertEquals(100, delegate.messages.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(String.valueOf(i), delegate.messages.get(i));
+        }
+        assertEquals("tr4j-async", delegate.renderer.getName());
+    }
+
+    @Test
+    public void testDropTraceDebug() throws InterruptedException {
+        sink = new AsyncSink(delegate, 4, AsyncSink.Overflow.DROP_TRACE_DEBUG);
+        fill();
+        long dropped = TRStats.droppedEvents();
+        write(Level.DEBUG, 5);
+        write(Level.TRACE, 6);
+        assertEquals(dropped + 2, TRStats.droppedEvents());
+        delegate.release.countDown();
+        write(Level.WARN, 7);
+        assertTrue(sink.flush(5, TimeUnit.SECONDS));
+        assertEquals("[0, 1, 2, 3, 4, 7]", delegate.messages.toString());
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        sink = new AsyncSink(delegate, 4, AsyncSink.Overflow.DROP_OLDEST);
+        fill();
+        for (int i = 5; i <= 9; i++) {
+            write(Level.WARN, i);
+        }
+        delegate.release.countDown();
+        assertTrue(sink.flush(5, TimeUnit.SECONDS));
+        assertEquals("[0, 6, 7, 8, 9]", delegate.messages.toString());
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        sink = new AsyncSink(delegate, 4, AsyncSink.Overflow.BLOCK);
+        fill();
+        Thread producer = new Thread(() -> write(Level.TRACE, 5));
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+        delegate.release.countDown();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertTrue(sink.flush(5, TimeUnit.SECONDS));
+        assertEquals("[0, 1, 2, 3, 4, 5]", delegate.messages.toString());
+    }
+
+    @Test
+    public void testWritesThroughAfterClose() {
+        delegate.release.countDown();
+        sink = new AsyncSink(delegate, 4, AsyncSink.Overflow.BLOCK);
+        write(Level.INFO, 1);
+        sink.close();
+        write(Level.INFO, 2);
+        assertEquals("[1, 2]", delegate.messages.toString());
+        assertSame(Thread.currentThread(), delegate.renderer);
+    }
+
+    @Test
+    public void testCountsRenderFailures() {
+        delegate.release.countDown();
+        sink = new AsyncSink(delegate, 4, AsyncSink.Overflow.BLOCK);
+        long failures = TRStats.renderFailures();
+        Object broken = new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException();
+            }
+        };
+        sink.write(Level.INFO, TraceSink.MESSAGE, site, 0, 1L, "%s", new Object[]{broken});
+        write(Level.INFO, 1);
+        assertTrue(sink.flush(5, TimeUnit.SECONDS));
+        assertEquals("[1]", delegate.messages.toString());
+        assertEquals(failures + 1, TRStats.renderFailures());
+    }
+
+    @Test
+    public void testWakesIdleConsumer() throws InterruptedException {
+        delegate.release.countDown();
+        sink = new AsyncSink(delegate, 4, AsyncSink.Overflow.BLOCK);
+        // long enough for the consumer to back off to its longest park
+        Thread.sleep(200);
+        long start = System.nanoTime();
+        write(Level.INFO, 1);
+        assertTrue(sink.flush(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals("[1]", delegate.messages.toString());
+    }
+
+    @Test
+    public void testParseOverflow() {
+        assertEquals(AsyncSink.Overflow.DROP_OLDEST, AsyncSink.Overflow.parse("drop-oldest"));
+        assertEquals(AsyncSink.Overflow.BLOCK, AsyncSink.Overflow.parse(" block"));
+    }
+}
@@ -0,0 +1,68 @@
+package neo.log.tr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of an enter, a debug and an exit with the NOTR and OFF backends, against the empty
+ * methods of {@code neo.log.notr.TR}. The logger is at TRACE, so only the backend keeps the
+ * calls from tracing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BackendBenchmark {
+
+    @Param({"NOTR", "OFF"})
+    public Backend backend;
+
+    private final int site = TR.site$("bench.Backend", "Backend.java", 1, "run");
+    private final Object[] args = {42};
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        TR.setBackend(backend);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        TR.setBackend(Backend.TRACE);
+    }
+
+    @Benchmark
+    public void notr() {
+        neo.log.notr.TR.enter();
+        neo.log.notr.TR.debug("x=%d", 42);
+        neo.log.notr.TR.exit();
+    }
+
+    @Benchmark
+    public void facade() {
+        TR.enter();
+        TR.debug("x=%d", 42);
+        TR.exit();
+    }
+
+    @Benchmark
+    public void facadeWoven() {
+        TR.enter$(site);
+        TR.debug$("x=%d", args, site);
+        TR.exit$(site);
+    }
+}
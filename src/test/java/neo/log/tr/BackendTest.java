@@ -0,0 +1,120 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BackendTest {
+
+    private final CapturingSink sink = new CapturingSink();
+    private final int site = TR.site$("backend.A", "A.java", 1, "run");
+
+    @After
+    public void tearDown() {
+        TR.setBackend(Backend.TRACE);
+        TR.setSink(null);
+    }
+
+    private void traceAll() {
+        TR.enter$(site);
+        TR.debug$("d", new Object[0], site);
+        TR.info$("i", new Object[0], site);
+        TR.warn$("w", new Object[0], site);
+        TR.exit$(site);
+        TR.enter();
+        TR.debug("d");
+        TR.info("i");
+        TR.exit();
+    }
+
+    @Test
+    public void testTrace() {
+        TR.setBackend(Backend.TRACE);
+        TR.setSink(sink);
+        traceAll();
+        assertEquals(9, sink.lines.size());
+    }
+
+    @Test
+    public void testNoTr() {
+        TR.setBackend(Backend.NOTR);
+        TR.setSink(sink);
+        LogCapture log = LogCapture.start(TR.class.getName(),
+                org.apache.logging.log4j.Level.INFO);
+        try {
+            traceAll();
+            TR.info("%d of %d", 1, 2);
+            TR.error("%d%%", 5);
+            TR.warn(new IllegalStateException("broken"));
+        } finally {
+            log.stop();
+        }
+        // what neo.log.notr.TR logs, and nothing through the sink
+        assertTrue(sink.lines.isEmpty());
+        long tid = Thread.currentThread().getId();
+        assertEquals(Arrays.asList("INFO i", "WARN [" + tid + "]A.java(1)run : w", "INFO i",
+                "INFO 1 of 2", "ERROR [" + tid + "]BackendTest.java(54)testNoTr : 5%",
+                "WARN broken"), log.messages());
+    }
+
+    @Test
+    public void testOff() {
+        TR.setBackend(Backend.OFF);
+        TR.setSink(sink);
+        traceAll();
+        assertTrue(sink.lines.isEmpty());
+    }
+
+    @Test
+    public void testSwitchBack() {
+        TR.setBackend(Backend.OFF);
+        TR.setSink(sink);
+        // compiled while off, then traced again
+        for (int i = 0; i < 20000; i++) {
+            TR.debug$("d", new Object[0], site);
+        }
+        TR.setBackend(Backend.TRACE);
+        TR.setSink(sink);
+        TR.debug$("d", new Object[0], site);
+        assertEquals(1, sink.lines.size());
+    }
+
+    @Test
+    public void testFlight() {
+        TR.setBackend(Backend.FLIGHT);
+        TraceSink current = TR.getSink();
+        if (current instanceof ProfilingSink) {
+            current = ((ProfilingSink) current).delegate();
+        }
+        assertTrue(current instanceof FlightRecorderSink);
+        TR.setSink(sink);
+        TR.setSink(null);
+        assertSame(Backend.FLIGHT, TR.getBackend());
+        assertSame(current, TR.getSink());
+        TR.setBackend(Backend.TRACE);
+        assertFalse(TR.getSink() instanceof FlightRecorderSink);
+    }
+
+    @Test
+    public void testParse() {
+        assertSame(Backend.NOTR, Backend.parse(" notr"));
+        assertSame(Backend.OFF, Backend.parse("Off"));
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        TR.getSink();
+        ObjectName name = new ObjectName(TRStats.OBJECT_NAME);
+        server.setAttribute(name, new Attribute("Backend", "notr"));
+        assertSame(Backend.NOTR, TR.getBackend());
+        assertEquals("NOTR", server.getAttribute(name, "Backend"));
+    }
+}
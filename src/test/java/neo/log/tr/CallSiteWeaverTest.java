@@ -0,0 +1,144 @@
+package neo.log.tr;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class CallSiteWeaverTest {
+
+    static byte[] classBytes(Class<?> type) throws IOException {
+        String resource = type.getName().replace('.', '/') + ".class";
+        try (InputStream in = type.getClassLoader().getResourceAsStream(resource)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    static Class<?> define(String name, byte[] bytes) {
+        return new ClassLoader(CallSiteWeaverTest.class.getClassLoader()) {
+            Class<?> define() {
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        }.define();
+    }
+
+    /**
+     * @return "name descriptor" of every TR call in the class
+     */
+    static List<String> trCalls(byte[] bytes) {
+        List<String> calls = new ArrayList<>();
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                             String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name,
+                                                String descriptor, boolean isInterface) {
+                        if (CallSiteWeaver.TR_OWNER.equals(owner)) {
+                            calls.add(name + " " + descriptor);
+                        }
+                    }
+                };
+            }
+        }, 0);
+        return calls;
+    }
+
+    @Test
+    public void testWovenDescriptors() {
+        assertEquals("(I)V", CallSiteWeaver.wovenDescriptor("enter", "()V"));
+        assertEquals("(Ljava/lang/Object;I)Ljava/lang/Object;",
+                CallSiteWeaver.wovenDescriptor("exit", "(Ljava/lang/Object;)Ljava/lang/Object;"));
+        assertEquals("(Ljava/lang/String;[Ljava/lang/Object;I)V",
+                CallSiteWeaver.wovenDescriptor("debug", "(Ljava/lang/String;[Ljava/lang/Object;)V"));
+        assertNull(CallSiteWeaver.wovenDescriptor("enter$", "(I)V"));
+    }
+
+    /**
+     * Skips the test when the fixtures were already woven by the "weave" profile.
+     */
+    static byte[] unwovenBytes(Class<?> type) throws IOException {
+        byte[] bytes = classBytes(type);
+        assumeTrue(trCalls(bytes).stream().noneMatch(c -> c.contains("$")));
+        return bytes;
+    }
+
+    @Test
+    public void testWeave() throws Exception {
+        byte[] original = unwovenBytes(WeaveFixture.class);
+        List<CallSite> registered = new ArrayList<>();
+        CallSiteWeaver weaver = new CallSiteWeaver((owner, isInterface, sites) -> {
+            for (CallSiteWeaver.Site site : sites) {
+                registered.add(CallSites.register(site.className, site.fileName,
+                        site.lineNumber, site.methodName));
+            }
+            return (mv, index) -> mv.visitLdcInsn(registered.get(index).id);
+        });
+        byte[] woven = weaver.weave(original);
+        assertNotNull(woven);
+
+        List<String> calls = trCalls(woven);
+        assertEquals(8, calls.size());
+        for (String call : calls) {
+            assertTrue(call, call.startsWith(call.substring(0, call.indexOf(' ') - 1) + "$"));
+        }
+
+        assertEquals(8, registered.size());
+        CallSite enter = registered.get(0);
+        assertEquals(WeaveFixture.class.getName(), enter.className);
+        assertEquals("WeaveFixture.java", enter.fileName);
+        assertEquals("run", enter.methodName);
+        assertEquals(enter.lineNumber + 1, registered.get(1).lineNumber);
+        assertEquals("fail", registered.get(4).methodName);
+        assertEquals("<clinit>", registered.get(7).methodName);
+
+        Class<?> type = define(WeaveFixture.class.getName(), woven);
+        Object fixture = type.getConstructor().newInstance();
+        assertEquals(1, type.getMethod("run").invoke(fixture));
+        type.getMethod("fail").invoke(fixture);
+    }
+
+    @Test
+    public void testWovenClassIsNotWovenAgain() throws Exception {
+        byte[] woven = new CallSiteWeaver(TRAgent::bind).weave(unwovenBytes(WeaveFixture.class));
+        assertNull(new CallSiteWeaver(TRAgent::bind).weave(woven));
+    }
+
+    @Test
+    public void testClassWithoutTR() throws Exception {
+        CallSiteWeaver weaver = new CallSiteWeaver((owner, isInterface, sites) -> {
+            fail();
+            return null;
+        });
+        assertNull(weaver.weave(classBytes(CallSitesTest.class)));
+    }
+
+    @Test
+    public void testAgentFilter() {
+        TRAgent all = new TRAgent(null);
+        assertTrue(all.accepts("com/ourshop/Matching"));
+        assertFalse(all.accepts("java/lang/String"));
+        assertFalse(all.accepts("neo/log/tr/TR"));
+        TRAgent some = new TRAgent("com.ourshop, org.other");
+        assertTrue(some.accepts("com/ourshop/Matching"));
+        assertTrue(some.accepts("org/other/A"));
+        assertFalse(some.accepts("org/another/A"));
+    }
+}
@@ -0,0 +1,94 @@
+package neo.log.tr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CallSitesTest {
+
+    private static CallSite here() {
+        return CallerLocator.INSTANCE.callSite();
+    }
+
+    @Test
+    public void testSameSiteIsCached() {
+        CallSite first = null;
+        for (int i = 0; i < 3; i++) {
+            CallSite site = CallerLocator.INSTANCE.callSite();
+            if (first == null) {
+                first = site;
+            }
+            assertSame(first, site);
+        }
+        assertSame(first, CallSites.get(first.id));
+    }
+
+    @Test
+    public void testDifferentSites() {
+        CallSite a = CallerLocator.INSTANCE.callSite();
+        CallSite b = CallerLocator.INSTANCE.callSite();
+        assertNotSame(a, b);
+        assertEquals(a.lineNumber + 1, b.lineNumber);
+        assertNotEquals(a.id, b.id);
+    }
+
+    @Test
+    public void testSiteTable() {
+        CallSites.SiteTable table = new CallSites.SiteTable();
+        assertNull(table.get("m", "()V", 10));
+        CallSite s10 = table.put("m", "()V", 10, "A", "A.java", 3);
+        CallSite s5 = table.put("m", "()V", 5, "A", "A.java", 2);
+        CallSite s20 = table.put("m", "()V", 20, "A", "A.java", 4);
+        assertSame(s10, table.put("m", "()V", 10, "A", "A.java", 3));
+        assertSame(s5, table.get("m", "()V", 5));
+        assertSame(s10, table.get("m", "()V", 10));
+        assertSame(s20, table.get("m", "()V", 20));
+        assertNull(table.get("m", "()V", 15));
+        assertEquals("A.java(2)m", s5.prefix);
+    }
+
+    @Test
+    public void testSameByteCodeIndexInOtherMethods() {
+        CallSites.SiteTable table = new CallSites.SiteTable();
+        CallSite m = table.put("m", "()V", 0, "A", "A.java", 3);
+        CallSite n = table.put("n", "()V", 0, "A", "A.java", 7);
+        CallSite overload = table.put("n", "(I)V", 0, "A", "A.java", 11);
+        assertNotSame(m, n);
+        assertNotSame(n, overload);
+        assertSame(m, table.get("m", "()V", 0));
+        assertSame(n, table.get("n", "()V", 0));
+        assertSame(overload, table.get("n", "(I)V", 0));
+    }
+
+    private static CallSite first() {
+        return CallerLocator.INSTANCE.callSite();
+    }
+
+    private static CallSite second() {
+        return CallerLocator.INSTANCE.callSite();
+    }
+
+    @Test
+    public void testSameByteCodeIndexInOtherMethodsOnStack() {
+        CallSite first = first();
+        CallSite second = second();
+        assertEquals("first", first.methodName);
+        assertEquals("second", second.methodName);
+        assertEquals(first.lineNumber + 4, second.lineNumber);
+    }
+
+    @Test
+    public void testForElement() {
+        StackTraceElement ste = new StackTraceElement("A", "m", "A.java", 7);
+        CallSite site = CallSites.forElement(ste);
+        assertSame(site, CallSites.forElement(new StackTraceElement("A", "m", "A.java", 7)));
+        assertEquals("A.java(7)m", site.prefix);
+    }
+
+    @Test
+    public void testGetOutOfRange() {
+        assertNull(CallSites.get(-1));
+        assertNull(CallSites.get(Integer.MAX_VALUE));
+        assertNotNull(here());
+    }
+}
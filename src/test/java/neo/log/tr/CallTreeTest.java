@@ -0,0 +1,57 @@
+package neo.log.tr;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CallTreeTest {
+
+    private final CallSite main = CallSites.register("app.Main", "Main.java", 10, "main");
+    private final CallSite parse = CallSites.register("app.Parser", "Parser.java", 20, "parse");
+    private final CallSite read = CallSites.register("app.Reader", "Reader.java", 30, "read");
+
+    @Test
+    public void testInclusiveAndExclusiveTime() {
+        CallTree tree = new CallTree(null);
+        CallTree.Node mainNode = tree.root.child(main);
+        CallTree.Node parseNode = mainNode.child(parse);
+        parseNode.exit(mainNode, 300);
+        assertSame(parseNode, mainNode.child(parse));
+        parseNode.exit(mainNode, 200);
+        mainNode.exit(tree.root, 1000);
+
+        assertEquals(2, parseNode.count);
+        assertEquals(500, parseNode.inclusive);
+        assertEquals(500, parseNode.exclusive());
+        assertEquals(1, mainNode.count);
+        assertEquals(1000, mainNode.inclusive);
+        assertEquals(500, mainNode.exclusive());
+    }
+
+    @Test
+    public void testCollapsedStacksMergeThreads() throws IOException {
+        CallTree first = new CallTree(null);
+        CallTree.Node mainNode = first.root.child(main);
+        CallTree.Node parseNode = mainNode.child(parse);
+        parseNode.child(read).exit(parseNode, 40);
+        parseNode.exit(mainNode, 100);
+        mainNode.exit(first.root, 150);
+
+        CallTree second = new CallTree(null);
+        CallTree.Node other = second.root.child(main);
+        other.child(parse).exit(other, 10);
+        other.exit(second.root, 10);
+        second.root.child(read).exit(second.root, 5);
+
+        StringBuilder out = new StringBuilder();
+        CallTree.writeCollapsed(Arrays.asList(first, second), out);
+        assertEquals(""
+                + "app.Main.main 50\n"
+                + "app.Main.main;app.Parser.parse 70\n"
+                + "app.Main.main;app.Parser.parse;app.Reader.read 40\n"
+                + "app.Reader.read 5\n", out.toString());
+    }
+}
@@ -0,0 +1,68 @@
+package neo.log.tr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-event cost of locating the caller against stack depth.
+ * <p>
+ * {@code legacy} is what TR did before: materialize the whole stack and read one element.
+ * {@code callSite} is what TR does now: walk to the caller and reuse its cached location.
+ * Run with {@code mvn -P benchmark test-compile exec:exec -Dbenchmark=CallerLocatorBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallerLocatorBenchmark {
+
+    @Param({"10", "60", "120"})
+    public int depth;
+
+    @Benchmark
+    public void legacy(Blackhole bh) {
+        recurse(depth, bh, true);
+    }
+
+    @Benchmark
+    public void locator(Blackhole bh) {
+        recurse(depth, bh, false);
+    }
+
+    @Benchmark
+    public void callSite(Blackhole bh) {
+        recurse(depth, bh, null);
+    }
+
+    private static void recurse(int depth, Blackhole bh, Boolean legacy) {
+        if (depth > 0) {
+            recurse(depth - 1, bh, legacy);
+        } else if (legacy == null) {
+            bh.consume(CallerLocator.INSTANCE.callSite().prefix);
+        } else if (legacy) {
+            StackTraceElement ste = Thread.currentThread().getStackTrace()[1];
+            bh.consume(ste.getFileName());
+            bh.consume(ste.getLineNumber());
+            bh.consume(ste.getMethodName());
+        } else {
+            CallerLocator locator = CallerLocator.INSTANCE;
+            Object frame = locator.caller();
+            bh.consume(locator.fileName(frame));
+            bh.consume(locator.lineNumber(frame));
+            bh.consume(locator.methodName(frame));
+        }
+    }
+}
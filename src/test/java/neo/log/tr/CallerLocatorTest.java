@@ -0,0 +1,54 @@
+package neo.log.tr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CallerLocatorTest {
+
+    @Test
+    public void testIsInternal() {
+        assertTrue(CallerLocator.isInternal("neo.log.tr.TR"));
+        assertTrue(CallerLocator.isInternal("neo.log.tr.CallerLocator$StackWalkerLocator"));
+        assertFalse(CallerLocator.isInternal("neo.log.tr.TRX"));
+        assertFalse(CallerLocator.isInternal("neo.log.tr.CallerLocatorTest"));
+        assertFalse(CallerLocator.isInternal("neo.log.notr.TR"));
+    }
+
+    @Test
+    public void testStackWalkerSelected() {
+        try {
+            Class.forName("java.lang.StackWalker");
+        } catch (ClassNotFoundException e) {
+            return;
+        }
+        assertTrue(CallerLocator.INSTANCE instanceof CallerLocator.StackWalkerLocator);
+    }
+
+    @Test
+    public void testCaller() {
+        CallerLocator locator = CallerLocator.INSTANCE;
+        Object frame = locator.caller();
+        assertEquals(CallerLocatorTest.class.getName(), locator.className(frame));
+        assertEquals("CallerLocatorTest.java", locator.fileName(frame));
+        assertEquals("testCaller", locator.methodName(frame));
+        assertTrue(locator.lineNumber(frame) > 0);
+    }
+
+    @Test
+    public void testFallbackLocator() {
+        CallerLocator locator = new CallerLocator.ThrowableLocator();
+        Object frame = locator.caller();
+        assertEquals(CallerLocatorTest.class.getName(), locator.className(frame));
+        assertEquals("testFallbackLocator", locator.methodName(frame));
+    }
+
+    @Test
+    public void testCallSite() {
+        CallSite site = CallerLocator.INSTANCE.callSite();
+        assertEquals(CallerLocatorTest.class.getName(), site.className);
+        assertEquals("CallerLocatorTest.java", site.fileName);
+        assertEquals("testCallSite", site.methodName);
+        assertEquals("CallerLocatorTest.java(" + site.lineNumber + ")testCallSite", site.prefix);
+    }
+}
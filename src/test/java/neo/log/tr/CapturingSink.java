@@ -0,0 +1,62 @@
+package neo.log.tr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps every event as a line of text for assertions: a prefix chosen by the test, then
+ * the formatted message. Events may come from several threads.
+ */
+final class CapturingSink implements TraceSink {
+
+    /**
+     * Renders what a test wants to see in front of the message.
+     */
+    interface Prefix {
+        void append(StringBuilder sb, Level level, int type, CallSite site, int depth,
+                    long threadId);
+    }
+
+    /**
+     * {@code "DEBUG message"}
+     */
+    static final Prefix LEVEL = (sb, level, type, site, depth, threadId) ->
+            sb.append(level).append(' ');
+
+    /**
+     * {@code "1 message"}
+     */
+    static final Prefix DEPTH = (sb, level, type, site, depth, threadId) ->
+            sb.append(depth).append(' ');
+
+    final List<String> lines = new ArrayList<>();
+    volatile boolean enabled = true;
+    private final Prefix prefix;
+
+    CapturingSink() {
+        this(LEVEL);
+    }
+
+    CapturingSink(Prefix prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return enabled;
+    }
+
+    @Override
+    public synchronized void write(Level level, int type, CallSite site, int depth,
+                                   long threadId, String format, Object[] args) {
+        StringBuilder sb = new StringBuilder();
+        prefix.append(sb, level, type, site, depth, threadId);
+        MessageFormatter.formatTo(sb, format,
+                type == LEAF ? CollapsingSink.leafArgs(args) : args);
+        lines.add(sb.toString());
+    }
+
+    synchronized List<String> lines() {
+        return new ArrayList<>(lines);
+    }
+}
@@ -0,0 +1,143 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChromeTraceSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final class ErrorSink implements TraceSink {
+
+        int writes;
+
+        @Override
+        public boolean isEnabled(Level level) {
+            return level == Level.ERROR;
+        }
+
+        @Override
+        public void write(Level level, int type, CallSite site, int depth, long threadId,
+                          String format, Object[] args) {
+            writes++;
+        }
+    }
+
+    private final ErrorSink delegate = new ErrorSink();
+
+    @After
+    public void tearDown() {
+        TR.setSink(null);
+    }
+
+    private static void inner() {
+        TR.enter();
+        TR.debug("not exported");
+        TR.exit();
+    }
+
+    private static void outer() {
+        TR.enter();
+        inner();
+        TR.exit();
+    }
+
+    @Test
+    public void testWritesCompleteEvents() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("trace.json");
+        ChromeTraceSink sink = new ChromeTraceSink(LoggerFactory.getLogger(TR.class), delegate,
+                file, 1 << 20, 10);
+        TR.setSink(sink);
+        outer();
+        TR.error("passed on");
+        sink.close();
+        assertEquals(1, delegate.writes);
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(4, lines.size());
+        assertEquals("[", lines.get(0));
+        long tid = Thread.currentThread().getId();
+        String thread = "\\{\"ph\":\"M\",\"pid\":\\d+,\"tid\":" + tid;
+        assertTrue(lines.get(1), lines.get(1).matches(thread
+                + ",\"name\":\"thread_name\",\"args\":\\{\"name\":\"main\"}},"));
+        String event = "\\{\"ph\":\"X\",\"pid\":\\d+,\"tid\":" + tid
+                + ",\"ts\":\\d+\\.\\d{3},\"dur\":\\d+\\.\\d{3}";
+        String named = ",\"name\":\"ChromeTraceSinkTest.%s\",\"cat\":\"ChromeTraceSinkTest.java\"},";
+        // a call is written when it exits, so the inner one comes first
+        assertTrue(lines.get(2), lines.get(2).matches(event + String.format(named, "inner")));
+        assertTrue(lines.get(3), lines.get(3).matches(event + String.format(named, "outer")));
+    }
+
+    @Test
+    public void testCloseBeginsOpenCalls() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("trace.json");
+        ChromeTraceSink sink = new ChromeTraceSink(LoggerFactory.getLogger(TR.class), delegate,
+                file, 1 << 20, 10);
+        TR.setSink(sink);
+        TR.enter();
+        inner();
+        sink.close();
+        TR.exit();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(2), lines.get(2).contains("\"ph\":\"X\""));
+        assertTrue(lines.get(3), lines.get(3).startsWith("{\"ph\":\"B\""));
+        assertTrue(lines.get(3), lines.get(3).contains("testCloseBeginsOpenCalls"));
+    }
+
+    @Test
+    public void testRotatesBySize() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("trace.json");
+        ChromeTraceSink sink = new ChromeTraceSink(LoggerFactory.getLogger(TR.class), delegate,
+                file, 500, 3);
+        TR.setSink(sink);
+        for (int i = 0; i < 200; i++) {
+            outer();
+            if (i % 10 == 9) {
+                sink.flush();
+            }
+        }
+        sink.close();
+        assertEquals(folder.getRoot().toPath().resolve("trace.1.json"), sink.part(1));
+        int last = sink.currentPart();
+        assertTrue(last > 3);
+        // only the last three files are kept
+        assertFalse(Files.exists(file));
+        assertFalse(Files.exists(sink.part(last - 3)));
+        for (int part = last - 2; part <= last; part++) {
+            List<String> lines = Files.readAllLines(sink.part(part), StandardCharsets.UTF_8);
+            assertEquals("[", lines.get(0));
+            // every file starts with the names of the threads
+            assertTrue(lines.get(1), lines.get(1).contains("\"thread_name\""));
+            for (String line : lines.subList(2, lines.size())) {
+                assertTrue(line, line.startsWith("{\"ph\":\"X\""));
+            }
+        }
+    }
+
+    @Test
+    public void testCountsUtf8Bytes() {
+        assertEquals(3, ChromeTraceSink.utf8Length("abc"));
+        assertEquals(2, ChromeTraceSink.utf8Length("\u00e9"));
+        assertEquals(3, ChromeTraceSink.utf8Length("\u20ac"));
+        assertEquals(4, ChromeTraceSink.utf8Length("\ud83d\ude00"));
+    }
+
+    @Test
+    public void testEscapes() {
+        StringBuilder sb = new StringBuilder();
+        ChromeTraceSink.appendEscaped(sb, "a\"b\\c\td", 0);
+        assertEquals("a\\\"b\\\\c\\u0009d", sb.toString());
+    }
+}
@@ -0,0 +1,105 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CollapsingSinkTest {
+
+    private final CapturingSink output = new CapturingSink(
+            (sb, level, type, site, depth, threadId) -> {
+                sb.append(type).append(' ');
+                IndentContext.appendIndent(sb, depth);
+                sb.append(site.methodName).append(" : ");
+            });
+    private final int outer = TR.site$("collapse.A", "A.java", 1, "outer");
+    private final int leaf = TR.site$("collapse.B", "B.java", 2, "leaf");
+    private final int busy = TR.site$("collapse.C", "C.java", 3, "busy");
+
+    @After
+    public void tearDown() {
+        TR.setSink(null);
+        TR.spans = false;
+    }
+
+    @Test
+    public void testLeavesCollapse() {
+        TR.setSink(new CollapsingSink(output));
+        TR.enter$(outer);
+        TR.enter$(leaf);
+        TR.exit$(leaf);
+        TR.enter$(busy);
+        TR.debug$("working", new Object[0], busy);
+        TR.exit$(busy);
+        TR.enter$(leaf);
+        TR.exit$(leaf);
+        TR.exit$(outer);
+
+        List<String> lines = output.lines;
+        assertEquals(7, lines.size());
+        assertEquals("1  outer : >", lines.get(0));
+        assertTrue(lines.get(1), lines.get(1).matches("4 {4}leaf : >< \\[[0-9.]+(ns|us|ms|s)]"));
+        assertEquals("1    busy : >", lines.get(2));
+        assertEquals("3      busy : working", lines.get(3));
+        assertEquals("2    busy : <", lines.get(4));
+        assertTrue(lines.get(5), lines.get(5).startsWith("4    leaf : >< ["));
+        assertEquals("2  outer : <", lines.get(6));
+    }
+
+    @Test
+    public void testSpanIdsAreKept() {
+        TR.spans = true;
+        TR.setSink(new CollapsingSink(output));
+        TR.enter$(leaf);
+        TR.exit$(leaf);
+        assertEquals(1, output.lines.size());
+        assertTrue(output.lines.get(0),
+                output.lines.get(0).matches("4  leaf : >< \\[.+] span [0-9a-f]+ parent 0"));
+    }
+
+    @Test
+    public void testHeldEnterIsFlushed() {
+        CollapsingSink sink = new CollapsingSink(output);
+        CallSite site = CallSites.get(leaf);
+        sink.write(Level.TRACE, TraceSink.ENTER, site, 0, 1, ">", new Object[0]);
+        sink.flushHeld(TimeUnit.HOURS.toNanos(1));
+        assertTrue(output.lines.isEmpty());
+        // as the daemon or the shutdown hook does for a thread that never logs again
+        sink.flushHeld(0);
+        sink.write(Level.TRACE, TraceSink.EXIT, site, 0, 1, "<", new Object[0]);
+        assertEquals("[1  leaf : >, 2  leaf : <]", output.lines.toString());
+    }
+
+    @Test
+    public void testLateEnterShowsItsHoldTime() throws Exception {
+        CollapsingSink sink = new CollapsingSink(output);
+        CallSite site = CallSites.get(leaf);
+        sink.write(Level.TRACE, TraceSink.ENTER, site, 0, 1, ">", new Object[0]);
+        Thread.sleep(5);
+        sink.flushHeld(0);
+        sink.write(Level.TRACE, TraceSink.EXIT, site, 0, 1, "<", new Object[0]);
+        assertEquals(2, output.lines.size());
+        assertTrue(output.lines.get(0),
+                output.lines.get(0).matches("1  leaf : > \\[held [0-9.]+ms]"));
+        assertEquals("2  leaf : <", output.lines.get(1));
+    }
+
+    @Test
+    public void testOtherThreadsDoNotFlush() throws Exception {
+        CollapsingSink sink = new CollapsingSink(output);
+        CallSite site = CallSites.get(leaf);
+        sink.write(Level.TRACE, TraceSink.ENTER, site, 0, 1, ">", new Object[0]);
+        Thread other = new Thread(() -> sink.write(Level.DEBUG, TraceSink.MESSAGE, site, 0, 2,
+                "elsewhere", new Object[0]));
+        other.start();
+        other.join();
+        sink.write(Level.TRACE, TraceSink.EXIT, site, 0, 1, "<", new Object[0]);
+        assertEquals(2, output.lines.size());
+        assertEquals("3  leaf : elsewhere", output.lines.get(0));
+        assertTrue(output.lines.get(1).startsWith("4  leaf : >< ["));
+    }
+}
@@ -0,0 +1,143 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FlightRecorderSinkTest {
+
+    /**
+     * Accepts INFO and above, like a production logger configuration.
+     */
+    private static final class InfoSink implements TraceSink {
+
+        final List<String> lines = new ArrayList<>();
+
+        @Override
+        public boolean isEnabled(Level level) {
+            return level.compareTo(Level.INFO) >= 0;
+        }
+
+        @Override
+        public void write(Level level, int type, CallSite site, int depth, long threadId,
+                          String format, Object[] args) {
+            StringBuilder sb = new StringBuilder().append(level).append(' ');
+            MessageFormatter.formatTo(sb, format, args);
+            lines.add(sb.toString());
+        }
+    }
+
+    private final InfoSink delegate = new InfoSink();
+
+    private final FlightRecorderSink sink =
+            new FlightRecorderSink(LoggerFactory.getLogger(TR.class), delegate, 4);
+
+    @After
+    public void tearDown() {
+        TR.setSink(null);
+    }
+
+    private static String[] lines(String dump) {
+        return dump.split(System.lineSeparator());
+    }
+
+    @Test
+    public void testRecordsBelowLoggerLevel() {
+        TR.setSink(sink);
+        TR.enter();
+        TR.debug("n=%d", 42);
+        TR.info("visible");
+        String dump = sink.drainCurrentThread("test");
+        TR.exit();
+
+        assertEquals(1, delegate.lines.size());
+        assertEquals("INFO visible", delegate.lines.get(0));
+
+        String[] lines = lines(dump);
+        assertEquals(4, lines.length);
+        long tid = Thread.currentThread().getId();
+        assertTrue(lines[0], lines[0].startsWith("TR flight recorder (test): last 3 of 3 events of thread [" + tid + "]"));
+        assertTrue(lines[1], lines[1].matches("  -\\d+\\.\\d{3}ms TRACE \\[" + tid + "] FlightRecorderSinkTest\\.java\\(\\d+\\)testRecordsBelowLoggerLevel : >"));
+        assertTrue(lines[2], lines[2].endsWith(")testRecordsBelowLoggerLevel : n=42"));
+        assertTrue(lines[2], lines[2].contains("DEBUG [" + tid + "]   "));
+        assertTrue(lines[3], lines[3].endsWith(" : visible"));
+    }
+
+    @Test
+    public void testUncaughtExceptionsDumpOnlyWhenAsked() throws Exception {
+        Thread.UncaughtExceptionHandler global = Thread.getDefaultUncaughtExceptionHandler();
+        String name = FlightRecorderSinkTest.class.getName();
+        FlightRecorderSink sink = new FlightRecorderSink(LoggerFactory.getLogger(name),
+                delegate, 4);
+        TR.setSink(sink);
+        Thread quiet = new Thread(() -> TR.debug("quiet"));
+        quiet.start();
+        quiet.join();
+        assertNull(quiet.getUncaughtExceptionHandler());
+
+        sink.dumpOnUncaught = true;
+        Thread failing = new Thread(() -> {
+            TR.debug("before");
+            throw new IllegalStateException("expected by the test");
+        });
+        LogCapture log = LogCapture.start(name, org.apache.logging.log4j.Level.ERROR);
+        try {
+            failing.start();
+            failing.join();
+        } finally {
+            log.stop();
+        }
+        assertEquals(1, log.messages().size());
+        assertTrue(log.messages().get(0), log.messages().get(0).startsWith(
+                "ERROR TR flight recorder (uncaught java.lang.IllegalStateException: expected"));
+        assertTrue(log.messages().get(0), log.messages().get(0).endsWith(" : before"));
+        assertSame(global, Thread.getDefaultUncaughtExceptionHandler());
+    }
+
+    @Test
+    public void testKeepsLastEvents() {
+        TR.setSink(sink);
+        for (int i = 0; i < 10; i++) {
+            TR.debug("event %d", i);
+        }
+        String[] lines = lines(sink.drainCurrentThread("test"));
+        assertEquals(5, lines.length);
+        assertTrue(lines[0], lines[0].contains("last 4 of 10 events"));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(lines[i + 1], lines[i + 1].endsWith(" : event " + (i + 6)));
+        }
+    }
+
+    @Test
+    public void testDrainOnlyShowsNewEvents() {
+        TR.setSink(sink);
+        TR.debug("first");
+        assertNotNull(sink.drainCurrentThread("test"));
+        assertNull(sink.drainCurrentThread("test"));
+        TR.debug("second");
+        String[] lines = lines(sink.drainCurrentThread("test"));
+        assertEquals(2, lines.length);
+        assertTrue(lines[1], lines[1].endsWith(" : second"));
+    }
+
+    @Test
+    public void testErrorDrainsRing() {
+        TR.setSink(sink);
+        TR.debug("before");
+        TR.error("failed %s", "here");
+        assertEquals("ERROR failed here", delegate.lines.get(0));
+        assertNull(sink.drainCurrentThread("test"));
+    }
+
+    @Test
+    public void testCapacityIsPowerOfTwo() {
+        assertEquals(4, sink.capacity());
+        assertEquals(8, new FlightRecorderSink(LoggerFactory.getLogger(TR.class), delegate, 5).capacity());
+        assertEquals(1, new FlightRecorderSink(LoggerFactory.getLogger(TR.class), delegate, 1).capacity());
+    }
+}
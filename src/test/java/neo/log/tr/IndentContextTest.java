@@ -0,0 +1,45 @@
+package neo.log.tr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IndentContextTest {
+
+    @Test
+    public void testIndent() {
+        IndentContext iu = new IndentContext();
+        assertEquals(" ", iu.GetIndent());
+        iu.enter(CallSites.UNKNOWN, 0);
+        iu.enter(CallSites.UNKNOWN, 0);
+        assertEquals(2, iu.depth());
+        assertEquals("     ", iu.GetIndent());
+        assertTrue(iu.decreaseIndent());
+        assertEquals("   ", iu.GetIndent());
+        assertTrue(iu.decreaseIndent());
+        assertFalse(iu.decreaseIndent());
+        assertEquals(0, iu.depth());
+    }
+
+    @Test
+    public void testIndentIsShared() {
+        IndentContext a = new IndentContext();
+        IndentContext b = new IndentContext();
+        a.enter(CallSites.UNKNOWN, 0);
+        b.enter(CallSites.UNKNOWN, 0);
+        assertSame(a.GetIndent(), b.GetIndent());
+    }
+
+    @Test
+    public void testDeepIndent() {
+        IndentContext iu = new IndentContext();
+        for (int i = 0; i < IndentContext.MAX_DEPTH + 3; i++) {
+            iu.enter(CallSites.UNKNOWN, 0);
+        }
+        String marker = " [depth " + (IndentContext.MAX_DEPTH + 3) + "] ";
+        assertEquals(marker, iu.GetIndent());
+        StringBuilder sb = new StringBuilder();
+        iu.appendIndent(sb);
+        assertEquals(marker, sb.toString());
+    }
+}
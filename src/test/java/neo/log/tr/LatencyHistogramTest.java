@@ -0,0 +1,51 @@
+package neo.log.tr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverEveryValue() {
+        assertEquals(0, LatencyHistogram.index(0));
+        assertEquals(63, LatencyHistogram.index(63));
+        assertEquals(63, LatencyHistogram.highestValue(63));
+        int previous = -1;
+        for (long value = 0; value < 1 << 20; value++) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(index == previous || index == previous + 1);
+            assertTrue(value <= LatencyHistogram.highestValue(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.highestValue(index - 1));
+            }
+            previous = index;
+        }
+        int last = LatencyHistogram.index(LatencyHistogram.MAX_VALUE);
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValue(last));
+        assertEquals(last, LatencyHistogram.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPrecision() {
+        for (long value = 64; value < LatencyHistogram.MAX_VALUE; value = value * 3 / 2) {
+            long highest = LatencyHistogram.highestValue(LatencyHistogram.index(value));
+            assertTrue(value + " -> " + highest, highest - value <= value / 32);
+        }
+    }
+
+    @Test
+    public void testStatistics() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.valueAt(0.5));
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(500_500_000L, histogram.total());
+        assertEquals(1_000_000L, histogram.max());
+        assertEquals(500_000, histogram.valueAt(0.5), 500_000 / 32.0);
+        assertEquals(990_000, histogram.valueAt(0.99), 990_000 / 32.0);
+        assertEquals(1_000_000L, histogram.valueAt(1.0));
+    }
+}
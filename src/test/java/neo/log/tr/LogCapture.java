@@ -0,0 +1,64 @@
+package neo.log.tr;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.config.Property;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the formatted messages of one log4j logger instead of printing them, for
+ * assertions on what reaches the logging backend.
+ */
+final class LogCapture {
+
+    private final String loggerName;
+    private final LoggerContext context = (LoggerContext) LogManager.getContext(false);
+    private final List<String> messages = new ArrayList<>();
+
+    private LogCapture(String loggerName) {
+        this.loggerName = loggerName;
+    }
+
+    static LogCapture start(String loggerName, org.apache.logging.log4j.Level level) {
+        LogCapture capture = new LogCapture(loggerName);
+        Configuration config = capture.context.getConfiguration();
+        Appender appender = new AbstractAppender("Capture-" + loggerName, null, null, true,
+                new Property[0]) {
+            @Override
+            public void append(LogEvent event) {
+                synchronized (capture.messages) {
+                    capture.messages.add(event.getLevel() + " "
+                            + event.getMessage().getFormattedMessage());
+                }
+            }
+        };
+        appender.start();
+        config.addAppender(appender);
+        LoggerConfig loggerConfig = new LoggerConfig(loggerName, level, false);
+        loggerConfig.addAppender(appender, null, null);
+        config.addLogger(loggerName, loggerConfig);
+        capture.context.updateLoggers();
+        return capture;
+    }
+
+    /**
+     * @return the messages so far, each as {@code "LEVEL message"}
+     */
+    List<String> messages() {
+        synchronized (messages) {
+            return new ArrayList<>(messages);
+        }
+    }
+
+    void stop() {
+        context.getConfiguration().removeLogger(loggerName);
+        context.updateLoggers();
+    }
+}
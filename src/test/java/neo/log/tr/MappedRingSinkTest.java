@@ -0,0 +1,121 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class MappedRingSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedRingSink sink;
+
+    @After
+    public void tearDown() throws IOException {
+        TR.setSink(null);
+        if (sink != null) {
+            sink.close();
+        }
+    }
+
+    private String decode(Path file) throws IOException {
+        StringWriter out = new StringWriter();
+        new TraceRingDecoder(file).decode(out, false);
+        return out.toString();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("trace.ring");
+        sink = new MappedRingSink(LoggerFactory.getLogger(TR.class), file, 64);
+        TR.setSink(sink);
+        long tid = Thread.currentThread().getId();
+
+        TR.enter();
+        int line = new Throwable().getStackTrace()[0].getLineNumber();
+        TR.debug("n=%d hex=%x ok=%s c=%s pi=%s", 42, -1, true, 'c', 3.5);
+        TR.debug("string args are not recorded: %s", "secret");
+        TR.debug("c=%s pi=%s", 'c', 3.5);
+        TR.info("tab\tand newline\n");
+        TR.exit();
+        TR.setSink(null);
+
+        String prefix = "MappedRingSinkTest.java(";
+        String expected = ""
+                + "TRACE [" + tid + "] " + prefix + (line - 1) + ")testRoundTrip : >\n"
+                + "DEBUG [" + tid + "]   " + prefix + (line + 1)
+                + ")testRoundTrip : n=42 hex=ffffffff ok=true c=? pi=?\n"
+                + "DEBUG [" + tid + "]   " + prefix + (line + 2)
+                + ")testRoundTrip : string args are not recorded: ?\n"
+                + "DEBUG [" + tid + "]   " + prefix + (line + 3)
+                + ")testRoundTrip : c=c pi=3.5\n"
+                + "INFO  [" + tid + "]   " + prefix + (line + 4)
+                + ")testRoundTrip : tab\tand newline\n\n"
+                + "TRACE [" + tid + "] " + prefix + (line + 5) + ")testRoundTrip : <\n";
+        assertEquals(expected, decode(file));
+    }
+
+    @Test
+    public void testCollapsedLeafKeepsDuration() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("leaf.ring");
+        sink = new MappedRingSink(LoggerFactory.getLogger(TR.class), file, 8);
+        CallSite site = CallSites.register("A", "A.java", 1, "m");
+        CollapsingSink collapsing = new CollapsingSink(sink);
+        collapsing.write(Level.TRACE, TraceSink.ENTER, site, 0, 7, ">", new Object[0]);
+        collapsing.write(Level.TRACE, TraceSink.EXIT, site, 0, 7, "<", new Object[0]);
+        String decoded = decode(file);
+        assertTrue(decoded, decoded.matches(
+                "TRACE \\[7] A\\.java\\(1\\)m : >< \\[[0-9.]+(ns|us|ms|s)]\n"));
+    }
+
+    @Test
+    public void testSpanIds() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("spans.ring");
+        sink = new MappedRingSink(LoggerFactory.getLogger(TR.class), file, 8);
+        CallSite site = CallSites.register("A", "A.java", 1, "m");
+        sink.write(Level.TRACE, TraceSink.ENTER, site, 0, 7, "> span %x parent %x",
+                new Object[]{0x1f0000002aL, 0L});
+        sink.write(Level.TRACE, TraceSink.EXIT, site, 0, 7, "< span %x",
+                new Object[]{0x1f0000002aL});
+        assertEquals("TRACE [7] A.java(1)m : > span 1f0000002a parent 0\n"
+                + "TRACE [7] A.java(1)m : < span 1f0000002a\n", decode(file));
+    }
+
+    @Test
+    public void testWrapAround() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("wrap.ring");
+        sink = new MappedRingSink(LoggerFactory.getLogger(TR.class), file, 8);
+        CallSite site = CallSites.register("A", "A.java", 1, "m");
+        for (int i = 0; i < 20; i++) {
+            sink.write(Level.DEBUG, TraceSink.MESSAGE, site, 0, 7, "i=%d", new Object[]{i});
+        }
+        String[] lines = decode(file).split("\n");
+        assertEquals(8, lines.length);
+        for (int i = 0; i < 8; i++) {
+            assertEquals("DEBUG [7] A.java(1)m : i=" + (12 + i), lines[i]);
+        }
+    }
+
+    @Test
+    public void testEmptyRing() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("empty.ring");
+        sink = new MappedRingSink(LoggerFactory.getLogger(TR.class), file, 4);
+        assertEquals("", decode(file));
+    }
+
+    @Test
+    public void testEscape() {
+        String s = "a\\b\tc\nd\re";
+        assertFalse(MappedRingSink.escape(s).contains("\t"));
+        assertEquals(s, MappedRingSink.unescape(MappedRingSink.escape(s)));
+    }
+}
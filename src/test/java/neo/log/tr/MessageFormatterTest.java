@@ -0,0 +1,78 @@
+package neo.log.tr;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.IllegalFormatException;
+
+import static org.junit.Assert.*;
+
+public class MessageFormatterTest {
+
+    private static String format(String format, Object... args) {
+        StringBuilder sb = new StringBuilder("prefix:");
+        MessageFormatter.formatTo(sb, format, args);
+        assertTrue(sb.toString().startsWith("prefix:"));
+        return sb.substring("prefix:".length());
+    }
+
+    private static void assertSameAsStringFormat(String format, Object... args) {
+        assertEquals(String.format(format, args), format(format, args));
+    }
+
+    @Test
+    public void testSupportedConversions() {
+        assertSameAsStringFormat("");
+        assertSameAsStringFormat("no conversion");
+        assertSameAsStringFormat("Here I am.");
+        assertSameAsStringFormat("A number is %d", 1);
+        assertSameAsStringFormat("%d %d %d %d", Integer.MIN_VALUE, Long.MAX_VALUE,
+                (short) -3, (byte) 7);
+        assertSameAsStringFormat("%d", new BigInteger("123456789012345678901234567890"));
+        assertSameAsStringFormat("%x %x %x %x", -1, -1L, (short) -1, (byte) -1);
+        assertSameAsStringFormat("%x %x %x", 0, 255, Long.MIN_VALUE);
+        assertSameAsStringFormat("%s|%s|%s|%s|%s", "str", 12, true, 'c', 1.5);
+        assertSameAsStringFormat("%s %d %x", null, null, null);
+        assertSameAsStringFormat("100%% done%n");
+        assertSameAsStringFormat("extra args are ignored %s", "a", "b");
+        assertSameAsStringFormat("%s", new StringBuilder("builder"));
+    }
+
+    @Test
+    public void testFallback() {
+        assertSameAsStringFormat("%5d|%-4s|%.2f|%c|%X|%08x|%S|%b", 42, "ab", 3.14159, 'z',
+                255, 255, "up", true);
+        assertSameAsStringFormat("%2$s %1$s", "a", "b");
+        assertSameAsStringFormat("%x", new BigInteger("-255"));
+    }
+
+    @Test
+    public void testFormatErrorsAreUnchanged() {
+        String[] formats = {"%d", "%s %s", "%d", "trailing %"};
+        Object[][] args = {{"not a number"}, {"only one"}, {1.5}, {}};
+        for (int i = 0; i < formats.length; i++) {
+            try {
+                format(formats[i], args[i]);
+                fail(formats[i]);
+            } catch (IllegalFormatException e) {
+                try {
+                    String.format(formats[i], args[i]);
+                    fail(formats[i]);
+                } catch (IllegalFormatException expected) {
+                    assertEquals(expected.getClass(), e.getClass());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAppendHex() {
+        StringBuilder sb = new StringBuilder();
+        MessageFormatter.appendHex(sb, 0, 32);
+        sb.append(',');
+        MessageFormatter.appendHex(sb, 0xabcdefL, 32);
+        sb.append(',');
+        MessageFormatter.appendHex(sb, -2, 16);
+        assertEquals("0,abcdef,fffe", sb.toString());
+    }
+}
@@ -0,0 +1,104 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class OverloadsTest {
+
+    private final CapturingSink sink = new CapturingSink();
+
+    @After
+    public void tearDown() {
+        TR.setSink(null);
+    }
+
+    @Test
+    public void testFixedArity() {
+        TR.setSink(sink);
+        TR.debug("%s", "a");
+        TR.debug("%s %s", "a", 2);
+        TR.debug("%s %s %s", "a", 2, 3L);
+        TR.debug("%s %s %s %s", "a", 2, 3L, null);
+        TR.debug("%d", 5);
+        TR.debug("%x", -1L);
+        TR.debug("%s", new Object[]{"array"});
+        TR.debugLazy("%s", () -> "lazy");
+        TR.debug(() -> "message");
+        TR.info("%s %s", "b", 1);
+        TR.info("%d", 7);
+        TR.info(() -> null);
+        TR.debug("%s", null);
+        TR.debug((Supplier<?>) null);
+        int site = TR.site$("A", "A.java", 1, "run");
+        TR.debug$("%s %s", "c", 4, site);
+        TR.info$("%d", 8L, site);
+        TR.debug$(() -> "woven", site);
+
+        String[] expected = {
+                "DEBUG a", "DEBUG a 2", "DEBUG a 2 3", "DEBUG a 2 3 null", "DEBUG 5",
+                "DEBUG ffffffffffffffff", "DEBUG array", "DEBUG lazy", "DEBUG message",
+                "INFO b 1", "INFO 7", "INFO null", "DEBUG null", "DEBUG null", "DEBUG c 4", "INFO 8", "DEBUG woven",
+        };
+        assertArrayEquals(expected, sink.lines.toArray());
+    }
+
+    @Test
+    public void testSupplierOnlyCalledWhenLogged() {
+        int[] calls = {0};
+        Supplier<String> expensive = () -> {
+            calls[0]++;
+            return "value";
+        };
+        sink.enabled = false;
+        TR.setSink(sink);
+        TR.debugLazy("%s", expensive);
+        TR.debug(expensive);
+        TR.info(expensive);
+        TR.infoLazy("%s", expensive);
+        assertEquals(0, calls[0]);
+
+        sink.enabled = true;
+        TR.debugLazy("%s", expensive);
+        TR.info(expensive);
+        TR.infoLazy("%s", expensive);
+        assertEquals(3, calls[0]);
+    }
+
+    @Test
+    public void testWeaverKnowsTheOverloads() {
+        assertEquals("(Ljava/lang/String;Ljava/lang/Object;Ljava/lang/Object;I)V",
+                CallSiteWeaver.wovenDescriptor("debug",
+                        "(Ljava/lang/String;Ljava/lang/Object;Ljava/lang/Object;)V"));
+        assertEquals("(Ljava/lang/String;JI)V",
+                CallSiteWeaver.wovenDescriptor("info", "(Ljava/lang/String;J)V"));
+        assertEquals("(Ljava/util/function/Supplier;I)V",
+                CallSiteWeaver.wovenDescriptor("debug", "(Ljava/util/function/Supplier;)V"));
+        assertEquals("(Ljava/lang/String;Ljava/util/function/Supplier;I)V",
+                CallSiteWeaver.wovenDescriptor("debugLazy",
+                        "(Ljava/lang/String;Ljava/util/function/Supplier;)V"));
+    }
+
+    @Test
+    public void testNoTROverloads() {
+        LogCapture log = LogCapture.start(neo.log.notr.TR.class.getName(),
+                org.apache.logging.log4j.Level.TRACE);
+        try {
+            neo.log.notr.TR.debug("%d", 1);
+            neo.log.notr.TR.debug("%s %s", "a", "b");
+            neo.log.notr.TR.debug(() -> {
+                throw new AssertionError("never called");
+            });
+            neo.log.notr.TR.info("{}", 1L);
+            neo.log.notr.TR.info(() -> "called");
+            neo.log.notr.TR.infoLazy("{} {}", () -> "lazy");
+        } finally {
+            log.stop();
+        }
+        assertEquals(Arrays.asList("INFO 1", "INFO called", "INFO lazy {}"), log.messages());
+    }
+}
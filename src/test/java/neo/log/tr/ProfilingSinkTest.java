@@ -0,0 +1,142 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class ProfilingSinkTest {
+
+    private static final class DisabledSink implements TraceSink {
+
+        int writes;
+
+        @Override
+        public boolean isEnabled(Level level) {
+            return level == Level.ERROR;
+        }
+
+        @Override
+        public void write(Level level, int type, CallSite site, int depth, long threadId,
+                          String format, Object[] args) {
+            writes++;
+        }
+    }
+
+    private final DisabledSink delegate = new DisabledSink();
+
+    @After
+    public void tearDown() {
+        TR.setSink(null);
+    }
+
+    private static void sleepy() throws InterruptedException {
+        TR.enter();
+        Thread.sleep(2);
+        TR.exit();
+    }
+
+    private static void outer() throws InterruptedException {
+        TR.enter();
+        sleepy();
+        sleepy();
+        TR.exit();
+    }
+
+    @Test
+    public void testTimesEnterExitPairs() throws InterruptedException {
+        TR.setSink(new ProfilingSink(delegate));
+        for (int i = 0; i < 3; i++) {
+            outer();
+        }
+        TR.error("passed on");
+        assertEquals(1, delegate.writes);
+
+        List<LatencyStats> stats = TR.latencyStats();
+        assertEquals(2, stats.size());
+        LatencyStats outer = stats.get(0);
+        LatencyStats sleepy = stats.get(1);
+        assertEquals("outer", outer.getMethodName());
+        assertEquals(ProfilingSinkTest.class.getName(), outer.getClassName());
+        assertEquals(3, outer.getCount());
+        assertEquals("sleepy", sleepy.getMethodName());
+        assertEquals(6, sleepy.getCount());
+        assertTrue(sleepy.getP50Nanos() >= 2_000_000);
+        assertTrue(sleepy.getMaxNanos() >= sleepy.getP99Nanos());
+        assertTrue(outer.getMeanNanos() >= 2 * sleepy.getMeanNanos() * 31 / 32);
+        assertTrue(outer.getSite().startsWith("ProfilingSinkTest.java("));
+
+        String[] report = TR.latencyReport().split(System.lineSeparator());
+        assertEquals(4, report.length);
+        assertEquals("TR latency profile, 2 methods", report[0]);
+        assertTrue(report[2], report[2].endsWith(")outer"));
+        assertTrue(report[3], report[3].trim().startsWith("6 "));
+    }
+
+    @Test
+    public void testCollapsedStacks() throws Exception {
+        TR.setSink(new ProfilingSink(delegate));
+        outer();
+        StringBuilder out = new StringBuilder();
+        TR.writeCollapsedStacks(out);
+        String[] lines = out.toString().split("\n");
+        String outer = ProfilingSinkTest.class.getName() + ".outer";
+        String sleepy = ProfilingSinkTest.class.getName() + ".sleepy";
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].matches(Pattern.quote(outer) + " \\d+"));
+        assertTrue(lines[1], lines[1].startsWith(outer + ";" + sleepy + " "));
+        long nanos = Long.parseLong(lines[1].substring(lines[1].indexOf(' ') + 1));
+        assertTrue(nanos >= 4_000_000);
+    }
+
+    @Test
+    public void testMergesTheTreesOfDeadThreads() throws Exception {
+        ProfilingSink sink = new ProfilingSink(delegate);
+        TR.setSink(sink);
+        for (int i = 0; i < 200; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    sleepy();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        assertTrue(sink.trees() < 64);
+
+        StringBuilder out = new StringBuilder();
+        sink.writeCollapsed(out);
+        assertEquals(0, sink.trees());
+        String[] lines = out.toString().split("\n");
+        assertEquals(1, lines.length);
+        long nanos = Long.parseLong(lines[0].substring(lines[0].indexOf(' ') + 1));
+        assertTrue(nanos >= 200 * 2_000_000L);
+        assertEquals(200, TR.latencyStats().get(0).getCount());
+    }
+
+    @Test
+    public void testUnmatchedExitIsIgnored() {
+        TR.setSink(new ProfilingSink(delegate));
+        TR.exit();
+        assertTrue(TR.latencyStats().isEmpty());
+    }
+
+    @Test
+    public void testOffByDefault() {
+        assertTrue(TR.latencyStats().isEmpty());
+        assertNull(TR.latencyReport());
+    }
+
+    @Test
+    public void testDurations() {
+        assertEquals("999ns", LatencyStats.duration(999));
+        assertEquals("12.3us", LatencyStats.duration(12_345));
+        assertEquals("4.57ms", LatencyStats.duration(4_567_000));
+        assertEquals("2.00s", LatencyStats.duration(2_000_000_000L));
+    }
+}
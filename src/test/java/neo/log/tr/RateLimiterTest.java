@@ -0,0 +1,105 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RateLimiterTest {
+
+    private final CapturingSink sink = new CapturingSink();
+
+    @After
+    public void tearDown() {
+        RateLimiter.configureFromSystemProperties();
+        TR.setSink(null);
+    }
+
+    @Test
+    public void testBurstThenRate() throws Exception {
+        RateLimiter.configure(20, 5);
+        RateLimiter limiter = new RateLimiter();
+        int admitted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (limiter.tryAcquire(Level.WARN)) {
+                admitted++;
+            }
+        }
+        assertEquals(5, admitted);
+        assertEquals(95, limiter.drainSuppressed());
+        assertEquals(0, limiter.drainSuppressed());
+        Thread.sleep(120);
+        assertTrue(limiter.tryAcquire(Level.WARN));
+    }
+
+    @Test
+    public void testUnlimited() {
+        RateLimiter.configure(0, 0);
+        RateLimiter limiter = new RateLimiter();
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(limiter.tryAcquire(Level.ERROR));
+        }
+        assertEquals(0, limiter.drainSuppressed());
+    }
+
+    @Test
+    public void testConcurrentBurst() throws Exception {
+        RateLimiter.configure(1, 1000);
+        RateLimiter limiter = new RateLimiter();
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    if (limiter.tryAcquire(Level.WARN)) {
+                        admitted.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // the burst, plus at most the tokens that came in while the threads ran
+        assertTrue(admitted.toString(), admitted.get() >= 1000 && admitted.get() <= 1010);
+        assertEquals(4000 - admitted.get(), limiter.drainSuppressed());
+    }
+
+    @Test
+    public void testSummaries() throws Exception {
+        RateLimiter.configure(10, 2);
+        TR.setSink(sink);
+        int site = TR.site$("limit.A", "A.java", 1, "run");
+        for (int i = 0; i < 50; i++) {
+            TR.warn$("storm %d", new Object[]{i}, site);
+        }
+        assertEquals(2, sink.lines.size());
+        Thread.sleep(150);
+        TR.warn$("after", new Object[0], site);
+        for (int i = 0; i < 10; i++) {
+            TR.error$("again", new Object[0], site);
+        }
+        TR.reportSuppressed();
+
+        assertEquals("WARN storm 0", sink.lines.get(0));
+        assertEquals("WARN storm 1", sink.lines.get(1));
+        assertEquals("WARN suppressed 48 similar events", sink.lines.get(2));
+        assertEquals("WARN after", sink.lines.get(3));
+        String summary = sink.lines.get(sink.lines.size() - 1);
+        assertTrue(summary, summary.matches("ERROR suppressed \\d+ similar events"));
+    }
+}
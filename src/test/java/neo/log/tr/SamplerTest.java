@@ -0,0 +1,124 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SamplerTest {
+
+    /**
+     * Traces every other subtree and counts how often it is asked.
+     */
+    private static final class Alternating extends Sampler {
+
+        int calls;
+
+        @Override
+        boolean sample() {
+            return calls++ % 2 == 0;
+        }
+    }
+
+    private final CapturingSink sink = new CapturingSink(CapturingSink.DEPTH);
+
+    @After
+    public void tearDown() {
+        TR.setSink(null);
+        TR.setSampler(null);
+    }
+
+    private static void outer(int n) {
+        TR.enter();
+        TR.debug("outer %d", n);
+        inner();
+        TR.info("info %d", n);
+        TR.exit();
+    }
+
+    private static void inner() {
+        TR.enter();
+        TR.debug("inner");
+        TR.exit(1);
+    }
+
+    @Test
+    public void testWholeSubtreeIsSampled() {
+        Alternating sampler = new Alternating();
+        TR.setSink(sink);
+        TR.setSampler(sampler);
+        outer(0);
+        outer(1);
+        outer(2);
+        TR.debug("top level");
+
+        assertEquals(3, sampler.calls);
+        String[] expected = {
+                "0 >", "1 outer 0", "1 >", "2 inner", "2 return 1", "1 <", "1 info 0", "0 <",
+                "0 info 1",
+                "0 >", "1 outer 2", "1 >", "2 inner", "2 return 1", "1 <", "1 info 2", "0 <",
+                "0 top level",
+        };
+        assertArrayEquals(expected, sink.lines.toArray());
+    }
+
+    @Test
+    public void testWovenSubtreeIsSampled() {
+        TR.setSink(sink);
+        TR.setSampler(Sampler.oneIn(Integer.MAX_VALUE));
+        int site = TR.site$("A", "A.java", 1, "run");
+        for (int i = 0; i < 10; i++) {
+            TR.enter$(site);
+            TR.debug$("dropped", new Object[0], site);
+            TR.exit$(site);
+        }
+        TR.setSampler(null);
+        TR.enter$(site);
+        TR.exit$(site);
+        assertArrayEquals(new String[]{"0 >", "0 <"}, sink.lines.toArray());
+    }
+
+    @Test
+    public void testWindowPerThread() {
+        Sampler.Window sampler = (Sampler.Window) Sampler.window(10, 100, TimeUnit.NANOSECONDS);
+        StringBuilder first = new StringBuilder();
+        StringBuilder second = new StringBuilder();
+        for (long now = 0; now < 100; now++) {
+            first.append(sampler.sample(now, 1) ? 'x' : '.');
+            second.append(sampler.sample(now, 2) ? 'x' : '.');
+        }
+        assertEquals(10, first.toString().replace(".", "").length());
+        assertEquals(10, second.toString().replace(".", "").length());
+        assertNotEquals(first.toString(), second.toString());
+        // the same thread keeps its phase from one period to the next
+        assertEquals(sampler.sample(3, 1), sampler.sample(103, 1));
+    }
+
+    @Test
+    public void testFactories() {
+        assertSame(Sampler.ALWAYS, Sampler.oneIn(1));
+        assertSame(Sampler.ALWAYS, Sampler.window(5, 5, TimeUnit.SECONDS));
+        assertEquals("1/1000", Sampler.oneIn(1000).toString());
+        assertEquals("10ms/1000ms", Sampler.window(10, 1000, TimeUnit.MILLISECONDS).toString());
+        try {
+            Sampler.oneIn(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOneInRate() {
+        Sampler sampler = Sampler.oneIn(10);
+        int sampled = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (sampler.sample()) {
+                sampled++;
+            }
+        }
+        assertTrue(String.valueOf(sampled), sampled > 9_000 && sampled < 11_000);
+    }
+}
@@ -0,0 +1,63 @@
+package neo.log.tr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of TR calls that are filtered out early: inside a subtree the sampler left out
+ * (the benchmark thread enters a root that is never sampled, then measures the calls
+ * below it), and from a woven call site of a class whose trace switch is off.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SamplingBenchmark {
+
+    private final int switchedOff = TR.site$("off.Switched", "Switched.java", 1, "run");
+    private final Object[] args = {42};
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        TR.setSampler(Sampler.oneIn(Integer.MAX_VALUE));
+        TR.enter();
+        TR.setTraceEnabled("off", false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        TR.exit();
+        TR.setSampler(null);
+        TR.removeTraceRule("off");
+    }
+
+    @Benchmark
+    public void unsampledEnterExit() {
+        TR.enter();
+        TR.exit();
+    }
+
+    @Benchmark
+    public void unsampledDebug() {
+        TR.debug("x=%d", 42);
+    }
+
+    @Benchmark
+    public void switchedOffDebug() {
+        TR.debug$("x=%d", args, switchedOff);
+    }
+}
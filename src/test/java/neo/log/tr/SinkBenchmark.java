@@ -0,0 +1,154 @@
+package neo.log.tr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-event cost of the sinks, without the stack walk.
+ * <p>
+ * {@code text} only renders the line the slf4j path would log, so it is a lower bound for
+ * that path; the appenders come on top of it. {@code flight} records an event the logger
+ * does not accept, which is what the flight recorder does for most events.
+ * {@code profile} times one enter/exit pair. {@code async} is what the tracing thread pays
+ * to queue an event; the background thread discards it instead of rendering, so that it
+ * keeps up. {@code leaf} renders the lines of a call that logs nothing in between, as two
+ * lines and collapsed into one. {@code chrome} writes the timeline events of one
+ * enter/exit pair to a file that rotates every 16MB.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SinkBenchmark {
+
+    private final CallSite site = CallSites.register("A", "A.java", 42, "method");
+    private final Object[] args = {12345, 67890L};
+    private Path file;
+    private MappedRingSink ring;
+    private FlightRecorderSink flight;
+    private ProfilingSink profile;
+    private AsyncSink async;
+    private Path timeline;
+    private ChromeTraceSink chrome;
+    private final RenderingSink rendering = new RenderingSink();
+    private final CollapsingSink collapsing = new CollapsingSink(rendering);
+
+    private static final class DisabledSink implements TraceSink {
+
+        @Override
+        public boolean isEnabled(neo.log.tr.Level level) {
+            return false;
+        }
+
+        @Override
+        public void write(neo.log.tr.Level level, int type, CallSite site, int depth,
+                          long threadId, String format, Object[] args) {
+        }
+    }
+
+    private static final class RenderingSink implements TraceSink {
+
+        String line;
+
+        @Override
+        public boolean isEnabled(neo.log.tr.Level level) {
+            return true;
+        }
+
+        @Override
+        public void write(neo.log.tr.Level level, int type, CallSite site, int depth,
+                          long threadId, String format, Object[] args) {
+            line = LoggerSink.render(depth, threadId, site, format,
+                    type == LEAF ? CollapsingSink.leafArgs(args) : args);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("tr4j", ".ring");
+        ring = new MappedRingSink(LoggerFactory.getLogger(TR.class), file, 1 << 16);
+        flight = new FlightRecorderSink(LoggerFactory.getLogger(TR.class), new DisabledSink(), 256);
+        profile = new ProfilingSink(new DisabledSink());
+        async = new AsyncSink(new DisabledSink(), 1 << 16, AsyncSink.Overflow.BLOCK);
+        timeline = Files.createTempFile("tr4j", ".json");
+        chrome = new ChromeTraceSink(LoggerFactory.getLogger(TR.class), new DisabledSink(),
+                timeline, 16 << 20, 10);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ring.close();
+        async.close();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(MappedRingSink.sitesFile(file));
+        chrome.close();
+        for (int part = 0; part <= chrome.currentPart(); part++) {
+            Files.deleteIfExists(chrome.part(part));
+        }
+    }
+
+    @Benchmark
+    public String text() {
+        return LoggerSink.render(3, 1L, site, "x=%d y=%d", args);
+    }
+
+    @Benchmark
+    public void ring() {
+        ring.write(neo.log.tr.Level.DEBUG, TraceSink.MESSAGE, site, 3, 1L, "x=%d y=%d", args);
+    }
+
+    @Benchmark
+    public void flight() {
+        flight.write(neo.log.tr.Level.DEBUG, TraceSink.MESSAGE, site, 3, 1L, "x=%d y=%d", args);
+    }
+
+    @Benchmark
+    public void profile() {
+        profile.write(neo.log.tr.Level.TRACE, TraceSink.ENTER, site, 3, 1L, ">", null);
+        profile.write(neo.log.tr.Level.TRACE, TraceSink.EXIT, site, 3, 1L, "<", null);
+    }
+
+    @Benchmark
+    public void async() {
+        async.write(neo.log.tr.Level.DEBUG, TraceSink.MESSAGE, site, 3, 1L, "x=%d y=%d", args);
+    }
+
+    @Benchmark
+    public void chrome() {
+        chrome.write(neo.log.tr.Level.TRACE, TraceSink.ENTER, site, 3, 1L, ">", null);
+        chrome.write(neo.log.tr.Level.TRACE, TraceSink.EXIT, site, 3, 1L, "<", null);
+    }
+
+    @Benchmark
+    public String leafTwoLines() {
+        rendering.write(neo.log.tr.Level.TRACE, TraceSink.ENTER, site, 3, 1L, ">", null);
+        String enter = rendering.line;
+        rendering.write(neo.log.tr.Level.TRACE, TraceSink.EXIT, site, 3, 1L, "<", null);
+        return enter;
+    }
+
+    @Benchmark
+    public String leafCollapsed() {
+        collapsing.write(neo.log.tr.Level.TRACE, TraceSink.ENTER, site, 3, 1L, ">", null);
+        collapsing.write(neo.log.tr.Level.TRACE, TraceSink.EXIT, site, 3, 1L, "<", null);
+        return rendering.line;
+    }
+}
@@ -0,0 +1,112 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SlowCallSinkTest {
+
+    private static final String LOGGER_NAME = SlowCallSinkTest.class.getName();
+
+    /**
+     * Accepts INFO and above, like a production logger configuration.
+     */
+    private static final class InfoSink implements TraceSink {
+
+        final List<String> lines = new ArrayList<>();
+
+        @Override
+        public boolean isEnabled(Level level) {
+            return level.compareTo(Level.INFO) >= 0;
+        }
+
+        @Override
+        public void write(Level level, int type, CallSite site, int depth, long threadId,
+                          String format, Object[] args) {
+            StringBuilder sb = new StringBuilder().append(level).append(' ');
+            MessageFormatter.formatTo(sb, format, args);
+            lines.add(sb.toString());
+        }
+    }
+
+    private final InfoSink delegate = new InfoSink();
+    private LogCapture reports;
+    private SlowCallSink sink;
+
+    private final int request = TR.site$("shop.Order", "Order.java", 10, "place");
+    private final int step = TR.site$("shop.Order", "Order.java", 20, "price");
+    private final int cart = TR.site$("shop.Cart", "Cart.java", 5, "add");
+
+    @Before
+    public void setUp() {
+        reports = LogCapture.start(LOGGER_NAME, org.apache.logging.log4j.Level.WARN);
+        sink = new SlowCallSink(LoggerFactory.getLogger(LOGGER_NAME), delegate, 20,
+                TimeUnit.MILLISECONDS, 4);
+        TR.setSink(sink);
+    }
+
+    @After
+    public void tearDown() {
+        TR.setSink(null);
+        reports.stop();
+    }
+
+    private void call(int site, long sleepMillis) throws InterruptedException {
+        TR.enter$(site);
+        TR.enter$(step);
+        TR.debug$("n=%d", new Object[]{7}, step);
+        Thread.sleep(sleepMillis);
+        TR.exit$(step);
+        TR.info$("done", new Object[0], site);
+        TR.exit$(site);
+    }
+
+    @Test
+    public void testFastCallsAreDiscarded() throws Exception {
+        call(request, 0);
+        assertTrue(reports.messages().isEmpty());
+        assertEquals(1, delegate.lines.size());
+        assertEquals("INFO done", delegate.lines.get(0));
+    }
+
+    @Test
+    public void testSlowCallIsLogged() throws Exception {
+        call(request, 30);
+        assertEquals(1, reports.messages().size());
+        String[] lines = reports.messages().get(0).split(System.lineSeparator());
+        assertTrue(lines[0], lines[0].startsWith("WARN TR slow call Order.java(10)place took "));
+        assertTrue(lines[0], lines[0].endsWith(", 6 events of thread ["
+                + Thread.currentThread().getId() + "]"));
+        // the buffer holds 4 events: enter, enter, debug and exit; the info is left out
+        assertEquals(7, lines.length);
+        assertTrue(lines[1], lines[1].matches("  \\+\\d+ns +TRACE \\[\\d+] Order.java\\(10\\)place : >"));
+        assertTrue(lines[3], lines[3].endsWith("Order.java(20)price : n=7"));
+        assertTrue(lines[4], lines[4].matches("  \\+[0-9.]+ms +TRACE .*price : <"));
+        assertEquals("  (1 events left out)", lines[5]);
+        assertTrue(lines[6], lines[6].endsWith("Order.java(10)place : <"));
+        // the buffer starts over
+        call(request, 0);
+        assertEquals(1, reports.messages().size());
+    }
+
+    @Test
+    public void testThresholdsByPrefix() throws Exception {
+        sink.setThreshold("shop.Order.place", 1, TimeUnit.SECONDS);
+        sink.setThreshold("shop", 1, TimeUnit.MILLISECONDS);
+        assertEquals(TimeUnit.SECONDS.toNanos(1), sink.threshold(CallSites.get(request)));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), sink.threshold(CallSites.get(cart)));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20),
+                sink.threshold(CallSites.register("shopping.X", "X.java", 1, "x")));
+        call(request, 5);
+        assertTrue(reports.messages().isEmpty());
+        call(cart, 5);
+        assertEquals(1, reports.messages().size());
+    }
+}
@@ -0,0 +1,119 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TRStatsTest {
+
+    private static final class NullSink implements TraceSink {
+
+        @Override
+        public boolean isEnabled(Level level) {
+            return true;
+        }
+
+        @Override
+        public void write(Level level, int type, CallSite site, int depth, long threadId,
+                          String format, Object[] args) {
+        }
+    }
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private ObjectName name;
+
+    @Before
+    public void setUp() throws Exception {
+        TR.getSink();
+        name = new ObjectName(TRStats.OBJECT_NAME);
+        server.invoke(name, "reset", null, null);
+    }
+
+    @After
+    public void tearDown() {
+        TR.setSink(null);
+        TR.setSampler(null);
+        TRStats.outputTiming = false;
+    }
+
+    private long attribute(String attribute) throws Exception {
+        return (Long) server.getAttribute(name, attribute);
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        TR.setSink(new NullSink());
+        int busy = TR.site$("stats.Busy", "Busy.java", 7, "run");
+        int quiet = TR.site$("stats.Quiet", "Quiet.java", 9, "run");
+        server.setAttribute(name, new Attribute("OutputTimingEnabled", true));
+        for (int i = 0; i < 5; i++) {
+            TR.enter$(busy);
+            TR.debug$("n=%d", new Object[]{i}, busy);
+            TR.exit$(busy);
+        }
+        TR.warn$("once", new Object[0], quiet);
+        TR.exit$(quiet);
+
+        assertEquals(11L, attribute("TraceEvents"));
+        assertEquals(5L, attribute("DebugEvents"));
+        assertEquals(0L, attribute("InfoEvents"));
+        assertEquals(1L, attribute("WarnEvents"));
+        assertEquals(1L, attribute("IndentMismatches"));
+        assertTrue(attribute("OutputNanos") > 0);
+        String[] top = (String[]) server.getAttribute(name, "TopCallSites");
+        assertEquals("15 Busy.java(7)run", top[0]);
+        assertEquals("2 Quiet.java(9)run", top[1]);
+    }
+
+    @Test
+    public void testRenderedBytes() throws Exception {
+        TR.setSink(new LoggerSink(LoggerFactory.getLogger(TR.class)));
+        int site = TR.site$("stats.Text", "Text.java", 1, "run");
+        TR.info$("h\u00e9llo", new Object[0], site);
+        String line = "[" + Thread.currentThread().getId() + "] Text.java(1)run : h\u00e9llo";
+        assertEquals(line.getBytes(StandardCharsets.UTF_8).length, attribute("RenderedBytes"));
+    }
+
+    @Test
+    public void testLevelAndSampling() throws Exception {
+        String level = (String) server.getAttribute(name, "Level");
+        try {
+            server.setAttribute(name, new Attribute("Level", "info"));
+            assertFalse(TR.getSink().isEnabled(Level.DEBUG));
+            assertTrue(TR.getSink().isEnabled(Level.INFO));
+        } finally {
+            server.setAttribute(name, new Attribute("Level", level));
+        }
+        assertTrue(TR.getSink().isEnabled(Level.TRACE));
+
+        assertEquals("always", server.getAttribute(name, "Sampling"));
+        server.setAttribute(name, new Attribute("Sampling", "1/1000"));
+        assertEquals("1/1000", TR.getSampler().toString());
+        server.setAttribute(name, new Attribute("Sampling", "10ms/1000ms"));
+        assertEquals("10ms/1000ms", server.getAttribute(name, "Sampling"));
+    }
+
+    @Test
+    public void testParseSampling() {
+        assertSame(Sampler.ALWAYS, Sampler.parse(" always "));
+        assertEquals("1/50", Sampler.parse("1/50").toString());
+        assertEquals("5ms/20ms", Sampler.parse("5ms/20ms").toString());
+        for (String bad : new String[]{"", "half", "2/3", "1/x", "5/20ms"}) {
+            try {
+                Sampler.parse(bad);
+                fail(bad);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
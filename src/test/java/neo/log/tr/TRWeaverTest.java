@@ -0,0 +1,72 @@
+package neo.log.tr;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static neo.log.tr.CallSiteWeaverTest.define;
+import static neo.log.tr.CallSiteWeaverTest.trCalls;
+import static neo.log.tr.CallSiteWeaverTest.unwovenBytes;
+import static org.junit.Assert.*;
+
+public class TRWeaverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWeaveClass() throws Exception {
+        byte[] woven = new TRWeaver().weave(unwovenBytes(WeaveFixture.class));
+        List<String> calls = trCalls(woven);
+        assertTrue(calls.contains("site$ (Ljava/lang/String;Ljava/lang/String;ILjava/lang/String;)I"));
+        assertTrue(calls.contains("enter$ (I)V"));
+
+        int before = CallSites.size();
+        Class<?> type = define(WeaveFixture.class.getName(), woven);
+        Object fixture = type.getConstructor().newInstance();
+        assertEquals(before + 8, CallSites.size());
+
+        Field field = type.getDeclaredField(TRWeaver.FIELD_PREFIX + 0);
+        assertTrue(Modifier.isStatic(field.getModifiers()));
+        assertTrue(Modifier.isFinal(field.getModifiers()));
+        assertTrue(field.isSynthetic());
+        field.setAccessible(true);
+        CallSite enter = CallSites.get(field.getInt(null));
+        assertEquals("run", enter.methodName);
+        assertEquals("WeaveFixture.java", enter.fileName);
+
+        assertEquals(1, type.getMethod("run").invoke(fixture));
+        type.getMethod("fail").invoke(fixture);
+    }
+
+    @Test
+    public void testWeaveInterface() throws Exception {
+        byte[] woven = new TRWeaver().weave(unwovenBytes(WeaveFixture.Parser.class));
+        Class<?> type = define(WeaveFixture.Parser.class.getName(), woven);
+        assertEquals(42, type.getMethod("parse", String.class).invoke(null, "42"));
+        assertTrue(Modifier.isPublic(
+                type.getDeclaredField(TRWeaver.FIELD_PREFIX + 0).getModifiers()));
+    }
+
+    @Test
+    public void testWeaveDirectory() throws Exception {
+        unwovenBytes(WeaveFixture.class);
+        Path dir = folder.getRoot().toPath();
+        Path pkg = Files.createDirectories(dir.resolve("neo/log/tr"));
+        for (Class<?> type : new Class<?>[]{WeaveFixture.class, WeaveFixture.Parser.class,
+                CallSitesTest.class, TR.class}) {
+            String name = type.getName().substring(type.getName().lastIndexOf('.') + 1);
+            Files.write(pkg.resolve(name + ".class"), CallSiteWeaverTest.classBytes(type));
+        }
+        TRWeaver weaver = new TRWeaver();
+        assertEquals(2, weaver.weaveDirectory(dir));
+        assertEquals(0, weaver.weaveDirectory(dir));
+        assertEquals(0, weaver.weaveDirectory(dir.resolve("missing")));
+    }
+}
@@ -0,0 +1,166 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TraceContextTest {
+
+    private static final long mainThread = Thread.currentThread().getId();
+
+    private final CapturingSink sink = new CapturingSink(
+            (sb, level, type, site, depth, threadId) ->
+                    sb.append(threadId == mainThread ? "main" : "pool").append(' ')
+                            .append(depth).append(' ').append(site.methodName).append(' '));
+    private final int outer = TR.site$("ctx.A", "A.java", 1, "outer");
+    private final int inner = TR.site$("ctx.B", "B.java", 2, "inner");
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        TR.setSink(sink);
+        pool = TraceContext.wrap(Executors.newSingleThreadExecutor());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        pool.awaitTermination(5, TimeUnit.SECONDS);
+        TR.setSink(null);
+        TR.spans = false;
+    }
+
+    private void innerCall() {
+        TR.enter$(inner);
+        TR.debug$("work", new Object[0], inner);
+        TR.exit$(inner);
+    }
+
+    @Test
+    public void testExecutorService() throws Exception {
+        assertEquals(mainThread, Thread.currentThread().getId());
+        TR.enter$(outer);
+        pool.submit(this::innerCall).get();
+        TR.exit$(outer);
+        pool.submit(this::innerCall).get();
+
+        String tid = "[" + mainThread + "]";
+        String[] expected = {
+                "main 0 outer >",
+                "pool 1 outer continued from " + tid,
+                "pool 1 inner >",
+                "pool 2 inner work",
+                "pool 1 inner <",
+                "main 0 outer <",
+                "pool 0 inner >",
+                "pool 1 inner work",
+                "pool 0 inner <",
+        };
+        assertEquals(Arrays.asList(expected), sink.lines());
+    }
+
+    @Test
+    public void testCompletableFuture() throws Exception {
+        TR.enter$(outer);
+        TraceContext context = TraceContext.capture();
+        CompletableFuture<Integer> future = CompletableFuture
+                .supplyAsync(context.supplier(() -> 20), pool)
+                .thenApplyAsync(context.function(n -> {
+                    innerCall();
+                    return n + 1;
+                }), pool);
+        assertEquals(21, (int) future.get());
+        TR.exit$(outer);
+
+        String continued = "pool 1 outer continued from [" + mainThread + "]";
+        String[] expected = {
+                "main 0 outer >",
+                continued,
+                continued,
+                "pool 1 inner >",
+                "pool 2 inner work",
+                "pool 1 inner <",
+                "main 0 outer <",
+        };
+        assertEquals(Arrays.asList(expected), sink.lines());
+    }
+
+    @Test
+    public void testCaptureIsReused() {
+        assertSame(TraceContext.NONE, TraceContext.capture());
+        Runnable task = () -> { };
+        assertSame(task, TraceContext.capture().runnable(task));
+        TR.enter$(outer);
+        TraceContext context = TraceContext.capture();
+        assertSame(context, TraceContext.capture());
+        assertEquals(1, context.getDepth());
+        assertEquals("[" + mainThread + "] depth 1 in A.java(1)outer", context.toString());
+        TR.enter$(inner);
+        assertNotSame(context, TraceContext.capture());
+        TR.exit$(inner);
+        TR.exit$(outer);
+    }
+
+    @Test
+    public void testNestedRestore() {
+        TR.enter$(outer);
+        TraceContext context = TraceContext.capture();
+        TR.exit$(outer);
+        TR.enter$(inner);
+        TR.enter$(inner);
+        context.run(() -> {
+            assertEquals(1, TR.currentIndentContext().depth());
+            context.run(() -> assertEquals(1, TR.currentIndentContext().depth()));
+            assertSame(CallSites.get(outer), TR.currentIndentContext().parent());
+        });
+        assertEquals(2, TR.currentIndentContext().depth());
+        assertSame(CallSites.get(inner), TR.currentIndentContext().parent());
+        TR.exit$(inner);
+        TR.exit$(inner);
+    }
+
+    @Test
+    public void testSpanIds() throws Exception {
+        TR.spans = true;
+        TR.enter$(outer);
+        long span = TraceContext.capture().getSpanId();
+        pool.submit(this::innerCall).get();
+        TR.exit$(outer);
+
+        List<String> lines = sink.lines();
+        assertEquals(6, lines.size());
+        String hex = Long.toHexString(span);
+        assertEquals("main 0 outer > span " + hex + " parent 0", lines.get(0));
+        assertEquals("pool 1 outer continued from [" + mainThread + "] span " + hex,
+                lines.get(1));
+        assertTrue(lines.get(2), lines.get(2).startsWith("pool 1 inner > span "));
+        assertTrue(lines.get(2), lines.get(2).endsWith(" parent " + hex));
+        String inner = lines.get(2).split(" ")[5];
+        assertEquals("pool 1 inner < span " + inner, lines.get(4));
+        assertEquals("main 0 outer < span " + hex, lines.get(5));
+        // different threads number their spans apart
+        assertNotEquals(span >>> 40, Long.parseLong(inner, 16) >>> 40);
+    }
+
+    @Test
+    public void testExitWithoutEnterHasNoSpan() {
+        TR.spans = true;
+        TR.enter$(outer);
+        TR.exit$(outer);
+        TR.exit$(outer);
+
+        List<String> lines = sink.lines();
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(1), lines.get(1).startsWith("main 0 outer < span "));
+        assertEquals("main 0 outer <", lines.get(2));
+    }
+}
@@ -0,0 +1,191 @@
+package neo.log.tr;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TraceDiffTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes calls of a.place that take the given milliseconds, each with the given number
+     * of calls of b.price inside, at the start of consecutive seconds.
+     */
+    private static void calls(List<String> lines, int thread, int[] millis, int prices,
+                              boolean tax) {
+        for (int i = 0; i < millis.length; i++) {
+            String second = String.format("12:00:%02d.", i);
+            lines.add(second + "000 TRACE [" + thread + "] A.java(10)place : >");
+            for (int j = 0; j < prices; j++) {
+                lines.add(second + "000 TRACE [" + thread + "]   B.java(20)price : >< [10us]");
+            }
+            if (tax) {
+                lines.add(second + "000 TRACE [" + thread + "]   C.java(30)tax : >< [20us]");
+            }
+            lines.add(String.format("%s%03d TRACE [%d] A.java(15)place : <", second,
+                    millis[i], thread));
+        }
+    }
+
+    private TraceLogAnalyzer.Report analyze(String name, List<String> lines) throws Exception {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return new TraceLogAnalyzer(2, 0).analyze(Collections.singletonList(file));
+    }
+
+    private static TraceDiff.Change change(List<TraceDiff.Change> changes, String site) {
+        for (TraceDiff.Change change : changes) {
+            if (change.site.equals(site)) {
+                return change;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testReportsSignificantChanges() throws Exception {
+        List<String> lines = new ArrayList<>();
+        calls(lines, 1, new int[]{10, 11, 9, 10, 12, 10, 9, 11, 10, 10}, 10, false);
+        TraceLogAnalyzer.Report baseline = analyze("baseline.log", lines);
+        lines.clear();
+        calls(lines, 1, new int[]{20, 21, 19, 22, 20, 18, 20, 21, 19, 20}, 30, true);
+        TraceLogAnalyzer.Report candidate = analyze("candidate.log", lines);
+
+        TraceDiff diff = new TraceDiff(baseline, candidate, 0.1, 3);
+        List<TraceDiff.Change> changes = diff.changes();
+        assertEquals(3, changes.size());
+        TraceDiff.Change place = changes.get(0);
+        assertEquals("A.java:place", place.site);
+        assertEquals("slower", place.verdict());
+        assertEquals("more calls", change(changes, "B.java:price").verdict());
+        assertEquals("new", change(changes, "C.java:tax").verdict());
+
+        // a 1% change is noise at 10%, and not 3 standard errors at 0.5%
+        lines.clear();
+        calls(lines, 1, new int[]{10, 11, 9, 10, 12, 10, 9, 11, 10, 11}, 10, false);
+        TraceLogAnalyzer.Report noise = analyze("noise.log", lines);
+        assertTrue(new TraceDiff(baseline, noise, 0.1, 3).changes().isEmpty());
+        assertTrue(new TraceDiff(baseline, noise, 0.005, 3).changes().isEmpty());
+        assertEquals(1, new TraceDiff(baseline, noise, 0.005, 0).changes().size());
+
+        List<TraceDiff.CallPath> paths = diff.paths();
+        assertEquals(1, paths.size());
+        assertTrue(paths.get(0).added);
+        assertEquals(10, paths.get(0).count);
+        assertEquals(Arrays.asList("A.java:place", "C.java:tax"), paths.get(0).sites);
+
+        StringBuilder sb = new StringBuilder();
+        diff.writeTo(sb, 10);
+        String[] report = sb.toString().split(System.lineSeparator());
+        assertEquals("TR diff, baseline 110 calls of 2 methods,"
+                + " candidate 320 calls of 3 methods", report[0]);
+        assertTrue(report[2], report[2].matches(" +10 +\\+0% +20\\.00ms +\\+96% +"
+                + "196\\.80ms +\\+95\\.80ms  A\\.java:place  slower"));
+        assertEquals("New path, 10 calls", report[6]);
+        assertEquals("   C.java:tax", report[8]);
+    }
+
+    @Test
+    public void testReadsRings() throws Exception {
+        Path ring = folder.getRoot().toPath().resolve("baseline.ring");
+        CallSite enter = CallSites.register("shop.A", "A.java", 10, "place");
+        CallSite exit = CallSites.register("shop.A", "A.java", 15, "place");
+        CallSite gone = CallSites.register("shop.D", "D.java", 40, "discount");
+        try (MappedRingSink sink = new MappedRingSink(LoggerFactory.getLogger(TR.class), ring,
+                64)) {
+            for (int i = 0; i < 3; i++) {
+                sink.write(Level.TRACE, TraceSink.ENTER, enter, 0, 1L, ">", null);
+                sink.write(Level.TRACE, TraceSink.ENTER, gone, 1, 1L, ">", null);
+                sink.write(Level.TRACE, TraceSink.EXIT, gone, 1, 1L, "<", null);
+                sink.write(Level.TRACE, TraceSink.EXIT, exit, 0, 1L, "<", null);
+            }
+        }
+        TraceLogAnalyzer.Report baseline = new TraceLogAnalyzer(1, 0)
+                .analyze(Collections.singletonList(ring));
+        assertEquals(6, baseline.calls);
+        assertEquals(0, baseline.untimed);
+
+        List<String> lines = new ArrayList<>();
+        calls(lines, 1, new int[]{1, 1, 1}, 0, false);
+        TraceDiff diff = new TraceDiff(baseline, analyze("candidate.log", lines), 0.1, 3);
+        assertEquals("gone", change(diff.changes(), "D.java:discount").verdict());
+        assertFalse(diff.paths().get(0).added);
+        assertEquals(Arrays.asList("A.java:place", "D.java:discount"),
+                diff.paths().get(0).sites);
+    }
+
+    private static TraceLogAnalyzer.Report recurse(Path ring, int depth, CallSite leaf)
+            throws Exception {
+        CallSite enter = CallSites.register("shop.R", "R.java", 10, "recurse");
+        CallSite exit = CallSites.register("shop.R", "R.java", 15, "recurse");
+        try (MappedRingSink sink = new MappedRingSink(LoggerFactory.getLogger(TR.class), ring,
+                2 * depth + 2)) {
+            for (int i = 0; i < depth; i++) {
+                sink.write(Level.TRACE, TraceSink.ENTER, enter, i, 1L, ">", null);
+            }
+            if (leaf != null) {
+                sink.write(Level.TRACE, TraceSink.ENTER, leaf, depth, 1L, ">", null);
+                sink.write(Level.TRACE, TraceSink.EXIT, leaf, depth, 1L, "<", null);
+            }
+            for (int i = depth - 1; i >= 0; i--) {
+                sink.write(Level.TRACE, TraceSink.EXIT, exit, i, 1L, "<", null);
+            }
+        }
+        return new TraceLogAnalyzer(1, 0).analyze(Collections.singletonList(ring));
+    }
+
+    @Test
+    public void testComparesDeepRecursion() throws Exception {
+        int depth = 30_000;
+        Path root = folder.getRoot().toPath();
+        TraceLogAnalyzer.Report baseline = recurse(root.resolve("baseline.ring"), depth, null);
+        CallSite leaf = CallSites.register("shop.L", "L.java", 20, "leaf");
+        TraceLogAnalyzer.Report candidate = recurse(root.resolve("candidate.ring"), depth,
+                leaf);
+
+        for (boolean byLine : new boolean[]{false, true}) {
+            List<TraceDiff.CallPath> paths = new TraceDiff(baseline, candidate, 0.1, 3,
+                    byLine).paths();
+            assertEquals(1, paths.size());
+            assertTrue(paths.get(0).added);
+            assertEquals(1, paths.get(0).count);
+            assertEquals(depth + 1, paths.get(0).sites.size());
+            assertEquals(byLine ? "L.java(20)leaf" : "L.java:leaf",
+                    paths.get(0).sites.get(depth));
+        }
+    }
+
+    @Test
+    public void testMatchesMovedMethods() throws Exception {
+        List<String> lines = new ArrayList<>();
+        calls(lines, 1, new int[]{1, 1, 1}, 0, false);
+        TraceLogAnalyzer.Report baseline = analyze("baseline.log", lines);
+        List<String> moved = new ArrayList<>();
+        for (String line : lines) {
+            moved.add(line.replace("A.java(10)place", "A.java(12)place"));
+        }
+        TraceLogAnalyzer.Report candidate = analyze("candidate.log", moved);
+
+        TraceDiff diff = new TraceDiff(baseline, candidate, 0.1, 3);
+        assertTrue(diff.changes().isEmpty());
+        assertTrue(diff.paths().isEmpty());
+
+        diff = new TraceDiff(baseline, candidate, 0.1, 3, true);
+        assertEquals("gone", change(diff.changes(), "A.java(10)place").verdict());
+        assertEquals("new", change(diff.changes(), "A.java(12)place").verdict());
+        assertEquals(2, diff.paths().size());
+    }
+}
@@ -0,0 +1,231 @@
+package neo.log.tr;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class TraceLogAnalyzerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String name, String... lines) throws Exception {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static TraceLogAnalyzer.MethodStats stats(TraceLogAnalyzer.Report report,
+                                                      String site) {
+        TraceLogAnalyzer.MethodStats stats = report.methods.get(site);
+        assertNotNull(site, stats);
+        return stats;
+    }
+
+    @Test
+    public void testParsesLines() {
+        String line = "2026/10/18 12:00:01.250 [main] TRACE [12]   Order.java(52)place : >";
+        int marker = TraceLogAnalyzer.marker(line);
+        assertEquals(line.indexOf("[12]"), marker);
+        assertEquals(12, TraceLogAnalyzer.threadId(line, marker));
+        assertEquals(((20744L * 24 + 12) * 3600 + 1) * 1_000_000_000L + 250_000_000L,
+                TraceLogAnalyzer.time(line, marker));
+        assertEquals(TraceLogAnalyzer.ENTER, TraceLogAnalyzer.type(line, line.length() - 1));
+        assertEquals(-1, TraceLogAnalyzer.marker("12:00:01 INFO [main] started"));
+        assertEquals(-1, TraceLogAnalyzer.marker("[1]  A.java(1)a : >"));
+        assertEquals(0, TraceLogAnalyzer.marker("[1] [depth 70] A.java(1)a : <"));
+
+        String decoded = "12.345ms TRACE [1] A.java(1)a : <";
+        assertEquals(12_345_000L, TraceLogAnalyzer.time(decoded, decoded.indexOf('[')));
+        String badDate = "2026-13-45 12:00:01.250 TRACE [12] Order.java(52)place : >";
+        assertEquals(TraceLogAnalyzer.NO_TIME,
+                TraceLogAnalyzer.time(badDate, TraceLogAnalyzer.marker(badDate)));
+        String noTime = "TRACE [1] A.java(1)a : > span 1 parent 0";
+        assertEquals(TraceLogAnalyzer.NO_TIME, TraceLogAnalyzer.time(noTime, 6));
+        assertEquals(TraceLogAnalyzer.ENTER, TraceLogAnalyzer.type(noTime, noTime.indexOf('>')));
+        assertEquals(TraceLogAnalyzer.OTHER, TraceLogAnalyzer.type("x : >>", 4));
+
+        assertEquals(3_400, TraceLogAnalyzer.duration("3.4us]", 0));
+        assertEquals(850, TraceLogAnalyzer.duration("850ns]", 0));
+        assertEquals(12_050_000, TraceLogAnalyzer.duration("12.05ms]", 0));
+        assertEquals(2_000_000_000L, TraceLogAnalyzer.duration("2.00s]", 0));
+        assertEquals(-1, TraceLogAnalyzer.duration("x]", 0));
+    }
+
+    @Test
+    public void testRebuildsCalls() throws Exception {
+        Path first = write("tr.log",
+                "12:00:00.000 TRACE [1]   Old.java(3)gone : <",
+                "12:00:00.000 TRACE [1] A.java(10)outer : >",
+                "12:00:00.001 TRACE [2] A.java(10)outer : >",
+                "12:00:00.002 TRACE [1]   B.java(20)inner : >",
+                "12:00:00.002 DEBUG [1]     B.java(21)inner : x=1",
+                "12:00:00.005 TRACE [1]   B.java(25)inner : <",
+                "12:00:00.005 TRACE [1]   C.java(5)leaf : >< [1.50ms]",
+                "12:00:00.010 TRACE [1] A.java(15)outer : <");
+        Path second = write("tr.1.log.gz");
+        try (Writer out = new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(second)), StandardCharsets.UTF_8)) {
+            out.write("12:00:00.004 TRACE [2]   B.java(20)inner : >\n"
+                    + "12:00:00.007 TRACE [2]   B.java(25)inner : <\n"
+                    + "12:00:00.011 TRACE [2] A.java(15)outer : <\n"
+                    + "12:00:00.011 TRACE [2] A.java(10)outer : >\n");
+        }
+
+        TraceLogAnalyzer.Report report = new TraceLogAnalyzer(2, 3)
+                .analyze(Arrays.asList(first, second));
+        assertEquals(12, report.lines);
+        assertEquals(2, report.threads);
+        assertEquals(5, report.calls);
+        assertEquals(1, report.unmatched);
+        assertEquals(1, report.unfinished);
+
+        TraceLogAnalyzer.MethodStats outer = stats(report, "A.java(10)outer");
+        assertEquals(2, outer.count);
+        assertEquals(20_000_000, outer.inclusive);
+        assertEquals(10_000_000, outer.max);
+        // 10ms - 3ms - 1.5ms and 10ms - 3ms
+        assertEquals(12_500_000, outer.exclusive);
+        TraceLogAnalyzer.MethodStats inner = stats(report, "B.java(20)inner");
+        assertEquals(2, inner.count);
+        assertEquals(6_000_000, inner.inclusive);
+        assertEquals(6_000_000, inner.exclusive);
+        assertEquals(1_500_000, stats(report, "C.java(5)leaf").inclusive);
+
+        List<TraceLogAnalyzer.MethodStats> methods = report.methods();
+        assertEquals("A.java(10)outer", methods.get(0).site);
+        assertEquals(2, report.deepest.get(0).depth());
+        assertEquals(Arrays.asList("A.java(10)outer", "B.java(20)inner"),
+                report.deepest.get(0).sites);
+
+        StringBuilder sb = new StringBuilder();
+        report.writeTo(sb, 2);
+        String[] lines = sb.toString().split(System.lineSeparator());
+        assertEquals("TR log analysis, 12 lines, 5 calls of 3 methods, 2 threads", lines[0]);
+        assertEquals("1 exits without enter, 1 enters without exit, 0 lines without time",
+                lines[1]);
+        assertTrue(lines[3], lines[3].matches(
+                " +2 +20\\.00ms +12\\.50ms +10\\.00ms +10\\.00ms  A\\.java\\(10\\)outer"));
+        assertEquals("(1 methods left out)", lines[5]);
+        assertTrue(lines[7], lines[7].startsWith("Depth 2 in thread ["));
+        assertEquals("   B.java(20)inner", lines[9]);
+    }
+
+    @Test
+    public void testHeldEnterCountsFromWhenItWasMade() throws Exception {
+        Path file = write("tr.log",
+                "12:00:01.020 TRACE [1] A.java(10)outer : > [held 1.02s]",
+                "12:00:01.100 TRACE [1] A.java(15)outer : <");
+        TraceLogAnalyzer.Report report = new TraceLogAnalyzer(1, 0)
+                .analyze(Collections.singletonList(file));
+        assertEquals(1_100_000_000L, stats(report, "A.java(10)outer").inclusive);
+    }
+
+    @Test
+    public void testCallsOverMidnight() throws Exception {
+        Path file = write("tr.log",
+                "2026-10-18 23:59:59.900 TRACE [1] A.java(1)a : >",
+                "23:59:59.950 TRACE [2] A.java(1)a : >",
+                "2026-10-19 00:00:00.100 TRACE [1] A.java(2)a : <",
+                "00:00:00.050 TRACE [2] A.java(2)a : <");
+        TraceLogAnalyzer.Report report = new TraceLogAnalyzer(1, 0)
+                .analyze(Collections.singletonList(file));
+        TraceLogAnalyzer.MethodStats a = stats(report, "A.java(1)a");
+        assertEquals(2, a.count);
+        assertEquals(300_000_000, a.inclusive);
+        assertTrue(report.deepest.isEmpty());
+    }
+
+    @Test
+    public void testReadsFilesAheadInTheirOrder() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int f = 0; f < 10; f++) {
+            List<String> lines = new ArrayList<>();
+            // each file ends the calls the one before it started
+            for (int t = 0; t < 8; t++) {
+                lines.add(String.format("12:00:%02d.000 TRACE [%d] A.java(2)a : <", f, t));
+            }
+            for (int i = 0; i < 20000; i++) {
+                lines.add(String.format("12:00:%02d.100 TRACE [%d] B.java(1)b : >< [1.00ms]",
+                        f, i % 8));
+            }
+            for (int t = 0; t < 8; t++) {
+                lines.add(String.format("12:00:%02d.500 TRACE [%d] A.java(1)a : >", f, t));
+            }
+            files.add(write("tr." + f + ".log", lines.toArray(new String[0])));
+        }
+        TraceLogAnalyzer.Report report = new TraceLogAnalyzer(3, 0).analyze(files);
+        assertEquals(10 * 20016, report.lines);
+        assertEquals(8, report.unmatched);
+        assertEquals(8, report.unfinished);
+        TraceLogAnalyzer.MethodStats a = stats(report, "A.java(1)a");
+        assertEquals(72, a.count);
+        assertEquals(72 * 500_000_000L, a.inclusive);
+
+        files.add(5, folder.getRoot().toPath().resolve("missing.log"));
+        try {
+            new TraceLogAnalyzer(3, 0).analyze(files);
+            fail();
+        } catch (NoSuchFileException expected) {
+            // the files after it were read ahead and are dropped
+        }
+    }
+
+    @Test
+    public void testForgetsIdleThreads() throws Exception {
+        List<String> lines = new ArrayList<>();
+        lines.add("12:00:00.000 TRACE [1] A.java(1)a : >");
+        lines.add("12:00:00.001 TRACE [1] A.java(2)a : <");
+        lines.add("12:00:00.001 TRACE [3] A.java(1)a : >");
+        // more lines than a thread without open calls is kept for
+        for (int i = 0; i < 40000; i++) {
+            lines.add("12:00:00.002 TRACE [2] B.java(1)b : >");
+            lines.add("12:00:00.003 TRACE [2] B.java(2)b : <");
+        }
+        lines.add("12:00:00.004 TRACE [1] A.java(1)a : >");
+        lines.add("12:00:00.006 TRACE [1] A.java(2)a : <");
+        lines.add("12:00:00.009 TRACE [3] A.java(2)a : <");
+        Path file = write("tr.log", lines.toArray(new String[0]));
+        TraceLogAnalyzer.Report report = new TraceLogAnalyzer(1, 0)
+                .analyze(Collections.singletonList(file));
+        assertEquals(3, report.threads);
+        assertEquals(40003, report.calls);
+        assertEquals(0, report.unmatched);
+        TraceLogAnalyzer.MethodStats a = stats(report, "A.java(1)a");
+        assertEquals(3, a.count);
+        // thread 3 kept its open call
+        assertEquals(11_000_000, a.inclusive);
+    }
+
+    @Test
+    public void testMergesVariancesWithoutLosingThem() {
+        // a day-long offset dwarfs the spread, which a sum of squares would round away
+        long offset = 86_400_000_000_000L;
+        TraceLogAnalyzer.MethodStats first = new TraceLogAnalyzer.MethodStats("A.java(1)a");
+        TraceLogAnalyzer.MethodStats second = new TraceLogAnalyzer.MethodStats("A.java(1)a");
+        first.add(offset + 1, 0);
+        first.add(offset + 2, 0);
+        second.add(offset + 3, 0);
+        second.add(offset + 4, 0);
+        second.add(offset + 5, 0);
+        TraceLogAnalyzer.MethodStats merged = new TraceLogAnalyzer.MethodStats("A.java(1)a");
+        merged.merge(first);
+        merged.merge(second);
+        assertEquals(5, merged.timed);
+        assertEquals(2.5, merged.variance(), 1e-6);
+    }
+}
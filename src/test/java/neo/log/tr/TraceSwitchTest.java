@@ -0,0 +1,84 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TraceSwitchTest {
+
+    @After
+    public void tearDown() {
+        TR.setSink(null);
+        TraceSwitch.configure(null);
+    }
+
+    @Test
+    public void testLongestPrefixWins() {
+        TraceSwitch.configure("com.ourshop.matching.*, -com.ourshop.matching.Noisy,");
+        assertTrue(TR.isTraceEnabled("com.ourshop.matching.Book"));
+        assertTrue(TR.isTraceEnabled("com.ourshop.matching.book.Side"));
+        assertTrue(TR.isTraceEnabled("com.ourshop.matching"));
+        assertFalse(TR.isTraceEnabled("com.ourshop.matching.Noisy"));
+        assertFalse(TR.isTraceEnabled("com.ourshop.matching.Noisy$Inner"));
+        assertTrue(TR.isTraceEnabled("com.ourshop.matching.NoisyNot"));
+        assertFalse(TR.isTraceEnabled("com.ourshop.matchingengine.Book"));
+        assertFalse(TR.isTraceEnabled("com.ourshop.Web"));
+
+        TR.setTraceEnabled("*", true);
+        assertTrue(TR.isTraceEnabled("com.ourshop.Web"));
+        assertFalse(TR.isTraceEnabled("com.ourshop.matching.Noisy"));
+        TR.removeTraceRule("com.ourshop.matching.Noisy");
+        assertTrue(TR.isTraceEnabled("com.ourshop.matching.Noisy"));
+    }
+
+    @Test
+    public void testEnabledWithoutRules() {
+        assertTrue(TR.isTraceEnabled("any.Class"));
+    }
+
+    @Test
+    public void testCSharpIsQuietUnlessNamed() {
+        assertFalse(TR.isTraceEnabled("neo.csharp.io.BinaryReader"));
+        TraceSwitch.configure("*");
+        assertFalse(TR.isTraceEnabled("neo.csharp.io.BinaryReader"));
+        TraceSwitch.configure("neo.csharp.io");
+        assertTrue(TR.isTraceEnabled("neo.csharp.io.BinaryReader"));
+        assertFalse(TR.isTraceEnabled("neo.csharp.BitConverter"));
+        TR.setTraceEnabled("neo.csharp", true);
+        assertTrue(TR.isTraceEnabled("neo.csharp.BitConverter"));
+    }
+
+    @Test
+    public void testSwitchesExistingSites() {
+        CallSite book = CallSites.register("com.ourshop.matching.Book", "Book.java", 1, "add");
+        CallSite web = CallSites.register("com.ourshop.Web", "Web.java", 1, "get");
+        assertSame(book.traceSwitch, TraceSwitch.forClass("com.ourshop.matching.Book"));
+        assertTrue(book.traceSwitch.enabled && web.traceSwitch.enabled);
+
+        TR.setTraceEnabled("", false);
+        TR.setTraceEnabled("com.ourshop.matching", true);
+        assertTrue(book.traceSwitch.enabled);
+        assertFalse(web.traceSwitch.enabled);
+
+        CapturingSink sink = new CapturingSink((sb, level, type, site, depth, threadId) ->
+                sb.append(depth).append(' ').append(site.className).append(' '));
+        TR.setSink(sink);
+        TR.enter$(web.id);
+        TR.enter$(book.id);
+        TR.debug$("added", new Object[0], book.id);
+        TR.debug$("dropped", new Object[0], web.id);
+        TR.info$("always", new Object[0], web.id);
+        TR.exit$(book.id);
+        TR.exit$(web.id);
+        TR.debug("this test class is switched off too");
+
+        String[] expected = {
+                "0 com.ourshop.matching.Book >",
+                "1 com.ourshop.matching.Book added",
+                "1 com.ourshop.Web always",
+                "0 com.ourshop.matching.Book <",
+        };
+        assertArrayEquals(expected, sink.lines.toArray());
+    }
+}
@@ -0,0 +1,141 @@
+package neo.log.tr;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class ValuesTest {
+
+    private static String render(Object value) {
+        StringBuilder sb = new StringBuilder("prefix:");
+        Values.appendTo(sb, value);
+        return sb.substring("prefix:".length());
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @After
+    public void tearDown() {
+        Values.register(Number.class, null);
+        Values.register(CharSequence.class, null);
+        TR.setSink(null);
+    }
+
+    @Test
+    public void testDeferringSinkGetsValueRenderedAtCallTime() {
+        List<Object> values = new ArrayList<>();
+        TR.setSink(new TraceSink() {
+            @Override
+            public boolean isEnabled(Level level) {
+                return true;
+            }
+
+            @Override
+            public boolean defersRendering() {
+                return true;
+            }
+
+            @Override
+            public void write(Level level, int type, CallSite site, int depth, long threadId,
+                              String format, Object[] args) {
+                if (args != null && args.length > 0) {
+                    values.add(args[0]);
+                }
+            }
+        });
+        List<Integer> list = new ArrayList<>(Arrays.asList(1, 2));
+        TR.debug(list);
+        list.add(3);
+        assertEquals(1, values.size());
+        assertTrue(values.get(0) instanceof Values.Rendered);
+        assertEquals("[1, 2]", render(values.get(0)));
+        TR.setSink(new CapturingSink());
+        TR.debug(list);
+        assertEquals("[1, 2, 3]", ((CapturingSink) TR.getSink()).lines().get(0).substring(6));
+    }
+
+    @Test
+    public void testSmallValuesAreUnchanged() {
+        assertEquals("null", render(null));
+        assertEquals("text", render("text"));
+        assertEquals("[1, 2]", render(Arrays.asList(1, 2)));
+        TreeMap<String, Integer> map = new TreeMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        assertEquals("{a=1, b=2}", render(map));
+        assertEquals("[]", render(new ArrayList<>()));
+        assertEquals("[1, 2, 3]", render(new int[]{1, 2, 3}));
+        assertEquals("[a, null]", render(new String[]{"a", null}));
+        assertEquals("[[1], [2]]", render(new long[][]{{1}, {2}}));
+    }
+
+    @Test
+    public void testBytes() {
+        assertEquals("byte[0]", render(new byte[0]));
+        assertEquals("byte[3] 00ff7f", render(new byte[]{0, -1, 127}));
+        byte[] large = new byte[1 << 20];
+        large[0] = 0x12;
+        assertEquals("byte[1048576] 12" + repeat('0', 2 * Values.MAX_BYTES - 2) + "...",
+                render(large));
+    }
+
+    @Test
+    public void testElementLimit() {
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            list.add(i);
+        }
+        String rendered = render(list);
+        assertTrue(rendered, rendered.startsWith("[0, 1, 2, "));
+        assertTrue(rendered, rendered.endsWith(", 15, ... 984 more]"));
+        assertTrue(render(new int[1000]).endsWith(", 0, ... 984 more]"));
+    }
+
+    @Test
+    public void testCharacterBudget() {
+        String text = repeat('x', Values.MAX_CHARS + 10);
+        assertEquals(repeat('x', Values.MAX_CHARS) + "...", render(text));
+        assertEquals(repeat('x', Values.MAX_CHARS) + "...", render(new StringBuilder(text)));
+        Object big = new Object() {
+            @Override
+            public String toString() {
+                return text;
+            }
+        };
+        assertEquals(repeat('x', Values.MAX_CHARS) + "...", render(big));
+        // a list of long strings stops at the budget
+        List<String> texts = Collections.nCopies(10, text);
+        String rendered = render(texts);
+        assertTrue(rendered, rendered.length() < Values.MAX_CHARS + 32);
+        assertTrue(rendered, rendered.endsWith("..., ... 9 more]"));
+    }
+
+    @Test
+    public void testRenderers() {
+        Values.register(Number.class, (n, out) -> out.append("#").append(n.intValue()));
+        assertEquals("#42", render(42.5));
+        assertEquals("[#1, #2]", render(Arrays.asList(1L, 2.0)));
+        Values.register(CharSequence.class, (c, out) -> out.append(c.length()).append(" chars"));
+        assertEquals("4 chars", render(new StringBuilder("abcd")));
+        Values.register(Number.class, null);
+        assertEquals("42.5", render(42.5));
+    }
+
+    @Test
+    public void testFormatter() {
+        StringBuilder sb = new StringBuilder();
+        MessageFormatter.formatTo(sb, "return %s", (Object) new byte[]{1, 2});
+        assertEquals("return byte[2] 0102", sb.toString());
+    }
+}
@@ -0,0 +1,38 @@
+package neo.log.tr;
+
+/**
+ * Woven by CallSiteWeaverTest and TRWeaverTest.
+ */
+public class WeaveFixture {
+
+    static final String NAME;
+
+    static {
+        NAME = "fixture";
+        TR.debug("initialized %s", NAME);
+    }
+
+    public int run() {
+        TR.enter();
+        TR.debug("A number is %d", 1);
+        TR.info("some info");
+        return TR.exit(1);
+    }
+
+    public void fail() {
+        TR.enter();
+        try {
+            throw new IllegalStateException("expected");
+        } catch (IllegalStateException e) {
+            TR.warn(e);
+        }
+        TR.exit();
+    }
+
+    public interface Parser {
+        static int parse(String s) {
+            TR.enter();
+            return TR.exit(Integer.parseInt(s));
+        }
+    }
+}